@@ -0,0 +1,411 @@
+package com.maryanovsky.pbjz.gen;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.Set;
+
+
+
+/**
+ * The options of the code generator, passed to the plugin by protoc as a comma-separated list in
+ * the parameter of the output directive, e.g.
+ * {@code --javaz_out=primitive_arrays=points.proto:out_dir}. The supported options are:
+ * <ul>
+ *     <li>{@code primitive_arrays}, optionally followed by {@code =file.proto}: the repeated
+ *     numeric and {@code bool} fields of the messages in the given proto file (or in all files, if
+ *     none is given) are represented by Java arrays of the primitive type ({@code int[]},
+ *     {@code long[]}, {@code double[]}, {@code float[]} and {@code boolean[]}) rather than by
+ *     collections of boxed values. The option may be repeated, to name several files.</li>
+ *     <li>{@code proto_io}, optionally followed by {@code =file.proto}: the codecs of the messages
+ *     in the given proto file (or in all files, if none is given) also read from
+ *     {@link com.maryanovsky.pbjz.runtime.ProtoReader} and write into
+ *     {@link com.maryanovsky.pbjz.runtime.ProtoWriter} directly, rather than via protobuf's
+ *     streams. The option may be repeated, to name several files.</li>
+ *     <li>{@code aliased_bytes}, optionally followed by {@code =file.proto}: the singular
+ *     {@code bytes} fields of the messages in the given proto file (or in all files, if none is
+ *     given) are represented by read-only {@link java.nio.ByteBuffer}s rather than byte arrays,
+ *     and are read without copying, as slices of the input. The input must then not be modified
+ *     while the decoded values are in use. The option may be repeated, to name several files.</li>
+ *     <li>{@code lazy_strings}, optionally followed by {@code =file.proto}: the singular
+ *     {@code string} fields of the messages in the given proto file (or in all files, if none is
+ *     given) are represented by {@link com.maryanovsky.pbjz.runtime.LazyString}s, which are decoded
+ *     on first access. Like those of {@code aliased_bytes}, the encoded bytes of values read from a
+ *     {@link com.maryanovsky.pbjz.runtime.ProtoReader} alias the input, which must then not be
+ *     modified while the decoded values are in use. The option may be repeated, to name several
+ *     files.</li>
+ *     <li>{@code intern_strings}, optionally followed by {@code =file.proto}: the singular
+ *     {@code string} fields of the messages in the given proto file (or in all files, if none is
+ *     given) are decoded via the {@link com.maryanovsky.pbjz.runtime.StringInterner} set on their
+ *     codec, if any, so that equal strings share a single instance. When {@code lazy_strings} also
+ *     applies to a file, it takes precedence, as lazy strings are not decoded when read. The
+ *     option may be repeated, to name several files.</li>
+ *     <li>{@code lazy_messages}, optionally followed by {@code =file.proto}: the singular message
+ *     fields of the messages in the given proto file (or in all files, if none is given) are
+ *     represented by {@link com.maryanovsky.pbjz.runtime.LazyMessage}s, which are decoded on
+ *     first access. A value that was read is written back as the bytes it was read from, even if
+ *     it has been decoded, so changing the field means replacing its
+ *     {@link com.maryanovsky.pbjz.runtime.LazyMessage} with a new one, rather than modifying the
+ *     decoded value. The option may be repeated, to name several files.</li>
+ * </ul>
+ *
+ * The options are resolved for each proto file into a {@link FileOptions}, which the generators
+ * take.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class GeneratorOptions{
+
+
+
+	/**
+	 * The name of the option that selects primitive arrays for repeated scalar fields.
+	 */
+	private static final String PRIMITIVE_ARRAYS_OPTION = "primitive_arrays";
+
+
+
+	/**
+	 * The name of the option that selects generating reading and writing methods for
+	 * {@link com.maryanovsky.pbjz.runtime.ProtoReader} and
+	 * {@link com.maryanovsky.pbjz.runtime.ProtoWriter}.
+	 */
+	private static final String PROTO_IO_OPTION = "proto_io";
+
+
+
+	/**
+	 * The name of the option that selects read-only {@link java.nio.ByteBuffer}s slicing the input
+	 * for {@code bytes} fields.
+	 */
+	private static final String ALIASED_BYTES_OPTION = "aliased_bytes";
+
+
+
+	/**
+	 * The name of the option that selects lazily decoded {@code string} fields.
+	 */
+	private static final String LAZY_STRINGS_OPTION = "lazy_strings";
+
+
+
+	/**
+	 * The name of the option that selects decoding {@code string} fields via a
+	 * {@link com.maryanovsky.pbjz.runtime.StringInterner}.
+	 */
+	private static final String INTERN_STRINGS_OPTION = "intern_strings";
+
+
+
+	/**
+	 * The name of the option that selects lazily decoded message fields.
+	 */
+	private static final String LAZY_MESSAGES_OPTION = "lazy_messages";
+
+
+
+	/**
+	 * The files in which primitive arrays are used.
+	 */
+	@NotNull
+	private final FileSelection primitiveArrays;
+
+
+
+	/**
+	 * The files in which {@link com.maryanovsky.pbjz.runtime.ProtoReader} and
+	 * {@link com.maryanovsky.pbjz.runtime.ProtoWriter} methods are generated.
+	 */
+	@NotNull
+	private final FileSelection protoIo;
+
+
+
+	/**
+	 * The files in which {@code bytes} fields are aliased.
+	 */
+	@NotNull
+	private final FileSelection aliasedBytes;
+
+
+
+	/**
+	 * The files in which {@code string} fields are decoded lazily.
+	 */
+	@NotNull
+	private final FileSelection lazyStrings;
+
+
+
+	/**
+	 * The files in which {@code string} fields are decoded via a
+	 * {@link com.maryanovsky.pbjz.runtime.StringInterner}.
+	 */
+	@NotNull
+	private final FileSelection internStrings;
+
+
+
+	/**
+	 * The files in which message fields are decoded lazily.
+	 */
+	@NotNull
+	private final FileSelection lazyMessages;
+
+
+
+	/**
+	 * Creates new options with the given values.
+	 */
+	private GeneratorOptions(@NotNull FileSelection primitiveArrays, @NotNull FileSelection protoIo, @NotNull FileSelection aliasedBytes, @NotNull FileSelection lazyStrings, @NotNull FileSelection internStrings, @NotNull FileSelection lazyMessages){
+		this.primitiveArrays = primitiveArrays;
+		this.protoIo = protoIo;
+		this.aliasedBytes = aliasedBytes;
+		this.lazyStrings = lazyStrings;
+		this.internStrings = internStrings;
+		this.lazyMessages = lazyMessages;
+	}
+
+
+
+	/**
+	 * Parses the options from the given plugin parameter.
+	 *
+	 * @throws IllegalArgumentException if the parameter contains an unknown option.
+	 */
+	@NotNull
+	public static GeneratorOptions parse(@NotNull String parameter){
+		FileSelection primitiveArrays = new FileSelection();
+		FileSelection protoIo = new FileSelection();
+		FileSelection aliasedBytes = new FileSelection();
+		FileSelection lazyStrings = new FileSelection();
+		FileSelection internStrings = new FileSelection();
+		FileSelection lazyMessages = new FileSelection();
+
+		for (String option : parameter.split(",")){
+			option = option.trim();
+			if (option.isEmpty())
+				continue;
+
+			int equalsIndex = option.indexOf('=');
+			String name = (equalsIndex < 0) ? option : option.substring(0, equalsIndex).trim();
+			String value = (equalsIndex < 0) ? null : option.substring(equalsIndex + 1).trim();
+			if (name.equals(PRIMITIVE_ARRAYS_OPTION))
+				primitiveArrays.add(value);
+			else if (name.equals(PROTO_IO_OPTION))
+				protoIo.add(value);
+			else if (name.equals(ALIASED_BYTES_OPTION))
+				aliasedBytes.add(value);
+			else if (name.equals(LAZY_STRINGS_OPTION))
+				lazyStrings.add(value);
+			else if (name.equals(INTERN_STRINGS_OPTION))
+				internStrings.add(value);
+			else if (name.equals(LAZY_MESSAGES_OPTION))
+				lazyMessages.add(value);
+			else
+				throw new IllegalArgumentException("Unknown option: " + name);
+		}
+
+		return new GeneratorOptions(primitiveArrays, protoIo, aliasedBytes, lazyStrings, internStrings, lazyMessages);
+	}
+
+
+
+	/**
+	 * Returns the options that apply to the proto file with the given name.
+	 */
+	@NotNull
+	public FileOptions forFile(@NotNull String protoFileName){
+		return new FileOptions(
+				primitiveArrays.contains(protoFileName),
+				protoIo.contains(protoFileName),
+				aliasedBytes.contains(protoFileName),
+				lazyStrings.contains(protoFileName),
+				internStrings.contains(protoFileName),
+				lazyMessages.contains(protoFileName));
+	}
+
+
+
+	/**
+	 * The options that apply to a single proto file.
+	 */
+	public static final class FileOptions{
+
+
+
+		/**
+		 * Whether repeated numeric and {@code bool} fields are represented by primitive arrays.
+		 */
+		private final boolean primitiveArrays;
+
+
+
+		/**
+		 * Whether the codecs also read from {@link com.maryanovsky.pbjz.runtime.ProtoReader} and
+		 * write into {@link com.maryanovsky.pbjz.runtime.ProtoWriter} directly.
+		 */
+		private final boolean protoIo;
+
+
+
+		/**
+		 * Whether singular {@code bytes} fields are represented by read-only
+		 * {@link java.nio.ByteBuffer}s slicing the input.
+		 */
+		private final boolean aliasedBytes;
+
+
+
+		/**
+		 * Whether singular {@code string} fields are represented by
+		 * {@link com.maryanovsky.pbjz.runtime.LazyString}s.
+		 */
+		private final boolean lazyStrings;
+
+
+
+		/**
+		 * Whether singular {@code string} fields are decoded via a
+		 * {@link com.maryanovsky.pbjz.runtime.StringInterner}, if {@link #lazyStrings} is false.
+		 */
+		private final boolean internStrings;
+
+
+
+		/**
+		 * Whether singular message fields are represented by
+		 * {@link com.maryanovsky.pbjz.runtime.LazyMessage}s.
+		 */
+		private final boolean lazyMessages;
+
+
+
+		/**
+		 * Creates new file options with the given values.
+		 */
+		FileOptions(boolean primitiveArrays, boolean protoIo, boolean aliasedBytes, boolean lazyStrings, boolean internStrings, boolean lazyMessages){
+			this.primitiveArrays = primitiveArrays;
+			this.protoIo = protoIo;
+			this.aliasedBytes = aliasedBytes;
+			this.lazyStrings = lazyStrings;
+			this.internStrings = internStrings;
+			this.lazyMessages = lazyMessages;
+		}
+
+
+
+		/**
+		 * Returns whether repeated numeric and {@code bool} fields are represented by primitive
+		 * arrays.
+		 */
+		public boolean primitiveArrays(){
+			return primitiveArrays;
+		}
+
+
+
+		/**
+		 * Returns whether the codecs also read from
+		 * {@link com.maryanovsky.pbjz.runtime.ProtoReader} and write into
+		 * {@link com.maryanovsky.pbjz.runtime.ProtoWriter} directly.
+		 */
+		public boolean protoIo(){
+			return protoIo;
+		}
+
+
+
+		/**
+		 * Returns whether singular {@code bytes} fields are represented by read-only
+		 * {@link java.nio.ByteBuffer}s slicing the input.
+		 */
+		public boolean aliasedBytes(){
+			return aliasedBytes;
+		}
+
+
+
+		/**
+		 * Returns whether singular {@code string} fields are represented by
+		 * {@link com.maryanovsky.pbjz.runtime.LazyString}s.
+		 */
+		public boolean lazyStrings(){
+			return lazyStrings;
+		}
+
+
+
+		/**
+		 * Returns whether singular {@code string} fields are decoded via a
+		 * {@link com.maryanovsky.pbjz.runtime.StringInterner}. Lazy strings take precedence, so
+		 * this is false if {@link #lazyStrings()} is true.
+		 */
+		public boolean internStrings(){
+			return internStrings && !lazyStrings;
+		}
+
+
+
+		/**
+		 * Returns whether singular message fields are represented by
+		 * {@link com.maryanovsky.pbjz.runtime.LazyMessage}s.
+		 */
+		public boolean lazyMessages(){
+			return lazyMessages;
+		}
+
+
+
+	}
+
+
+
+	/**
+	 * The proto files to which an option applies: either all of them, or the ones named in it.
+	 */
+	private static class FileSelection{
+
+
+
+		/**
+		 * Whether the option applies to all the files.
+		 */
+		private boolean allFiles = false;
+
+
+
+		/**
+		 * The names of the files, other than all of them, to which the option applies.
+		 */
+		@NotNull
+		private final Set<String> fileNames = new HashSet<>();
+
+
+
+		/**
+		 * Adds the given file, or all files, if {@code null}, to the selection.
+		 */
+		void add(String fileName){
+			if (fileName == null)
+				allFiles = true;
+			else
+				fileNames.add(fileName);
+		}
+
+
+
+		/**
+		 * Returns whether the file with the given name is selected.
+		 */
+		boolean contains(@NotNull String fileName){
+			return allFiles || fileNames.contains(fileName);
+		}
+
+
+
+	}
+
+
+
+}
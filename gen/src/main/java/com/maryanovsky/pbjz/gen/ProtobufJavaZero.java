@@ -1,7 +1,12 @@
 package com.maryanovsky.pbjz.gen;
 
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.gen.GeneratorOptions.FileOptions;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.ProtoReader;
+import com.maryanovsky.pbjz.runtime.ProtoWriter;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.JavaFile;
 import com.squareup.javapoet.ParameterizedTypeName;
@@ -41,12 +46,21 @@ public class ProtobufJavaZero{
 
 		CodeGeneratorResponse.Builder response = CodeGeneratorResponse.newBuilder();
 
+		GeneratorOptions options;
+		try{
+			options = GeneratorOptions.parse(request.getParameter());
+		} catch (IllegalArgumentException e){
+			response.setError(e.getMessage()).build().writeTo(System.out);
+			return;
+		}
+
 		for (FileDescriptorProto fileDescriptor : request.getProtoFileList()){
 			String javaPackage = fileDescriptor.getPackage();
+			FileOptions fileOptions = options.forFile(fileDescriptor.getName());
 
 			// Generate codecs for message types
 			for (DescriptorProto descriptor : fileDescriptor.getMessageTypeList()){
-				TypeSpec codec = genMessageCodec(javaPackage, null,	descriptor);
+				TypeSpec codec = genMessageCodec(javaPackage, null,	descriptor, fileOptions);
 				response.addFile(genCodecFile(javaPackage, codec));
 			}
 
@@ -79,12 +93,15 @@ public class ProtobufJavaZero{
 
 	/**
 	 * Generates the {@link Codec} class for a single user-defined type, as described by the given
-	 * message descriptor.
+	 * message descriptor, with the given options of the proto file it's in; see
+	 * {@link GeneratorOptions}. If the options select {@code proto_io}, the codec also reads from
+	 * {@link ProtoReader} and writes into {@link ProtoWriter} directly.
 	 */
 	@NotNull
 	private static TypeSpec genMessageCodec(@NotNull String userTypeJavaPackage,
 											@Nullable ClassName userTypeOuterClassName,
-											@NotNull DescriptorProto descriptor){
+											@NotNull DescriptorProto descriptor,
+											@NotNull FileOptions options){
 		String protoTypeName = descriptor.getName();
 
 		ClassName userTypeName = (userTypeOuterClassName == null) ?
@@ -97,19 +114,26 @@ public class ProtobufJavaZero{
 				.addModifiers(Modifier.PUBLIC, Modifier.FINAL)
 				.superclass(ParameterizedTypeName.get(ClassName.get(Codec.class), userTypeName))
 				.addField(genSingletonInstanceField(codecClassName))
+				.addFields(genTagConstantFields(descriptor))
 				.addMethod(genPrivateConstructor());
 
 		if (userTypeOuterClassName != null) // Nested types must be static
 			builder.addModifiers(Modifier.STATIC);
 
-		builder.addMethod(WriteGenerator.genWriteMethod(userTypeName, descriptor))
-				.addMethod(ReadGenerator.genReadMethod(userTypeName, descriptor))
-				.addMethod(SizeComputeGenerator.genSizeComputerMethod(userTypeName, descriptor));
+		builder.addMethod(WriteGenerator.genWriteMethod(userTypeName, descriptor, options, CodedOutputStream.class))
+				.addMethod(WriteGenerator.genWriteReverseMethod(userTypeName, descriptor, options))
+				.addMethod(ReadGenerator.genReadMethod(userTypeName, descriptor, options, CodedInputStream.class))
+				.addMethod(SizeComputeGenerator.genSizeComputerMethod(userTypeName, descriptor, options));
+
+		if (options.protoIo()){
+			builder.addMethod(WriteGenerator.genWriteMethod(userTypeName, descriptor, options, ProtoWriter.class))
+					.addMethod(ReadGenerator.genReadMethod(userTypeName, descriptor, options, ProtoReader.class));
+		}
 
 
 		// Generate nested codecs for message types
 		for (DescriptorProto nestedMessageDescriptor : descriptor.getNestedTypeList()){
-			builder.addType(genMessageCodec(userTypeJavaPackage, userTypeName, nestedMessageDescriptor));
+			builder.addType(genMessageCodec(userTypeJavaPackage, userTypeName, nestedMessageDescriptor, options));
 		}
 
 		// Generate nested codecs for enum types
@@ -3,7 +3,10 @@ package com.maryanovsky.pbjz.gen;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.maryanovsky.pbjz.gen.GeneratorOptions.FileOptions;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.LazyString;
+import com.maryanovsky.pbjz.runtime.ProtoReader;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
@@ -12,19 +15,29 @@ import com.squareup.javapoet.TypeName;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.stream.Collectors;
 
 import javax.lang.model.element.Modifier;
 
 import static com.maryanovsky.pbjz.gen.Utils.READ_METHOD_NAMES_BY_PRIMITIVE_TYPE;
+import static com.maryanovsky.pbjz.gen.Utils.READ_PACKED_ARRAY_METHOD_NAMES_BY_TYPE;
+import static com.maryanovsky.pbjz.gen.Utils.READ_PACKED_LIST_METHOD_NAMES_BY_TYPE;
 import static com.maryanovsky.pbjz.gen.Utils.arrayListOf;
 import static com.maryanovsky.pbjz.gen.Utils.codecInstanceExpr;
 import static com.maryanovsky.pbjz.gen.Utils.defaultJavaValue;
+import static com.maryanovsky.pbjz.gen.Utils.fieldsByNumber;
+import static com.maryanovsky.pbjz.gen.Utils.isAliasedBytes;
+import static com.maryanovsky.pbjz.gen.Utils.isInternedString;
+import static com.maryanovsky.pbjz.gen.Utils.isLazyMessage;
+import static com.maryanovsky.pbjz.gen.Utils.isLazyString;
 import static com.maryanovsky.pbjz.gen.Utils.isPacked;
+import static com.maryanovsky.pbjz.gen.Utils.isPrimitiveArray;
 import static com.maryanovsky.pbjz.gen.Utils.isRepeated;
 import static com.maryanovsky.pbjz.gen.Utils.javaTypeName;
+import static com.maryanovsky.pbjz.gen.Utils.lazyMessageOf;
 import static com.maryanovsky.pbjz.gen.Utils.notNull;
+import static com.maryanovsky.pbjz.gen.Utils.repeatedFieldTypeName;
 
 
 
@@ -41,11 +54,17 @@ public class ReadGenerator{
 
 	/**
 	 * Generates a method that decodes messages described by the given descriptor into objects of
-	 * the user-defined type - an implementation of {@link Codec#read(CodedInputStream)}.
+	 * the user-defined type - an implementation of {@link Codec#read(CodedInputStream)}, or, if
+	 * {@code inputType} is {@link ProtoReader}, of {@link Codec#read(ProtoReader)}; the code is the
+	 * same, as the runtime has overloads of its helper methods for both. The given options select
+	 * how fields are represented, e.g. whether repeated numeric and {@code bool} fields are read
+	 * into primitive arrays, singular {@code bytes} fields into read-only {@link ByteBuffer}s
+	 * slicing the input, and singular {@code string} and message fields into {@link LazyString}s
+	 * and {@link com.maryanovsky.pbjz.runtime.LazyMessage}s, without decoding them.
 	 */
 	@NotNull
-	public static MethodSpec genReadMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor){
-		ParameterSpec inputParam = notNull(CodedInputStream.class, "input");
+	public static MethodSpec genReadMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor, @NotNull FileOptions options, @NotNull Class<?> inputType){
+		ParameterSpec inputParam = notNull(inputType, "input");
 
 		MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("read")
 				.addModifiers(Modifier.PUBLIC)
@@ -56,13 +75,20 @@ public class ReadGenerator{
 				.addException(IOException.class);
 
 		// For each field, create a local variable to hold it
-		methodBuilder.addCode(genDeclareLocalVariablesForFields(descriptor));
+		methodBuilder.addCode(genDeclareLocalVariablesForFields(descriptor, options));
 
 
 		// Generates code like so:
+		// int tag = input.readTag();
+		// if (tag == <tag1>){
+		//     <var1> = input.readTypeOfVar1();
+		//     tag = input.readTag();
+		// }
+		// if (tag == <tag2>){
+		//     ...
+		// }
 		// boolean done = false;
 		// while (!done){
-		//     int tag = input.readTag();
 		//     switch (tag){
 		//         case <tag1>: <var1> = input.readTypeOfVar1(); break;
 		//         ...
@@ -72,43 +98,35 @@ public class ReadGenerator{
 		//              done = true;
 		//           break;
 		//     }
+		//     if (!done)
+		//         tag = input.readTag();
 		// }
+		// The "if" chain is the fast path: it reads the fields in the order we write them in, so for
+		// messages we wrote, each tag is compared only to the one expected next, and the switch is
+		// only reached at the end of the message. Fields in any other order, repeated fields that
+		// appear more than once, and unknown fields are handled by the switch.
+		String tagVar = "tag";
 		String doneVar = "done";
-		methodBuilder.addStatement("boolean $L = false", doneVar);
-		CodeBlock.Builder whileNotDoneBuilder = CodeBlock.builder().beginControlFlow("while (!$L)", doneVar);
+		methodBuilder.addStatement("int $L = $N.readTag()", tagVar, inputParam);
 
-		String tagVar = "tag";
-		whileNotDoneBuilder.addStatement("int $L = $N.readTag()", tagVar, inputParam);
 		CodeBlock.Builder switchBuilder = CodeBlock.builder().beginControlFlow("switch($L)", tagVar);
 		switchBuilder.add("case 0: $L = true; break;\n", doneVar);
-		for (FieldDescriptorProto field : descriptor.getFieldList()){
-			FieldDescriptorProto.Type fieldType = field.getType();
-			String fieldName = localVarName(field);
-			int tagValue = WireFormatProxy.makeTag(field.getNumber(), fieldType);
-			String primitiveReaderMethodName = READ_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
-
-			if (isRepeated(field)){ // Repeated field
-				if (isPacked(fieldType)){
-					switchBuilder.add("case $L:", tagValue)
-							.beginControlFlow("")
-							.add(genPackedRepeatedFieldReader(field, inputParam))
-							.endControlFlow()
-							.add("break;");
-				}
-				else{
-					// TODO: Read non-packed repeated types
-				}
-			}
-			else if (primitiveReaderMethodName != null){ // A primitive type
-				// e.g. case 81: intField = input.readInt32(); break;
-				switchBuilder.add("case $L: $L = $N.$L(); break;\n",
-						tagValue, fieldName, inputParam, primitiveReaderMethodName);
-			}
-			else{ // A user-defined type, with a codec
-				// e.g. case 42: myField = TypeCodec.INSTANCE.decode(input);
-				switchBuilder.add("case $L: $L = $L.readField($N); break;\n",
-						tagValue, fieldName, codecInstanceExpr(field), inputParam);
-			}
+		for (FieldDescriptorProto field : fieldsByNumber(descriptor)){
+			CodeBlock fieldReader = genFieldReader(field, inputParam, options);
+			if (fieldReader == null)
+				continue;
+
+			int tagValue = fieldTag(field);
+			methodBuilder.beginControlFlow("if ($L == $L)", tagVar, tagValue)
+					.addCode(fieldReader)
+					.addStatement("$L = $N.readTag()", tagVar, inputParam)
+					.endControlFlow();
+
+			switchBuilder.add("case $L:", tagValue)
+					.beginControlFlow("")
+					.add(fieldReader)
+					.endControlFlow()
+					.add("break;\n");
 		}
 		switchBuilder.add("default:\n").indent()
 				.add("if (!$N.skipField($L))\n", inputParam, tagVar)
@@ -116,10 +134,14 @@ public class ReadGenerator{
 				.add("break;\n").unindent();
 		switchBuilder.endControlFlow();
 
-		whileNotDoneBuilder.add(switchBuilder.build());
-		whileNotDoneBuilder.endControlFlow();
-
-		methodBuilder.addCode(whileNotDoneBuilder.build());
+		methodBuilder.addStatement("boolean $L = false", doneVar);
+		methodBuilder.addCode(CodeBlock.builder()
+				.beginControlFlow("while (!$L)", doneVar)
+				.add(switchBuilder.build())
+				.add("if (!$L)\n", doneVar)
+				.indent().addStatement("$L = $N.readTag()", tagVar, inputParam).unindent()
+				.endControlFlow()
+				.build());
 
 
 		// Generates e.g. return new Type(var1, ...);
@@ -139,11 +161,73 @@ public class ReadGenerator{
 
 
 
+	/**
+	 * Returns the tag with which the given field is written.
+	 */
+	private static int fieldTag(@NotNull FieldDescriptorProto field){
+		if (isRepeated(field) && isPacked(field.getType()))
+			return WireFormatProxy.makeLengthDelimitedTag(field.getNumber());
+		else
+			return WireFormatProxy.makeTag(field.getNumber(), field.getType());
+	}
+
+
+
+	/**
+	 * Generates code that reads the value of the given field, whose tag has just been read, into
+	 * its local variable, as the given options select. Returns {@code null} if reading the field
+	 * isn't supported yet.
+	 */
+	private static CodeBlock genFieldReader(@NotNull FieldDescriptorProto field, @NotNull ParameterSpec inputParam, @NotNull FileOptions options){
+		FieldDescriptorProto.Type fieldType = field.getType();
+		String fieldName = localVarName(field);
+		String primitiveReaderMethodName = READ_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
+
+		if (isRepeated(field)){ // Repeated field
+			if (isPrimitiveArray(field, options)){
+				// e.g. intsField = readPackedInt32Array(input);
+				return CodeBlock.of("$L = $L($N);\n", fieldName, READ_PACKED_ARRAY_METHOD_NAMES_BY_TYPE.get(fieldType), inputParam);
+			}
+			else if (isPacked(fieldType)){
+				// e.g. intsField = readPackedInt32List(input);
+				return CodeBlock.of("$L = $L($N);\n", fieldName, READ_PACKED_LIST_METHOD_NAMES_BY_TYPE.get(fieldType), inputParam);
+			}
+			else
+				return null; // TODO: Read non-packed repeated types
+		}
+		else if (isAliasedBytes(field, options)){
+			// e.g. bytesField = readAliasedBytes(input);
+			return CodeBlock.of("$L = readAliasedBytes($N);\n", fieldName, inputParam);
+		}
+		else if (isLazyString(field, options)){
+			// e.g. stringField = readLazyString(input);
+			return CodeBlock.of("$L = readLazyString($N);\n", fieldName, inputParam);
+		}
+		else if (isInternedString(field, options)){
+			// e.g. stringField = readInternedString(input);
+			return CodeBlock.of("$L = readInternedString($N);\n", fieldName, inputParam);
+		}
+		else if (isLazyMessage(field, options)){
+			// e.g. myField = TypeCodec.INSTANCE.readLazyField(input);
+			return CodeBlock.of("$L = $L.readLazyField($N);\n", fieldName, codecInstanceExpr(field), inputParam);
+		}
+		else if (primitiveReaderMethodName != null){ // A primitive type
+			// e.g. intField = input.readInt32();
+			return CodeBlock.of("$L = $N.$L();\n", fieldName, inputParam, primitiveReaderMethodName);
+		}
+		else{ // A user-defined type, with a codec
+			// e.g. myField = TypeCodec.INSTANCE.readField(input);
+			return CodeBlock.of("$L = $L.readField($N);\n", fieldName, codecInstanceExpr(field), inputParam);
+		}
+	}
+
+
+
 	/**
 	 * Generates code that declares a local variable for each field in the type described by the
-	 * given descriptor.
+	 * given descriptor, of the type the given options select for it.
 	 */
-	private static CodeBlock genDeclareLocalVariablesForFields(@NotNull DescriptorProto descriptor){
+	private static CodeBlock genDeclareLocalVariablesForFields(@NotNull DescriptorProto descriptor, @NotNull FileOptions options){
 		CodeBlock.Builder code = CodeBlock.builder();
 
 		for (FieldDescriptorProto field : descriptor.getFieldList()){
@@ -156,8 +240,16 @@ public class ReadGenerator{
 			String localVarName = localVarName(field);
 			String defaultValue = defaultJavaValue(field);
 
-			if (isRepeated(field))
+			if (isPrimitiveArray(field, options))
+				code.addStatement("$T $L = $L", repeatedFieldTypeName(field, javaTypeName, options), localVarName, defaultValue); // e.g. int[] _field = null;
+			else if (isRepeated(field))
 				code.addStatement("$T $L = $L", arrayListOf(javaTypeName), localVarName, defaultValue); // e.g. ArrayList<UserType> _field = null;
+			else if (isAliasedBytes(field, options))
+				code.addStatement("$T $L = $L", ByteBuffer.class, localVarName, defaultValue); // e.g. ByteBuffer _field = null;
+			else if (isLazyString(field, options))
+				code.addStatement("$T $L = $L", LazyString.class, localVarName, defaultValue); // e.g. LazyString _field = null;
+			else if (isLazyMessage(field, options))
+				code.addStatement("$T $L = $L", lazyMessageOf(javaTypeName), localVarName, defaultValue); // e.g. LazyMessage<UserType> _field = null;
 			else
 				code.addStatement("$L $L = $L", javaTypeName, localVarName, defaultValue); // e.g. int _field = 0;
 		}
@@ -167,37 +259,6 @@ public class ReadGenerator{
 
 
 
-	/**
-	 * Generates code that reads a packed repeated field into a local variable.
-	 */
-	private static CodeBlock genPackedRepeatedFieldReader(@NotNull FieldDescriptorProto field, @NotNull ParameterSpec inputParam){
-		// Generates code like this:
-		// int length = input.readRawVarint32();
-		// int limit = input.pushLimit(length);
-		// values_ = new java.util.ArrayList<java.lang.Integer>();
-		// while (input.getBytesUntilLimit() > 0) {
-		//     values_.add(input.readInt32());
-		// }
-		// input.popLimit(limit);
-
-		CodeBlock.Builder code = CodeBlock.builder();
-
-		String localVarName = localVarName(field);
-		String readMethodName = READ_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(field.getType());
-
-		code.addStatement("int length = $N.readRawVarint32()", inputParam);
-		code.addStatement("int limit = $N.pushLimit(length)", inputParam);
-		code.addStatement("$L = new $T<>()", localVarName, ArrayList.class);
-		code.beginControlFlow("while($N.getBytesUntilLimit() > 0)", inputParam)
-			.addStatement("$L.add($N.$L())", localVarName, inputParam, readMethodName)
-			.endControlFlow();
-		code.addStatement("$N.popLimit(limit)", inputParam);
-
-		return code.build();
-	}
-
-
-
 	/**
 	 * Returns the name of the local variable that should be used for storing the value of the given
 	 * field.
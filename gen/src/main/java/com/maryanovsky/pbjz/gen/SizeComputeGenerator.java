@@ -2,26 +2,34 @@ package com.maryanovsky.pbjz.gen;
 
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.maryanovsky.pbjz.gen.GeneratorOptions.FileOptions;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.WritePass;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.TypeName;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.lang.model.element.Modifier;
 
-import static com.maryanovsky.pbjz.gen.Utils.COMPUTE_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE;
+import static com.maryanovsky.pbjz.gen.Utils.COMPUTE_TAGGED_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE;
+import static com.maryanovsky.pbjz.gen.Utils.PACKED_REPEATED_SIZE_METHOD_NAMES_BY_TYPE;
 import static com.maryanovsky.pbjz.gen.Utils.codecInstanceExpr;
 import static com.maryanovsky.pbjz.gen.Utils.fieldGetterName;
+import static com.maryanovsky.pbjz.gen.Utils.fieldsByNumber;
 import static com.maryanovsky.pbjz.gen.Utils.isRepeated;
+import static com.maryanovsky.pbjz.gen.Utils.javaTypeName;
 import static com.maryanovsky.pbjz.gen.Utils.notNull;
+import static com.maryanovsky.pbjz.gen.Utils.repeatedFieldTypeName;
+import static com.maryanovsky.pbjz.gen.Utils.tagSizeConstantName;
 
 
 
 /**
  * Responsible for generating the
- * {@link com.maryanovsky.pbjz.runtime.Codec#computeSerializedSize(Object)} method, which computes
+ * {@link Codec#computeSerializedSize(Object, WritePass)} method, which computes
  * the size of an object of the user-defined type, when it's encoded into the the protobuf wire
  * format.
  *
@@ -33,37 +41,69 @@ public class SizeComputeGenerator{
 
 	/**
 	 * Generates a method that computes the serialized size of values of the user-defined type - an
-	 * implementation of {@link Codec#computeSerializedSize(Object)}.
+	 * implementation of {@link Codec#computeSerializedSize(Object, WritePass)}. The given options
+	 * select how fields are held, e.g. whether repeated numeric and {@code bool} fields are held in
+	 * primitive arrays.
 	 */
 	@NotNull
-	public static MethodSpec genSizeComputerMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor){
+	public static MethodSpec genSizeComputerMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor, @NotNull FileOptions options){
 		ParameterSpec value = notNull(userTypeName, "value");
+		ParameterSpec pass = ParameterSpec.builder(WritePass.class, "pass")
+				.addAnnotation(Nullable.class)
+				.build();
 
 		MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("computeSerializedSize")
 				.addModifiers(Modifier.PROTECTED)
 				.addAnnotation(Override.class)
 				.returns(int.class)
-				.addParameter(value);
+				.addParameter(value)
+				.addParameter(pass);
 
 		methodBuilder.addStatement("int size = 0");
 
-		for (FieldDescriptorProto field : descriptor.getFieldList()){
+		// In the same order as the fields are written, so that the sizes of sub-messages are
+		// recorded in the order the write pass consumes them
+		for (FieldDescriptorProto field : fieldsByNumber(descriptor)){
 			FieldDescriptorProto.Type fieldType = field.getType();
 			String getterName = fieldGetterName(field);
-			String primitiveSizeComputerMethodName = COMPUTE_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
+			String primitiveSizeComputerMethodName = COMPUTE_TAGGED_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
 
 			if (isRepeated(field)){
-				// TODO: compute the size of a repeated field
+				String packedSizeComputerMethodName = PACKED_REPEATED_SIZE_METHOD_NAMES_BY_TYPE.get(fieldType);
+				String javaTypeName = javaTypeName(field);
+				if ((packedSizeComputerMethodName != null) && (javaTypeName != null)){
+					// e.g. Collection<Integer> _arr = value.getArr(); (or int[] _arr)
+					//      if (_arr != null)
+					//        size += packedFieldSize(ARR_TAG_SIZE, packedRepeatedInt32FieldSize(_arr));
+					String fieldValueLocalVarName = "_" + field.getName();
+					methodBuilder.addStatement("$T $L = $N.$N()",
+							repeatedFieldTypeName(field, javaTypeName, options), fieldValueLocalVarName, value, getterName);
+					methodBuilder.beginControlFlow("if ($L != null)", fieldValueLocalVarName)
+							.addStatement("size += packedFieldSize($L, $L($L))",
+									tagSizeConstantName(field), packedSizeComputerMethodName, fieldValueLocalVarName)
+							.endControlFlow();
+				}
+				// TODO: compute the size of non-packed repeated fields
+			}
+			else if (fieldType == FieldDescriptorProto.Type.TYPE_STRING){ // Encoded once, and kept for the write pass
+				// e.g. size += taggedStringFieldSize(SECOND_FIELD_TAG_SIZE, value.getSecondField(), pass)
+				methodBuilder.addStatement("size += $L($L, $N.$N(), $N)",
+						primitiveSizeComputerMethodName, tagSizeConstantName(field), value, getterName, pass);
 			}
 			else if (primitiveSizeComputerMethodName != null){ // A primitive type
-				// e.g. size += floatFieldSize(2, value.getSecondField())
+				// e.g. size += taggedFloatFieldSize(SECOND_FIELD_TAG_SIZE, value.getSecondField())
 				methodBuilder.addStatement("size += $L($L, $N.$N())",
-						primitiveSizeComputerMethodName, field.getNumber(), value, getterName);
+						primitiveSizeComputerMethodName, tagSizeConstantName(field), value, getterName);
+			}
+			else if (fieldType == FieldDescriptorProto.Type.TYPE_MESSAGE){ // A user-defined type, with a codec
+				// e.g. size += TypeCodec.INSTANCE.taggedFieldSize(THIRD_FIELD_TAG_SIZE, value.getThirdField(), pass)
+				methodBuilder.addStatement("size += $L.taggedFieldSize($L, $N.$N(), $N)",
+						codecInstanceExpr(field), tagSizeConstantName(field), value, getterName, pass);
 			}
-			else if ((fieldType == FieldDescriptorProto.Type.TYPE_MESSAGE) || (fieldType == FieldDescriptorProto.Type.TYPE_ENUM)){ // A user-defined type, with a codec
-				// e.g. size += TypeCodec.INSTANCE.computeSerializedSize(3, value.getThirdField())
-				methodBuilder.addStatement("size += $L.computeSerializedSize($L, $N.$N())",
-						codecInstanceExpr(field), field.getNumber(), value, getterName);
+			else if (fieldType == FieldDescriptorProto.Type.TYPE_ENUM){ // A user-defined enum type, with a codec
+				// e.g. size += TypeCodec.INSTANCE.taggedFieldSize(THIRD_FIELD_TAG_SIZE, value.getThirdField())
+				methodBuilder.addStatement("size += $L.taggedFieldSize($L, $N.$N())",
+						codecInstanceExpr(field), tagSizeConstantName(field), value, getterName);
 			}
 			else
 				System.err.println("Field type " + fieldType + " not supported yet");
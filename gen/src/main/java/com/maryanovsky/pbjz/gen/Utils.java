@@ -5,8 +5,12 @@ package com.maryanovsky.pbjz.gen;
 import com.google.common.base.CaseFormat;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.maryanovsky.pbjz.gen.GeneratorOptions.FileOptions;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.LazyMessage;
+import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.FieldSpec;
 import com.squareup.javapoet.MethodSpec;
@@ -20,7 +24,9 @@ import org.jetbrains.annotations.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -45,29 +51,30 @@ public class Utils{
 
 
 	/**
-	 * Maps protobuf primitive types to the names of the methods in {@link Codec} that write them.
+	 * Maps protobuf primitive types to the names of the methods in {@link Codec} that write them
+	 * with a precomputed tag.
 	 */
 	@NotNull
-	public static final Map<FieldDescriptorProto.Type, String> WRITE_METHOD_NAMES_BY_PRIMITIVE_TYPE;
+	public static final Map<FieldDescriptorProto.Type, String> WRITE_TAGGED_METHOD_NAMES_BY_PRIMITIVE_TYPE;
 	static{
 		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
-		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "writeDoubleField");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "writeFloatField");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "writeInt32Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "writeInt64Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "writeUInt32Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "writeUInt64Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "writeSInt32Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "writeSInt64Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "writeFixed32Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "writeFixed64Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "writeSFixed32Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "writeSFixed64Field");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "writeBoolField");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_STRING, "writeStringField");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_BYTES, "writeBytesField");
-
-		WRITE_METHOD_NAMES_BY_PRIMITIVE_TYPE = Collections.unmodifiableMap(methodNames);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "writeTaggedDoubleField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "writeTaggedFloatField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "writeTaggedInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "writeTaggedInt64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "writeTaggedUInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "writeTaggedUInt64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "writeTaggedSInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "writeTaggedSInt64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "writeTaggedFixed32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "writeTaggedFixed64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "writeTaggedSFixed32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "writeTaggedSFixed64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "writeTaggedBoolField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_STRING, "writeTaggedStringField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BYTES, "writeTaggedBytesField");
+
+		WRITE_TAGGED_METHOD_NAMES_BY_PRIMITIVE_TYPE = Collections.unmodifiableMap(methodNames);
 	}
 
 
@@ -159,30 +166,30 @@ public class Utils{
 
 
 	/**
-	 * Maps protobuf primitive types to the names of the methods in {@link Codec} that
-	 * compute their serialized sizes.
+	 * Maps protobuf primitive types to the names of the methods in {@link Codec} that compute their
+	 * serialized sizes, given the precomputed size of their tag.
 	 */
 	@NotNull
-	public static final Map<FieldDescriptorProto.Type, String> COMPUTE_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE;
+	public static final Map<FieldDescriptorProto.Type, String> COMPUTE_TAGGED_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE;
 	static{
 		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
-		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "doubleFieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "floatFieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "int32FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "int64FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "uInt32FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "uInt64FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "sInt32FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "sInt64FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "fixed32FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "fixed64FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "sFixed32FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "sFixed64FieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "boolFieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_STRING, "stringFieldSize");
-		methodNames.put(FieldDescriptorProto.Type.TYPE_BYTES, "bytesFieldSize");
-
-		COMPUTE_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE = Collections.unmodifiableMap(methodNames);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "taggedDoubleFieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "taggedFloatFieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "taggedInt32FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "taggedInt64FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "taggedUInt32FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "taggedUInt64FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "taggedSInt32FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "taggedSInt64FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "taggedFixed32FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "taggedFixed64FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "taggedSFixed32FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "taggedSFixed64FieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "taggedBoolFieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_STRING, "taggedStringFieldSize");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BYTES, "taggedBytesFieldSize");
+
+		COMPUTE_TAGGED_SIZE_METHOD_NAMES_BY_PRIMITIVE_TYPE = Collections.unmodifiableMap(methodNames);
 	}
 
 
@@ -214,6 +221,100 @@ public class Utils{
 
 
 
+	/**
+	 * Maps the protobuf varint types to the names of the methods in {@link Codec} that write packed
+	 * repeated fields of this type in a single pass.
+	 */
+	@NotNull
+	public static final Map<FieldDescriptorProto.Type, String> WRITE_PACKED_VARINT_METHOD_NAMES_BY_TYPE;
+	static{
+		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "writePackedInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "writePackedInt64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "writePackedUInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "writePackedUInt64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "writePackedSInt32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "writePackedSInt64Field");
+
+		WRITE_PACKED_VARINT_METHOD_NAMES_BY_TYPE = Collections.unmodifiableMap(methodNames);
+	}
+
+
+
+	/**
+	 * Maps the protobuf fixed-width types to the names of the methods in {@link Codec} that write
+	 * packed repeated fields of this type held in primitive arrays, converting large ones in bulk.
+	 */
+	@NotNull
+	public static final Map<FieldDescriptorProto.Type, String> WRITE_PACKED_FIXED_WIDTH_ARRAY_METHOD_NAMES_BY_TYPE;
+	static{
+		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "writePackedDoubleField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "writePackedFloatField");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "writePackedFixed32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "writePackedFixed64Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "writePackedSFixed32Field");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "writePackedSFixed64Field");
+
+		WRITE_PACKED_FIXED_WIDTH_ARRAY_METHOD_NAMES_BY_TYPE = Collections.unmodifiableMap(methodNames);
+	}
+
+
+
+	/**
+	 * Maps protobuf primitive types to the names of the methods in {@link Codec} that read packed
+	 * repeated fields of this type into primitive arrays.
+	 */
+	@NotNull
+	public static final Map<FieldDescriptorProto.Type, String> READ_PACKED_ARRAY_METHOD_NAMES_BY_TYPE;
+	static{
+		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "readPackedDoubleArray");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "readPackedFloatArray");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "readPackedInt32Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "readPackedInt64Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "readPackedUInt32Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "readPackedUInt64Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "readPackedSInt32Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "readPackedSInt64Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "readPackedFixed32Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "readPackedFixed64Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "readPackedSFixed32Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "readPackedSFixed64Array");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "readPackedBoolArray");
+
+		READ_PACKED_ARRAY_METHOD_NAMES_BY_TYPE = Collections.unmodifiableMap(methodNames);
+	}
+
+
+
+	/**
+	 * Maps the protobuf types that are packed when repeated to the names of the methods in
+	 * {@link Codec} that read packed repeated fields of this type into an {@link ArrayList}.
+	 */
+	@NotNull
+	public static final Map<FieldDescriptorProto.Type, String> READ_PACKED_LIST_METHOD_NAMES_BY_TYPE;
+	static{
+		Map<FieldDescriptorProto.Type, String> methodNames = new EnumMap<>(FieldDescriptorProto.Type.class);
+		methodNames.put(FieldDescriptorProto.Type.TYPE_DOUBLE, "readPackedDoubleList");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FLOAT, "readPackedFloatList");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT32, "readPackedInt32List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_INT64, "readPackedInt64List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT32, "readPackedUInt32List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_UINT64, "readPackedUInt64List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT32, "readPackedSInt32List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SINT64, "readPackedSInt64List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED32, "readPackedFixed32List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_FIXED64, "readPackedFixed64List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED32, "readPackedSFixed32List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_SFIXED64, "readPackedSFixed64List");
+		methodNames.put(FieldDescriptorProto.Type.TYPE_BOOL, "readPackedBoolList");
+
+		READ_PACKED_LIST_METHOD_NAMES_BY_TYPE = Collections.unmodifiableMap(methodNames);
+	}
+
+
+
 	/**
 	 * Maps protobuf primitive types to the names of the methods in {@link CodedOutputStream} that
 	 * write fields of this type without a tag.
@@ -271,6 +372,15 @@ public class Utils{
 
 
 
+	/**
+	 * Returns the type name of {@link LazyMessage} parameterized with the given Java type.
+	 */
+	public static TypeName lazyMessageOf(@NotNull String javaType){
+		return ParameterizedTypeName.get(ClassName.get(LazyMessage.class), ClassName.bestGuess(javaType));
+	}
+
+
+
 	/**
 	 * Returns the type name of {@link Collection} parameterized with the given Java type.
 	 */
@@ -371,6 +481,91 @@ public class Utils{
 
 
 
+	/**
+	 * Returns whether the given field is represented by an array of a Java primitive type, which is
+	 * the case for repeated numeric and {@code bool} fields, when the given options request
+	 * primitive arrays.
+	 */
+	public static boolean isPrimitiveArray(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		return options.primitiveArrays() && isRepeated(field) && isPacked(field.getType());
+	}
+
+
+
+	/**
+	 * Returns whether the given field is represented by a read-only {@link java.nio.ByteBuffer}
+	 * slicing the input it's read from, which is the case for singular {@code bytes} fields, when
+	 * the given options request aliased bytes.
+	 */
+	public static boolean isAliasedBytes(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		return options.aliasedBytes() && !isRepeated(field) && (field.getType() == FieldDescriptorProto.Type.TYPE_BYTES);
+	}
+
+
+
+	/**
+	 * Returns whether the given field is represented by a
+	 * {@link com.maryanovsky.pbjz.runtime.LazyString}, which is the case for singular
+	 * {@code string} fields, when the given options request lazy strings.
+	 */
+	public static boolean isLazyString(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		return options.lazyStrings() && !isRepeated(field) && (field.getType() == FieldDescriptorProto.Type.TYPE_STRING);
+	}
+
+
+
+	/**
+	 * Returns whether the given field is decoded via the
+	 * {@link com.maryanovsky.pbjz.runtime.StringInterner} of its codec, which is the case for
+	 * singular {@code string} fields, when the given options request interned strings (which they
+	 * don't, if they request lazy strings).
+	 */
+	public static boolean isInternedString(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		return options.internStrings() && !isRepeated(field) && (field.getType() == FieldDescriptorProto.Type.TYPE_STRING);
+	}
+
+
+
+	/**
+	 * Returns whether the given field is represented by a
+	 * {@link com.maryanovsky.pbjz.runtime.LazyMessage}, which is the case for singular message
+	 * fields, when the given options request lazy messages.
+	 */
+	public static boolean isLazyMessage(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		return options.lazyMessages() && !isRepeated(field) && (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE);
+	}
+
+
+
+	/**
+	 * Returns the name of the Java type of the elements of the given repeated field: the primitive
+	 * type if it's represented by a primitive array, and the wrapper type otherwise.
+	 */
+	@Nullable
+	public static String repeatedElementTypeName(@NotNull FieldDescriptorProto field, @NotNull FileOptions options){
+		if (isPrimitiveArray(field, options))
+			return JAVA_TYPE_NAMES_BY_PRIMITIVE_TYPE.get(field.getType());
+		else
+			return javaTypeName(field);
+	}
+
+
+
+	/**
+	 * Returns the type name of the given repeated field, as returned by the getter of the
+	 * user-defined type: an array of the primitive type, e.g. {@code int[]}, if it's represented by
+	 * a primitive array, and a {@link Collection} of the element type otherwise.
+	 */
+	@NotNull
+	public static TypeName repeatedFieldTypeName(@NotNull FieldDescriptorProto field, @NotNull String javaTypeName, @NotNull FileOptions options){
+		if (isPrimitiveArray(field, options))
+			return ArrayTypeName.of(TypeName.get(JAVA_ELEMENT_TYPE_NAMES_BY_PRIMITIVE_TYPE.get(field.getType())).unbox());
+		else
+			return collectionOf(javaTypeName);
+	}
+
+
+
 	/**
 	 * Returns the expression for the default Java value of the given protobuf type.
 	 */
@@ -394,6 +589,19 @@ public class Utils{
 
 
 
+	/**
+	 * Returns the fields of the given message, in ascending order of their numbers, which is the
+	 * order in which they are written.
+	 */
+	@NotNull
+	public static List<FieldDescriptorProto> fieldsByNumber(@NotNull DescriptorProto descriptor){
+		List<FieldDescriptorProto> fields = new ArrayList<>(descriptor.getFieldList());
+		fields.sort(Comparator.comparingInt(FieldDescriptorProto::getNumber));
+		return fields;
+	}
+
+
+
 	/**
 	 * Returns whether the given field has a "repeated" label.
 	 */
@@ -424,6 +632,70 @@ public class Utils{
 
 
 
+	/**
+	 * Returns the name of the constant holding the precomputed tag of the given field.
+	 */
+	@NotNull
+	public static String tagConstantName(@NotNull FieldDescriptorProto field){
+		return CaseFormat.LOWER_UNDERSCORE.to(CaseFormat.UPPER_UNDERSCORE, field.getName()) + "_TAG";
+	}
+
+
+
+	/**
+	 * Returns the name of the constant holding the precomputed size of the tag of the given field.
+	 */
+	@NotNull
+	public static String tagSizeConstantName(@NotNull FieldDescriptorProto field){
+		return tagConstantName(field) + "_SIZE";
+	}
+
+
+
+	/**
+	 * Returns the tag with which the given field is written: that of a length-delimited field for a
+	 * packed repeated field, and that of its type otherwise. Returns {@code null} for fields that
+	 * aren't written yet (non-packed repeated fields, and fields of unsupported types).
+	 */
+	@Nullable
+	private static Integer writtenFieldTag(@NotNull FieldDescriptorProto field){
+		FieldDescriptorProto.Type type = field.getType();
+		if (isRepeated(field))
+			return isPacked(type) ? WireFormatProxy.makeLengthDelimitedTag(field.getNumber()) : null;
+		else if (WRITE_TAGGED_METHOD_NAMES_BY_PRIMITIVE_TYPE.containsKey(type) ||
+				(type == FieldDescriptorProto.Type.TYPE_MESSAGE) || (type == FieldDescriptorProto.Type.TYPE_ENUM))
+			return WireFormatProxy.makeTag(field.getNumber(), type);
+		else
+			return null;
+	}
+
+
+
+	/**
+	 * Generates the constants holding the tags, and the sizes of the tags, of the fields of the
+	 * given message, which are computed here, at code generation time, rather than on every write.
+	 */
+	@NotNull
+	public static List<FieldSpec> genTagConstantFields(@NotNull DescriptorProto descriptor){
+		List<FieldSpec> fields = new ArrayList<>();
+		for (FieldDescriptorProto field : descriptor.getFieldList()){
+			Integer tag = writtenFieldTag(field);
+			if (tag == null)
+				continue;
+
+			fields.add(FieldSpec.builder(int.class, tagConstantName(field), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+					.initializer("$L", tag)
+					.build());
+			fields.add(FieldSpec.builder(int.class, tagSizeConstantName(field), Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+					.initializer("$L", CodedOutputStream.computeUInt32SizeNoTag(tag))
+					.build());
+		}
+
+		return fields;
+	}
+
+
+
 	/**
 	 * Generates a private constructor.
 	 */
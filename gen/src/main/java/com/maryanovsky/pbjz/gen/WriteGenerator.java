@@ -1,10 +1,15 @@
 package com.maryanovsky.pbjz.gen;
 
+import com.google.common.collect.Lists;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type;
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.maryanovsky.pbjz.gen.GeneratorOptions.FileOptions;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.ProtoWriter;
+import com.maryanovsky.pbjz.runtime.ReverseOutput;
+import com.maryanovsky.pbjz.runtime.WritePass;
 import com.squareup.javapoet.CodeBlock;
 import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterSpec;
@@ -22,8 +27,8 @@ import static com.maryanovsky.pbjz.gen.Utils.*;
 
 /**
  * Responsible for generating the
- * {@link Codec#write(CodedOutputStream, Object)} method, which encodes the user-defined type into
- * the protobuf wire format.
+ * {@link Codec#write(CodedOutputStream, Object, WritePass)} method, which encodes the
+ * user-defined type into the protobuf wire format.
  *
  * @author Alexander Maryanovsky
  */
@@ -33,50 +38,157 @@ public class WriteGenerator{
 
 	/**
 	 * Generates a method that encodes objects of a user-defined type into messages described by the
-	 * given descriptor - an implementation of {@link Codec#write(CodedOutputStream, Object)}.
+	 * given descriptor - an implementation of
+	 * {@link Codec#write(CodedOutputStream, Object, WritePass)}, or, if {@code outputType} is
+	 * {@link ProtoWriter}, of {@link Codec#write(ProtoWriter, Object, WritePass)}; the fields are
+	 * written via the static helpers of {@link Codec} in the former case, and via the same-named
+	 * methods of {@link ProtoWriter} in the latter. The given options select how fields are held,
+	 * e.g. whether repeated numeric and {@code bool} fields are held in primitive arrays.
 	 */
 	@NotNull
-	public static MethodSpec genWriteMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor){
-		ParameterSpec outputParam = notNull(CodedOutputStream.class, "output");
+	public static MethodSpec genWriteMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor, @NotNull FileOptions options, @NotNull Class<?> outputType){
+		ParameterSpec outputParam = notNull(outputType, "output");
 		ParameterSpec valueParam = notNull(userTypeName, "value");
+		ParameterSpec passParam = notNull(WritePass.class, "pass");
 
 		MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("write")
-				.addModifiers(Modifier.PUBLIC)
+				.addModifiers(Modifier.PROTECTED)
 				.addAnnotation(Override.class)
 				.returns(void.class)
 				.addParameter(outputParam)
 				.addParameter(valueParam)
-				.addException(IOException.class);
+				.addParameter(passParam);
+		boolean protoWriter = (outputType == ProtoWriter.class);
+		if (!protoWriter) // ProtoWriter doesn't throw IOException
+			methodBuilder.addException(IOException.class);
 
 
-		// TODO: write the fields in the order of their numbers
-		for (FieldDescriptorProto field : descriptor.getFieldList()){
+		for (FieldDescriptorProto field : fieldsByNumber(descriptor)){
 			Type fieldType = field.getType();
-			int fieldNumber = field.getNumber();
 			String getterName = fieldGetterName(field);
-			String primitiveWriterMethodName = WRITE_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
+			String taggedWriterMethodName = WRITE_TAGGED_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
+
+			methodBuilder.addCode("\n");
+
+			if (isRepeated(field)){ // Repeated field
+				String packedVarintWriterMethodName = WRITE_PACKED_VARINT_METHOD_NAMES_BY_TYPE.get(fieldType);
+				if (packedVarintWriterMethodName != null){ // Packed varints; the size isn't known without encoding them
+					// e.g. writePackedInt32Field(output, SECOND_FIELD_TAG, value.getSecondField(), pass)
+					addFieldWriterCall(methodBuilder, outputParam, packedVarintWriterMethodName,
+							CodeBlock.of("$L, $N.$N(), $N", tagConstantName(field), valueParam, getterName, passParam));
+				}
+				else if (isPrimitiveArray(field, options) &&
+						WRITE_PACKED_FIXED_WIDTH_ARRAY_METHOD_NAMES_BY_TYPE.containsKey(fieldType)){ // Converted in bulk, if large
+					// e.g. writePackedFloatField(output, SECOND_FIELD_TAG, value.getSecondField(), pass)
+					// A ProtoWriter converts them in its own buffer, so it doesn't take the pass
+					addFieldWriterCall(methodBuilder, outputParam, WRITE_PACKED_FIXED_WIDTH_ARRAY_METHOD_NAMES_BY_TYPE.get(fieldType), protoWriter ?
+							CodeBlock.of("$L, $N.$N()", tagConstantName(field), valueParam, getterName) :
+							CodeBlock.of("$L, $N.$N(), $N", tagConstantName(field), valueParam, getterName, passParam));
+				}
+				else if (isPacked(fieldType)){
+					methodBuilder.addComment("Write $L", field.getName());
+					methodBuilder.addCode(genPackedRepeatedFieldWriter(field, valueParam, outputParam, options));
+				}
+				else{
+					// TODO: Write non-packed repeated types
+				}
+			}
+			else if ((fieldType == Type.TYPE_BYTES) || (fieldType == Type.TYPE_STRING)){
+				// Large byte[] values may be written by reference (but not into a ProtoWriter, which doesn't
+				// take the pass for them; ByteBuffer values are always copied), and strings may have already
+				// been encoded by the size pass
+				// e.g. writeTaggedBytesField(output, SECOND_FIELD_TAG, value.getSecondField(), pass)
+				boolean takesPass = (fieldType == Type.TYPE_STRING) || (!protoWriter && !isAliasedBytes(field, options));
+				addFieldWriterCall(methodBuilder, outputParam, taggedWriterMethodName, !takesPass ?
+						CodeBlock.of("$L, $N.$N()", tagConstantName(field), valueParam, getterName) :
+						CodeBlock.of("$L, $N.$N(), $N", tagConstantName(field), valueParam, getterName, passParam));
+			}
+			else if (taggedWriterMethodName != null){ // A primitive type
+				// e.g. writeTaggedFloatField(output, SECOND_FIELD_TAG, value.getSecondField())
+				addFieldWriterCall(methodBuilder, outputParam, taggedWriterMethodName,
+						CodeBlock.of("$L, $N.$N()", tagConstantName(field), valueParam, getterName));
+			}
+			else if (fieldType == Type.TYPE_MESSAGE){ // A user-defined type, with a codec
+				// e.g. TypeCodec.INSTANCE.writeTaggedField(output, THIRD_FIELD_TAG, value.getThirdField(), pass)
+				methodBuilder.addStatement("$L.writeTaggedField($N, $L, $N.$N(), $N)",
+						codecInstanceExpr(field), outputParam, tagConstantName(field), valueParam, getterName, passParam);
+			}
+			else if (fieldType == Type.TYPE_ENUM){ // A user-defined enum type, with a codec
+				// e.g. TypeCodec.INSTANCE.writeTaggedField(output, THIRD_FIELD_TAG, value.getThirdField())
+				methodBuilder.addStatement("$L.writeTaggedField($N, $L, $N.$N())",
+						codecInstanceExpr(field), outputParam, tagConstantName(field), valueParam, getterName);
+			}
+			else
+				System.err.println("Field type " + fieldType + " not supported yet");
+		}
+
+		return methodBuilder.build();
+	}
+
+
+
+	/**
+	 * Adds a statement that calls the field-writing helper with the given name and arguments (other
+	 * than the output): the method of the output itself if it's a {@link ProtoWriter}, and the
+	 * static method of {@link Codec}, taking the output as its first argument, otherwise.
+	 */
+	private static void addFieldWriterCall(@NotNull MethodSpec.Builder methodBuilder,
+										   @NotNull ParameterSpec outputParam,
+										   @NotNull String methodName,
+										   @NotNull CodeBlock args){
+		if (outputParam.type.equals(TypeName.get(ProtoWriter.class)))
+			methodBuilder.addStatement("$N.$L($L)", outputParam, methodName, args); // e.g. output.writeTaggedFloatField(TAG, value.getField())
+		else
+			methodBuilder.addStatement("$L($N, $L)", methodName, outputParam, args); // e.g. writeTaggedFloatField(output, TAG, value.getField())
+	}
+
+
+
+	/**
+	 * Generates a method that encodes objects of a user-defined type into messages described by the
+	 * given descriptor, back-to-front - an implementation of
+	 * {@link Codec#writeReverse(ReverseOutput, Object)}. The given options select how fields are
+	 * held, e.g. whether repeated numeric and {@code bool} fields are held in primitive arrays.
+	 */
+	@NotNull
+	public static MethodSpec genWriteReverseMethod(@NotNull TypeName userTypeName, @NotNull DescriptorProto descriptor, @NotNull FileOptions options){
+		ParameterSpec outputParam = notNull(ReverseOutput.class, "output");
+		ParameterSpec valueParam = notNull(userTypeName, "value");
+
+		MethodSpec.Builder methodBuilder = MethodSpec.methodBuilder("writeReverse")
+				.addModifiers(Modifier.PROTECTED)
+				.addAnnotation(Override.class)
+				.returns(void.class)
+				.addParameter(outputParam)
+				.addParameter(valueParam);
+
+		// The fields are written in the reverse order of the one in which genWriteMethod writes them
+		for (FieldDescriptorProto field : Lists.reverse(fieldsByNumber(descriptor))){
+			Type fieldType = field.getType();
+			String getterName = fieldGetterName(field);
+			String taggedWriterMethodName = WRITE_TAGGED_METHOD_NAMES_BY_PRIMITIVE_TYPE.get(fieldType);
 
 			methodBuilder.addCode("\n");
 
 			if (isRepeated(field)){ // Repeated field
 				if (isPacked(fieldType)){
 					methodBuilder.addComment("Write $L", field.getName());
-					methodBuilder.addCode(genPackedRepeatedFieldWriter(field, valueParam, outputParam));
+					methodBuilder.addCode(genPackedRepeatedFieldReverseWriter(field, valueParam, outputParam, options));
 				}
 				else{
 					// TODO: Write non-packed repeated types
 				}
 			}
-			else if (primitiveWriterMethodName != null){ // A primitive type
-				// e.g. writeFloatField(output, 2, value.getSecondField())
+			else if (taggedWriterMethodName != null){ // A primitive type
+				// e.g. writeTaggedFloatField(output, SECOND_FIELD_TAG, value.getSecondField())
 				methodBuilder.addStatement("$L($N, $L, $N.$N())",
-						primitiveWriterMethodName, outputParam, fieldNumber, valueParam, getterName);
+						taggedWriterMethodName, outputParam, tagConstantName(field), valueParam, getterName);
 			}
 			else if ((fieldType == Type.TYPE_MESSAGE) || (fieldType == Type.TYPE_ENUM)){ // A user-defined type, with a codec
-				// e.g. TypeCodec.INSTANCE.writeField(output, 3, value.getThirdField())
-				// This works for enums too, because the method name in EnumCodec just happens to also be writeField
-				methodBuilder.addStatement("$L.writeField($N, $L, $N.$N())",
-						codecInstanceExpr(field), outputParam, fieldNumber, valueParam, getterName);
+				// e.g. TypeCodec.INSTANCE.writeTaggedField(output, THIRD_FIELD_TAG, value.getThirdField())
+				// This works for enums too, because the method name in EnumCodec just happens to also be writeTaggedField
+				methodBuilder.addStatement("$L.writeTaggedField($N, $L, $N.$N())",
+						codecInstanceExpr(field), outputParam, tagConstantName(field), valueParam, getterName);
 			}
 			else
 				System.err.println("Field type " + fieldType + " not supported yet");
@@ -89,18 +201,19 @@ public class WriteGenerator{
 
 	/**
 	 * Returns a code block that writes the given field of the given user-defined value, into the
-	 * given output ({@link CodedOutputStream}).
+	 * given output ({@link CodedOutputStream} or {@link ProtoWriter}).
 	 */
 	private static CodeBlock genPackedRepeatedFieldWriter(@NotNull FieldDescriptorProto field,
 														  @NotNull ParameterSpec valueParam,
-														  @NotNull ParameterSpec outputParam){
+														  @NotNull ParameterSpec outputParam,
+														  @NotNull FileOptions options){
 		// Generates code like so:
-		// int[] _arr = value.getArr();
-		// if (arr != null){
-		//   output.writeUInt32NoTag(10);
-		//   output.writeUInt32NoTag(packedRepeatedInt32FieldSize(_arr));
-		//   for (int i = 0; i < _arr.length; ++i)
-		//     output.writeInt32NoTag(_arr[i]);
+		// Collection<Double> _arr = value.getArr(); (or double[] _arr)
+		// if (_arr != null){
+		//   output.writeUInt32NoTag(ARR_TAG);
+		//   output.writeUInt32NoTag(packedRepeatedDoubleFieldSize(_arr));
+		//   for (Double item : _arr)
+		//     output.writeDoubleNoTag(item);
 		// }
 
 		CodeBlock.Builder code = CodeBlock.builder();
@@ -115,15 +228,16 @@ public class WriteGenerator{
 		String getterName = fieldGetterName(field);
 		String computeRepeatedSizeMethodName = PACKED_REPEATED_SIZE_METHOD_NAMES_BY_TYPE.get(fieldType);
 		String writeNoTagMethod = WRITE_NO_TAG_METHOD_NAMES_BY_TYPE.get(fieldType);
-		TypeName collectionType = collectionOf(javaTypeName);
+		TypeName fieldTypeName = repeatedFieldTypeName(field, javaTypeName, options);
+		String elementTypeName = repeatedElementTypeName(field, options);
 		String fieldValueLocalVarName = "_" + field.getName();
 
-		code.addStatement("$T $L = $N.$N()", collectionType, fieldValueLocalVarName, valueParam, getterName); // e.g. Collection<Integer> _arr = value.getArr()
+		code.addStatement("$T $L = $N.$N()", fieldTypeName, fieldValueLocalVarName, valueParam, getterName); // e.g. Collection<Integer> _arr = value.getArr()
 		code.beginControlFlow("if ($L != null)", fieldValueLocalVarName)
-				.addStatement("$N.writeUInt32NoTag($L)", outputParam, WireFormatProxy.makeLengthDelimitedTag(field.getNumber()))
+				.addStatement("$N.writeUInt32NoTag($L)", outputParam, tagConstantName(field))
 				.addStatement("$N.writeUInt32NoTag($L($L))", outputParam, computeRepeatedSizeMethodName, fieldValueLocalVarName)
 				.add(CodeBlock.builder()
-						.beginControlFlow("for ($L item : $L)", javaTypeName, fieldValueLocalVarName)
+						.beginControlFlow("for ($L item : $L)", elementTypeName, fieldValueLocalVarName)
 						.addStatement("$N.$L(item)", outputParam, writeNoTagMethod)
 						.endControlFlow()
 						.build())
@@ -134,4 +248,65 @@ public class WriteGenerator{
 
 
 
+	/**
+	 * Returns a code block that writes the given field of the given user-defined value, into the
+	 * given output ({@link ReverseOutput}), back-to-front.
+	 */
+	private static CodeBlock genPackedRepeatedFieldReverseWriter(@NotNull FieldDescriptorProto field,
+																 @NotNull ParameterSpec valueParam,
+																 @NotNull ParameterSpec outputParam,
+																 @NotNull FileOptions options){
+		// Generates code like so:
+		// Collection<Integer> _arr = value.getArr();
+		// if (_arr != null){
+		//   int end = output.size();
+		//   for (Integer item : reversed(_arr))
+		//     output.writeInt32NoTag(item);
+		// or, for a primitive array:
+		//   for (int i = _arr.length - 1; i >= 0; --i)
+		//     output.writeInt32NoTag(_arr[i]);
+		//   output.writeUInt32NoTag(output.size() - end);
+		//   output.writeUInt32NoTag(ARR_TAG);
+		// }
+
+		CodeBlock.Builder code = CodeBlock.builder();
+
+		String javaTypeName = javaTypeName(field);
+		if (javaTypeName == null){ // Not a supported type yet
+			System.err.println("Field type " + field.getType() + " is not supported yet");
+			return code.build();
+		}
+
+		Type fieldType = field.getType();
+		String getterName = fieldGetterName(field);
+		String writeNoTagMethod = WRITE_NO_TAG_METHOD_NAMES_BY_TYPE.get(fieldType);
+		TypeName fieldTypeName = repeatedFieldTypeName(field, javaTypeName, options);
+		String elementTypeName = repeatedElementTypeName(field, options);
+		String fieldValueLocalVarName = "_" + field.getName();
+
+		code.addStatement("$T $L = $N.$N()", fieldTypeName, fieldValueLocalVarName, valueParam, getterName); // e.g. Collection<Integer> _arr = value.getArr()
+		CodeBlock.Builder loop = CodeBlock.builder();
+		if (isPrimitiveArray(field, options)){
+			loop.beginControlFlow("for (int i = $L.length - 1; i >= 0; --i)", fieldValueLocalVarName)
+					.addStatement("$N.$L($L[i])", outputParam, writeNoTagMethod, fieldValueLocalVarName)
+					.endControlFlow();
+		}
+		else{
+			loop.beginControlFlow("for ($L item : reversed($L))", elementTypeName, fieldValueLocalVarName)
+					.addStatement("$N.$L(item)", outputParam, writeNoTagMethod)
+					.endControlFlow();
+		}
+
+		code.beginControlFlow("if ($L != null)", fieldValueLocalVarName)
+				.addStatement("int end = $N.size()", outputParam)
+				.add(loop.build())
+				.addStatement("$N.writeUInt32NoTag($N.size() - end)", outputParam, outputParam)
+				.addStatement("$N.writeUInt32NoTag($L)", outputParam, tagConstantName(field))
+				.endControlFlow();
+
+		return code.build();
+	}
+
+
+
 }
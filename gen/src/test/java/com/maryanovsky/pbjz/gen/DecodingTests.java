@@ -2,28 +2,57 @@ package com.maryanovsky.pbjz.gen;
 
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.CodecContexts;
+import com.maryanovsky.pbjz.runtime.DecodeContext;
+import com.maryanovsky.pbjz.runtime.LazyMessage;
+import com.maryanovsky.pbjz.runtime.LazyString;
+import com.maryanovsky.pbjz.runtime.MalformedProtoException;
+import com.maryanovsky.pbjz.runtime.ProtoReader;
+import com.maryanovsky.pbjz.runtime.StringInterner;
 
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
+import test.AliasedBytesMessage;
+import test.AliasedBytesMessageCodec;
 import test.AllTypesMessage;
 import test.AllTypesMessageCodec;
 import test.Color;
 import test.ColorMessage;
 import test.ColorMessageCodec;
+import test.EnvelopeMessage;
+import test.EnvelopeMessageCodec;
 import test.Int2Message;
 import test.Int2MessageCodec;
 import test.IntMessage;
 import test.IntMessageCodec;
+import test.InternedStringMessage;
+import test.InternedStringMessageCodec;
+import test.LargeTagMessage;
+import test.LargeTagMessageCodec;
+import test.LazyStringMessage;
+import test.LazyStringMessageCodec;
+import test.PayloadMessage;
+import test.PrimitiveArraysMessage;
+import test.PrimitiveArraysMessageCodec;
+import test.RepeatedIntMessage;
+import test.RepeatedIntMessageCodec;
 import test.String2Message;
 import test.String2MessageCodec;
 import test.StringColorMessage;
 import test.StringColorMessageCodec;
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
 import test.StringIntMessage;
 import test.StringIntMessageCodec;
 import test.StringMessage;
@@ -44,7 +73,16 @@ public class DecodingTests{
 
 
 	/**
-	 * Tests whether encoding and decoding the given object results in an equal object.
+	 * The pool of contexts used for testing decoding via a {@link DecodeContext}.
+	 */
+	private static final CodecContexts CONTEXTS = new CodecContexts(1, 32);
+
+
+
+	/**
+	 * Tests whether encoding and decoding the given object results in an equal object. Decoding is
+	 * tested from a stream, a byte array, heap and direct {@link ByteBuffer}s, and via a
+	 * {@link DecodeContext}.
 	 */
 	private static <T> void testEncDecEquals(@NotNull T obj, Codec<T> codec) throws IOException{
 		ByteArrayOutputStream buf = new ByteArrayOutputStream();
@@ -52,10 +90,50 @@ public class DecodingTests{
 		codec.write(out, obj);
 		out.flush();
 
-		CodedInputStream in = CodedInputStream.newInstance(buf.toByteArray());
-		T decodedObj = codec.read(in);
+		CodedInputStream in = CodedInputStream.newInstance(new ByteArrayInputStream(buf.toByteArray()));
+		Assert.assertEquals(obj, codec.read(in));
+
+		byte[] bytes = codec.toByteArray(obj);
+		Assert.assertEquals(obj, codec.parseFrom(bytes));
+
+		for (ByteBuffer byteBuffer : new ByteBuffer[]{ByteBuffer.allocate(bytes.length + 2), ByteBuffer.allocateDirect(bytes.length + 2)}){
+			byteBuffer.position(1);
+			byteBuffer.put(bytes);
+			byteBuffer.flip();
+			byteBuffer.position(1);
+			Assert.assertEquals(obj, codec.parseFrom(byteBuffer));
+			Assert.assertEquals(1, byteBuffer.position());
+		}
 
-		Assert.assertEquals(obj, decodedObj);
+		for (ByteBuffer byteBuffer : new ByteBuffer[]{ByteBuffer.allocate(2 * bytes.length + 10), ByteBuffer.allocateDirect(2 * bytes.length + 10)}){
+			codec.writeDelimitedTo(obj, byteBuffer);
+			codec.writeDelimitedTo(obj, byteBuffer);
+			int end = byteBuffer.position();
+			byteBuffer.flip();
+			Assert.assertEquals(obj, codec.parseDelimitedFrom(byteBuffer));
+			Assert.assertEquals(obj, codec.parseDelimitedFrom(byteBuffer));
+			Assert.assertEquals(end, byteBuffer.position());
+			Assert.assertNull(codec.parseDelimitedFrom(byteBuffer));
+
+			// A value that hasn't been received in full
+			byteBuffer.limit(end - 1);
+			byteBuffer.position(end / 2);
+			Assert.assertNull(codec.parseDelimitedFrom(byteBuffer));
+			Assert.assertEquals(end / 2, byteBuffer.position());
+		}
+
+		try (DecodeContext context = CONTEXTS.acquireDecodeContext()){
+			Assert.assertEquals(obj, codec.read(context, new ByteArrayInputStream(bytes)));
+
+			byte[] padded = new byte[bytes.length + 2];
+			System.arraycopy(bytes, 0, padded, 1, bytes.length);
+			Assert.assertEquals(obj, codec.parseFrom(context, padded, 1, bytes.length));
+
+			ProtoReader protoReader = ProtoReader.newInstance(padded, 1, bytes.length);
+			Assert.assertEquals(obj, codec.read(protoReader));
+			protoReader.checkLastTagWas(0);
+			Assert.assertEquals(bytes.length, protoReader.getTotalBytesRead());
+		}
 	}
 
 
@@ -93,6 +171,43 @@ public class DecodingTests{
 
 
 
+	/**
+	 * Tests the decoding of {@link RepeatedIntMessage} with the given lists of values.
+	 */
+	@SafeVarargs
+	private static void testRepeatedIntMessageDecoding(List<Integer>... valueLists) throws IOException{
+		Codec<RepeatedIntMessage> codec = RepeatedIntMessageCodec.INSTANCE;
+		for (List<Integer> values : valueLists)
+			testEncDecEquals(new RepeatedIntMessage(values), codec);
+	}
+
+
+
+	/**
+	 * Tests the decoding of {@link PrimitiveArraysMessage} with the given arrays of values.
+	 */
+	private static void testPrimitiveArraysMessageDecoding(int[] intValues, long[] longValues, double[] doubleValues,
+														   float[] floatValues, boolean[] boolValues, int[] fixedValues) throws IOException{
+		testEncDecEquals(
+				new PrimitiveArraysMessage(intValues, longValues, doubleValues, floatValues, boolValues, fixedValues),
+				PrimitiveArraysMessageCodec.INSTANCE);
+	}
+
+
+
+	/**
+	 * Returns an array of the given number of {@code long} values, spanning all varint sizes, in
+	 * no particular order.
+	 */
+	private static long[] manyLongs(int count){
+		long[] values = new long[count];
+		for (int i = 0; i < count; ++i)
+			values[i] = (i % 2 == 0) ? (1L << (i * 7919 % 64)) + i : -(1L << (i % 64));
+		return values;
+	}
+
+
+
 	/**
 	 * Tests the decoding of {@link Int2Message} with the given list of values. Each two consecutive
 	 * values are converted into objects that are tested.
@@ -134,6 +249,16 @@ public class DecodingTests{
 
 
 
+	/**
+	 * Tests the decoding of {@link LargeTagMessage}, whose fields have multi-byte tags.
+	 */
+	private static void testLargeTagMessageDecoding() throws IOException{
+		testEncDecEquals(new LargeTagMessage(Long.MIN_VALUE, "Hello"), LargeTagMessageCodec.INSTANCE);
+		testEncDecEquals(new LargeTagMessage(1, null), LargeTagMessageCodec.INSTANCE);
+	}
+
+
+
 	/**
 	 * Tests the decoding of {@link StringColorMessage} with the given list of values. The values
 	 * at even indices are expected to be {@code String}s, and the values at odd indices are
@@ -163,6 +288,21 @@ public class DecodingTests{
 
 
 
+	/**
+	 * Tests the decoding of {@link StringChainMessage}s of each of the given depths.
+	 */
+	private static void testStringChainMessageDecoding(int... depths) throws IOException{
+		Codec<StringChainMessage> codec = StringChainMessageCodec.INSTANCE;
+		for (int depth : depths){
+			StringChainMessage chain = null;
+			for (int i = 0; i < depth; ++i)
+				chain = new StringChainMessage((i % 2 == 0) ? "Level " + i : null, chain);
+			testEncDecEquals(chain, codec);
+		}
+	}
+
+
+
 	/**
 	 * Tests the decoding of {@link AllTypesMessage} with the given values.
 	 */
@@ -188,8 +328,19 @@ public class DecodingTests{
 		testInt2MessageDecoding(-1, 1, 0, 0, 0xffffffff, -1, Integer.MAX_VALUE, Integer.MIN_VALUE);
 		testString2MessageDecoding("", "", null, "0", "0", "a", "b", "Hello", "Goodbye", "World", null);
 		testStringIntMessageDecoding("Hello", 0, null, -1, "foobar", Integer.MAX_VALUE);
+		testLargeTagMessageDecoding();
 		testStringColorMessageDecoding("Peace", Color.RED, "Love", null, "Happiness", Color.BLUE);
 		testStringWithInnerMessageDecoding("Hello, World!", "", null, "\0");
+		testStringChainMessageDecoding(1, 2, 3, 16, 32);
+		testRepeatedIntMessageDecoding(Arrays.asList(1, -1, 300, Integer.MIN_VALUE, Integer.MAX_VALUE), EncodingTests.manyInts(1000));
+		testPrimitiveArraysMessageDecoding(new int[]{1, -1, 300, Integer.MIN_VALUE, Integer.MAX_VALUE},
+				new long[]{0, -1, 1234567890240L, Long.MIN_VALUE, Long.MAX_VALUE}, new double[]{1.23, -0.0, Double.NaN},
+				new float[]{3.45f, Float.MIN_VALUE}, new boolean[]{true, false, true}, new int[]{-5, 7});
+		testPrimitiveArraysMessageDecoding(EncodingTests.manyInts(1000).stream().mapToInt(Integer::intValue).toArray(),
+				null, new double[0], null, new boolean[0], null);
+		testPrimitiveArraysMessageDecoding(null, null, EncodingTests.manyDoubles(1000), EncodingTests.manyFloats(1000), null,
+				EncodingTests.manyInts(1000).stream().mapToInt(Integer::intValue).toArray()); // Converted in bulk
+		testPrimitiveArraysMessageDecoding(null, manyLongs(1000), null, null, null, null);
 		testAllTypesMessageDecoding(1.23, 3.45f, -50, -1234567890240L,
 				50, 1234567890240L,50, -1234567890240L,
 				50, 1234567890240L, 50, 1234567890240L,
@@ -199,4 +350,258 @@ public class DecodingTests{
 
 
 
+	/**
+	 * Tests the decoding of messages whose fields are not in the order we write them in, appear
+	 * more than once, or are unknown, which the fast path of the generated readers doesn't handle.
+	 */
+	@Test
+	public void testOutOfOrderDecoding() throws IOException{
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		CodedOutputStream out = CodedOutputStream.newInstance(buf);
+		out.writeInt32(2, 5);
+		out.writeString(1, "Hello");
+		out.writeFixed64(7, 42L); // Unknown
+		out.writeInt32(2, 6); // The last value wins
+		out.flush();
+		Assert.assertEquals(new StringIntMessage("Hello", 6), StringIntMessageCodec.INSTANCE.parseFrom(buf.toByteArray()));
+
+		buf.reset();
+		out = CodedOutputStream.newInstance(buf);
+		out.writeString(300, "World");
+		out.writeInt64(100000, -1L);
+		out.flush();
+		Assert.assertEquals(new LargeTagMessage(-1L, "World"), LargeTagMessageCodec.INSTANCE.parseFrom(buf.toByteArray()));
+	}
+
+
+
+	/**
+	 * Tests that decoding malformed packed fields into primitive arrays fails.
+	 */
+	@Test
+	public void testMalformedPrimitiveArraysDecoding() throws IOException{
+		byte[][] malformed = {
+				{10, 2, 1, (byte)0x80}, // The last varint of int_values is cut off
+				{10, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1}, // An 11-byte varint
+				{50, 3, 1, 2, 3}, // The length of fixed_values isn't a multiple of 4
+		};
+		for (byte[] bytes : malformed){
+			try{
+				PrimitiveArraysMessageCodec.INSTANCE.parseFrom(bytes);
+				Assert.fail("Expected an InvalidProtocolBufferException or a MalformedProtoException");
+			} catch (InvalidProtocolBufferException | MalformedProtoException e){
+				// Expected; thrown by the CodedInputStream or by the runtime, depending on the path
+			}
+		}
+	}
+
+
+
+	/**
+	 * Tests that the {@code bytes} fields of codecs generated with the {@code aliased_bytes} option
+	 * are decoded into read-only slices of the input, where it's a {@link ProtoReader}, a
+	 * {@link ByteBuffer} or a {@link CodedInputStream} with aliasing enabled, and into copies
+	 * otherwise.
+	 */
+	@Test
+	public void testAliasedBytesDecoding() throws IOException{
+		Codec<AliasedBytesMessage> codec = AliasedBytesMessageCodec.INSTANCE;
+		AliasedBytesMessage message = new AliasedBytesMessage(ByteBuffer.wrap(new byte[]{1, 2, 3}), "Hello");
+		testEncDecEquals(message, codec);
+		testEncDecEquals(new AliasedBytesMessage(null, "Hello"), codec);
+		testEncDecEquals(new AliasedBytesMessage(ByteBuffer.allocate(0), null), codec);
+
+		byte[] bytes = codec.toByteArray(message);
+		ByteBuffer[] inputs = {ByteBuffer.wrap(bytes), ByteBuffer.allocateDirect(bytes.length)};
+		inputs[1].put(bytes).flip();
+		for (ByteBuffer input : inputs){
+			ByteBuffer payload = codec.parseFrom(input).getPayload();
+			Assert.assertTrue(payload.isReadOnly());
+			input.put(2, (byte)42); // The first byte of the payload, after its tag and length
+			Assert.assertEquals(42, payload.get(0));
+			input.put(2, (byte)1);
+		}
+
+		CodedInputStream aliasing = CodedInputStream.newInstance(bytes);
+		aliasing.enableAliasing(true);
+		ByteBuffer aliased = codec.read(aliasing).getPayload();
+		ByteBuffer copied = codec.read(CodedInputStream.newInstance(bytes)).getPayload();
+		bytes[2] = 42;
+		Assert.assertEquals(42, aliased.get(0));
+		Assert.assertEquals(1, copied.get(0));
+	}
+
+
+
+	/**
+	 * Tests that the {@code string} fields of codecs generated with the {@code lazy_strings} option
+	 * are decoded only when accessed, so that invalid UTF-8 fails only then, and that values which
+	 * were read are encoded again as the same bytes.
+	 */
+	@Test
+	public void testLazyStringDecoding() throws IOException{
+		Codec<LazyStringMessage> codec = LazyStringMessageCodec.INSTANCE;
+		testEncDecEquals(new LazyStringMessage(LazyString.of("Hello"), LazyString.of("\u4e16\u754c\ud83d\ude00"), 42), codec);
+		testEncDecEquals(new LazyStringMessage(null, LazyString.of("World"), 0), codec);
+
+		byte[] bytes = {10, 2, (byte)0xC0, (byte)0x80, 18, 2, 'H', 'i', 24, 5}; // An overlong UTF-8 encoding of the name
+		for (LazyStringMessage message : Arrays.asList(codec.read(CodedInputStream.newInstance(bytes)), codec.read(ProtoReader.newInstance(bytes)))){
+			Assert.assertEquals(5, message.getId());
+			Assert.assertEquals("Hi", message.getDescription().toString());
+			Assert.assertArrayEquals(bytes, codec.toByteArray(message));
+			try{
+				message.getName().toString();
+				Assert.fail("Expected an IllegalStateException");
+			} catch (IllegalStateException e){
+				Assert.assertTrue(e.getCause() instanceof MalformedProtoException);
+			}
+		}
+	}
+
+
+
+	/**
+	 * Tests that the {@code string} fields of codecs generated with the {@code intern_strings}
+	 * option are decoded into the same instance for equal short strings, when the codec has a
+	 * {@link StringInterner}, and into distinct instances otherwise.
+	 */
+	@Test
+	public void testInternedStringDecoding() throws IOException{
+		Codec<InternedStringMessage> codec = InternedStringMessageCodec.INSTANCE;
+		String longHost = new String(new char[100]).replace('\0', '\u00e9');
+		InternedStringMessage message = new InternedStringMessage("auth", "\u4e16\u754c", 1);
+		InternedStringMessage longMessage = new InternedStringMessage("auth", longHost, 2);
+		testEncDecEquals(message, codec);
+
+		byte[] bytes = codec.toByteArray(message);
+		byte[] longBytes = codec.toByteArray(longMessage);
+		Assert.assertNotSame(codec.parseFrom(bytes).getService(), codec.parseFrom(bytes).getService());
+
+		StringInterner interner = new StringInterner(100);
+		Assert.assertEquals(128, interner.capacity());
+		codec.setStringInterner(interner);
+		try{
+			testEncDecEquals(message, codec);
+			testEncDecEquals(longMessage, codec);
+
+			InternedStringMessage first = codec.read(CodedInputStream.newInstance(bytes));
+			InternedStringMessage second = codec.read(ProtoReader.newInstance(bytes));
+			InternedStringMessage third = codec.read(ProtoReader.newInstance(longBytes));
+			Assert.assertEquals(message, first);
+			Assert.assertSame(first.getService(), second.getService());
+			Assert.assertSame(first.getHost(), second.getHost());
+			Assert.assertSame(first.getService(), third.getService());
+			Assert.assertEquals(longHost, third.getHost());
+			Assert.assertNotSame(third.getHost(), codec.read(ProtoReader.newInstance(longBytes)).getHost()); // Too long to be cached
+			Assert.assertTrue(interner.hits() > 0);
+
+			try{
+				codec.read(ProtoReader.newInstance(new byte[]{10, 2, (byte)0xC0, (byte)0x80})); // An overlong UTF-8 encoding
+				Assert.fail("Expected a MalformedProtoException");
+			} catch (MalformedProtoException e){
+				// Expected
+			}
+		} finally{
+			codec.setStringInterner(null);
+		}
+	}
+
+
+
+	/**
+	 * Tests that the message fields of codecs generated with the {@code lazy_messages} option are
+	 * decoded only when accessed, so that a malformed sub-message fails only then, and that values
+	 * which were read are encoded again as the same bytes, even where they aren't in the canonical
+	 * encoding.
+	 */
+	@Test
+	public void testLazyMessageDecoding() throws IOException{
+		Codec<EnvelopeMessage> codec = EnvelopeMessageCodec.INSTANCE;
+		testEncDecEquals(new EnvelopeMessage("auth", LazyMessage.of(new PayloadMessage("Hello", 42)), 7), codec);
+		testEncDecEquals(new EnvelopeMessage(null, LazyMessage.of(new PayloadMessage(null, 0)), 0), codec);
+		testEncDecEquals(new EnvelopeMessage("billing", null, -1), codec);
+
+		byte[][] payloads = {
+				{16, 42, 10, 2, 'H', 'i'}, // The fields of the payload in reverse order
+				{10, 5, 'H'}, // A truncated string
+		};
+		for (byte[] payload : payloads){
+			byte[] bytes = new byte[payload.length + 4];
+			System.arraycopy(new byte[]{10, 0, 18, (byte)payload.length}, 0, bytes, 0, 4);
+			System.arraycopy(payload, 0, bytes, 4, payload.length);
+			for (EnvelopeMessage message : Arrays.asList(codec.read(CodedInputStream.newInstance(bytes)), codec.read(ProtoReader.newInstance(bytes)))){
+				Assert.assertFalse(message.getPayload().isDecoded());
+				Assert.assertArrayEquals(bytes, codec.toByteArray(message));
+				if (payload == payloads[0])
+					Assert.assertEquals(new PayloadMessage("Hi", 42), message.getPayload().get());
+				else{
+					try{
+						message.getPayload().get();
+						Assert.fail("Expected an IllegalStateException");
+					} catch (IllegalStateException e){
+						Assert.assertTrue((e.getCause() instanceof InvalidProtocolBufferException) ||
+								(e.getCause() instanceof MalformedProtoException));
+					}
+				}
+				Assert.assertArrayEquals(bytes, codec.toByteArray(message));
+			}
+		}
+	}
+
+
+
+	/**
+	 * Tests that decoding malformed messages via a {@link ProtoReader} fails like decoding them via
+	 * a {@link CodedInputStream} does.
+	 */
+	@Test
+	public void testMalformedProtoReaderDecoding() throws IOException{
+		byte[][] malformed = {
+				{10, 5, 'a'}, // A truncated string
+				{10, 2, (byte)0xC0, (byte)0x80}, // An overlong UTF-8 encoding
+				{10, 3, (byte)0xED, (byte)0xA0, (byte)0x80}, // An encoded surrogate
+				{10, 1, (byte)0xE2}, // A truncated UTF-8 sequence
+				{16, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1}, // An 11-byte varint
+				{0, 0}, // A zero field number
+		};
+		for (byte[] bytes : malformed){
+			try{
+				String2MessageCodec.INSTANCE.read(CodedInputStream.newInstance(bytes));
+				Assert.fail("Expected an InvalidProtocolBufferException");
+			} catch (InvalidProtocolBufferException e){
+				// Expected
+			}
+			try{
+				String2MessageCodec.INSTANCE.read(ProtoReader.newInstance(bytes));
+				Assert.fail("Expected a MalformedProtoException");
+			} catch (MalformedProtoException e){
+				// Expected
+			}
+		}
+	}
+
+
+
+	/**
+	 * Tests that decoding a value whose size prefix is malformed fails, without consuming it.
+	 */
+	@Test
+	public void testMalformedDelimitedDecoding() throws IOException{
+		byte[][] malformed = {
+				{-1, -1, -1, -1, -1, 1}, // A 6-byte size
+				{-1, -1, -1, -1, 15}, // A negative size
+		};
+		for (byte[] bytes : malformed){
+			ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+			try{
+				StringIntMessageCodec.INSTANCE.parseDelimitedFrom(byteBuffer);
+				Assert.fail("Expected a MalformedProtoException");
+			} catch (MalformedProtoException e){
+				Assert.assertEquals(0, byteBuffer.position());
+			}
+		}
+	}
+
+
+
 }
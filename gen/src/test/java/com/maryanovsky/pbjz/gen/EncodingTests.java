@@ -1,9 +1,22 @@
 package com.maryanovsky.pbjz.gen;
 
 
+import com.google.common.io.ByteStreams;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.runtime.ChunkPool;
 import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.CodecContexts;
+import com.maryanovsky.pbjz.runtime.EncodeContext;
+import com.maryanovsky.pbjz.runtime.LazyMessage;
+import com.maryanovsky.pbjz.runtime.LazyString;
+import com.maryanovsky.pbjz.runtime.ListSplitter;
+import com.maryanovsky.pbjz.runtime.ProtoWriter;
+import com.maryanovsky.pbjz.runtime.ReverseOutput;
+import com.maryanovsky.pbjz.runtime.SegmentedOutput;
+import com.maryanovsky.pbjz.runtime.SerializedFormCache;
+import com.maryanovsky.pbjz.runtime.StringCache;
+import com.maryanovsky.pbjz.runtime.WritePass;
 
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
@@ -11,22 +24,51 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import test.AliasedBytesMessage;
+import test.AliasedBytesMessageCodec;
+import test.AliasedBytesMessages;
 import test.AllTypesMessage;
 import test.AllTypesMessageCodec;
 import test.AllTypesMessageOuterClass;
 import test.Color;
 import test.ColorMessage;
 import test.ColorMessageCodec;
+import test.EnvelopeMessage;
+import test.EnvelopeMessageCodec;
 import test.Int2Message;
 import test.Int2MessageCodec;
 import test.IntMessage;
 import test.IntMessageCodec;
+import test.LazyMessageMessages;
+import test.LazyStringMessage;
+import test.LazyStringMessageCodec;
+import test.LazyStringMessages;
+import test.LargeTagMessage;
+import test.LargeTagMessageCodec;
 import test.OneFieldMessages;
+import test.PayloadMessage;
+import test.PrimitiveArrayMessages;
+import test.PrimitiveArraysMessage;
+import test.PrimitiveArraysMessageCodec;
+import test.RepeatedFieldMessages;
+import test.RepeatedIntMessage;
+import test.RepeatedIntMessageCodec;
+import test.RepeatedTypesMessage;
+import test.RepeatedTypesMessageCodec;
 import test.String2Message;
 import test.String2MessageCodec;
 import test.StringColorMessage;
 import test.StringColorMessageCodec;
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
 import test.StringIntMessage;
 import test.StringIntMessageCodec;
 import test.StringMessage;
@@ -46,23 +88,99 @@ public class EncodingTests{
 
 
 
+	/**
+	 * The pool of contexts used for testing encoding via an {@link EncodeContext}. The limits are
+	 * small so that both reusing and dropping the buffers of pooled contexts are tested.
+	 */
+	private static final CodecContexts CONTEXTS = new CodecContexts(1, 32);
+
+
+
+	/**
+	 * The pool of chunks used for testing encoding into a {@link SegmentedOutput}. The chunks are
+	 * tiny, so that values span many of them.
+	 */
+	private static final ChunkPool CHUNKS = new ChunkPool(3, 8);
+
+
+
 	/**
 	 * Tests whether the encoding of the given object via the given codec, results in the same
 	 * binary output as the encoding of the given protobuf message (which is presumably identical in
-	 * contents to the object).
+	 * contents to the object). The encodings into a stream, a byte array, heap and direct
+	 * {@link ByteBuffer}s, via an {@link EncodeContext}, into a {@link SegmentedOutput}, and the
+	 * back-to-front encoding are all tested.
 	 */
 	private static <T> void testEncodingEquals(@NotNull T obj, Codec<T> codec, com.google.protobuf.GeneratedMessageV3 protoMsg) throws IOException{
-		ByteArrayOutputStream buf1 = new ByteArrayOutputStream();
-		CodedOutputStream out1 = CodedOutputStream.newInstance(buf1);
-		codec.write(out1, obj);
-		out1.flush();
+		byte[] expected = protoMsg.toByteArray();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		CodedOutputStream out = CodedOutputStream.newInstance(buf);
+		codec.write(out, obj);
+		out.flush();
+		Assert.assertArrayEquals(expected, buf.toByteArray());
+
+		Assert.assertEquals(expected.length, codec.computeSerializedSize(obj));
+		Assert.assertArrayEquals(expected, codec.toByteArray(obj));
+
+		for (ByteBuffer byteBuffer : new ByteBuffer[]{ByteBuffer.allocate(expected.length + 2), ByteBuffer.allocateDirect(expected.length + 2)}){
+			byteBuffer.position(1);
+			codec.writeTo(obj, byteBuffer);
+			Assert.assertEquals(expected.length + 1, byteBuffer.position());
+			byte[] written = new byte[expected.length];
+			byteBuffer.position(1);
+			byteBuffer.get(written);
+			Assert.assertArrayEquals(expected, written);
+		}
+
+		ByteArrayOutputStream delimitedBuf = new ByteArrayOutputStream();
+		protoMsg.writeDelimitedTo(delimitedBuf);
+		byte[] expectedDelimited = delimitedBuf.toByteArray();
+		for (ByteBuffer byteBuffer : new ByteBuffer[]{ByteBuffer.allocate(expectedDelimited.length + 1), ByteBuffer.allocateDirect(expectedDelimited.length + 1)}){
+			byteBuffer.position(1);
+			codec.writeDelimitedTo(obj, byteBuffer);
+			Assert.assertFalse(byteBuffer.hasRemaining());
+			try{
+				codec.writeDelimitedTo(obj, byteBuffer);
+				Assert.fail("Expected BufferOverflowException");
+			} catch (BufferOverflowException e){
+				// Expected
+			}
+			byte[] written = new byte[expectedDelimited.length];
+			byteBuffer.position(1);
+			byteBuffer.get(written);
+			Assert.assertArrayEquals(expectedDelimited, written);
+		}
 
-		ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
-		CodedOutputStream out2 = CodedOutputStream.newInstance(buf2);
-		protoMsg.writeTo(out2);
-		out2.flush();
+		try (EncodeContext context = CONTEXTS.acquireEncodeContext()){
+			codec.write(context, obj);
+			Assert.assertArrayEquals(expected, context.toByteArray());
+
+			ByteArrayOutputStream contextBuf = new ByteArrayOutputStream();
+			codec.write(context, obj, contextBuf);
+			Assert.assertArrayEquals(expected, contextBuf.toByteArray());
+		}
 
-		Assert.assertArrayEquals(buf1.toByteArray(), buf2.toByteArray());
+		testSegmentedEncodingEquals(obj, codec, expected, new SegmentedOutput(CHUNKS));
+		testSegmentedEncodingEquals(obj, codec, expected, new SegmentedOutput(CHUNKS, 2));
+
+		ReverseOutput reverseOutput = new ReverseOutput(0);
+		codec.write(reverseOutput, obj);
+		Assert.assertArrayEquals(expected, reverseOutput.toByteArray());
+
+		byte[] padded = new byte[expected.length + 2];
+		ProtoWriter protoWriter = ProtoWriter.newInstance(padded, 1, expected.length);
+		codec.write(protoWriter, obj);
+		protoWriter.checkNoSpaceLeft();
+		Assert.assertArrayEquals(expected, Arrays.copyOfRange(padded, 1, expected.length + 1));
+		if (expected.length > 0){
+			try{
+				codec.write(ProtoWriter.newInstance(padded, 1, expected.length - 1), obj);
+				Assert.fail("Expected BufferOverflowException");
+			} catch (BufferOverflowException e){
+				// Expected
+			}
+		}
 	}
 
 
@@ -111,6 +229,196 @@ public class EncodingTests{
 
 
 
+	/**
+	 * Tests whether the encoding of the given object via the given codec into the given
+	 * {@link SegmentedOutput} results in the given bytes.
+	 */
+	private static <T> void testSegmentedEncodingEquals(@NotNull T obj, Codec<T> codec, byte[] expected, SegmentedOutput output) throws IOException{
+		codec.write(output, obj);
+		Assert.assertEquals(expected.length, output.size());
+		Assert.assertArrayEquals(expected, toByteArray(output.toByteBuffers()));
+		Assert.assertArrayEquals(expected, ByteStreams.toByteArray(output.toInputStream()));
+		output.release();
+	}
+
+
+
+	/**
+	 * Returns the concatenation of the remaining bytes of the given buffers.
+	 */
+	private static byte[] toByteArray(ByteBuffer[] buffers){
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		for (ByteBuffer buffer : buffers){
+			byte[] bytes = new byte[buffer.remaining()];
+			buffer.get(bytes);
+			buf.write(bytes, 0, bytes.length);
+		}
+		return buf.toByteArray();
+	}
+
+
+
+	/**
+	 * Tests the encoding of {@link RepeatedIntMessage} with the given lists of values.
+	 */
+	@SafeVarargs
+	private static void testRepeatedIntMessageEncoding(List<Integer>... valueLists) throws IOException{
+		Codec<RepeatedIntMessage> codec = RepeatedIntMessageCodec.INSTANCE;
+		for (List<Integer> values : valueLists){
+			testEncodingEquals(
+					new RepeatedIntMessage(values), codec,
+					RepeatedFieldMessages.RepeatedIntMessage.newBuilder().addAllValues(values).build());
+		}
+	}
+
+
+
+	/**
+	 * Tests the encoding of {@link PrimitiveArraysMessage} with the given arrays of values.
+	 */
+	private static void testPrimitiveArraysMessageEncoding(int[] intValues, long[] longValues, double[] doubleValues,
+														   float[] floatValues, boolean[] boolValues, int[] fixedValues) throws IOException{
+		PrimitiveArrayMessages.PrimitiveArraysMessage.Builder builder = PrimitiveArrayMessages.PrimitiveArraysMessage.newBuilder();
+		if (intValues != null){
+			for (int value : intValues)
+				builder.addIntValues(value);
+		}
+		if (longValues != null){
+			for (long value : longValues)
+				builder.addLongValues(value);
+		}
+		if (doubleValues != null){
+			for (double value : doubleValues)
+				builder.addDoubleValues(value);
+		}
+		if (floatValues != null){
+			for (float value : floatValues)
+				builder.addFloatValues(value);
+		}
+		if (boolValues != null){
+			for (boolean value : boolValues)
+				builder.addBoolValues(value);
+		}
+		if (fixedValues != null){
+			for (int value : fixedValues)
+				builder.addFixedValues(value);
+		}
+
+		testEncodingEquals(
+				new PrimitiveArraysMessage(intValues, longValues, doubleValues, floatValues, boolValues, fixedValues),
+				PrimitiveArraysMessageCodec.INSTANCE, builder.build());
+	}
+
+
+
+	/**
+	 * Tests the encoding of {@link AliasedBytesMessage} with the given payload, which is taken from
+	 * between the position and the limit of a larger buffer, and name.
+	 */
+	private static void testAliasedBytesMessageEncoding(byte[] payload, String name) throws IOException{
+		AliasedBytesMessages.AliasedBytesMessage.Builder builder = AliasedBytesMessages.AliasedBytesMessage.newBuilder();
+		ByteBuffer payloadBuffer = null;
+		if (payload != null){
+			builder.setPayload(ByteString.copyFrom(payload));
+			byte[] padded = new byte[payload.length + 2];
+			System.arraycopy(payload, 0, padded, 1, payload.length);
+			payloadBuffer = ByteBuffer.wrap(padded, 1, payload.length);
+		}
+		if (name != null)
+			builder.setName(name);
+
+		AliasedBytesMessage message = new AliasedBytesMessage(payloadBuffer, name);
+		testEncodingEquals(message, AliasedBytesMessageCodec.INSTANCE, builder.build());
+		if (payloadBuffer != null){
+			Assert.assertEquals(1, payloadBuffer.position()); // Not consumed by the writes
+			testEncodingEquals(new AliasedBytesMessage(payloadBuffer.asReadOnlyBuffer(), name), AliasedBytesMessageCodec.INSTANCE, builder.build());
+		}
+	}
+
+
+
+	/**
+	 * Tests the encoding of {@link LazyStringMessage} with the given values, both when its strings
+	 * are created from {@link String}s and when they are decoded from the protobuf encoding.
+	 */
+	private static void testLazyStringMessageEncoding(String name, String description, int id) throws IOException{
+		LazyStringMessages.LazyStringMessage.Builder builder = LazyStringMessages.LazyStringMessage.newBuilder().setId(id);
+		if (name != null)
+			builder.setName(name);
+		if (description != null)
+			builder.setDescription(description);
+		LazyStringMessages.LazyStringMessage protobufMessage = builder.build();
+
+		LazyStringMessage message = new LazyStringMessage(
+				(name == null) ? null : LazyString.of(name),
+				(description == null) ? null : LazyString.of(description),
+				id);
+		testEncodingEquals(message, LazyStringMessageCodec.INSTANCE, protobufMessage);
+		testEncodingEquals(LazyStringMessageCodec.INSTANCE.parseFrom(protobufMessage.toByteArray()), LazyStringMessageCodec.INSTANCE, protobufMessage);
+	}
+
+
+
+	/**
+	 * Tests the encoding of {@link EnvelopeMessage} with the given values, both when its payload is
+	 * created from a value and when it's decoded (lazily) from the protobuf encoding.
+	 */
+	private static void testEnvelopeMessageEncoding(String destination, String payloadText, int payloadNumber, long id) throws IOException{
+		LazyMessageMessages.EnvelopeMessage.Builder builder = LazyMessageMessages.EnvelopeMessage.newBuilder().setId(id);
+		if (destination != null)
+			builder.setDestination(destination);
+		LazyMessage<PayloadMessage> payload = null;
+		if ((payloadText != null) || (payloadNumber != 0)){
+			LazyMessageMessages.PayloadMessage.Builder payloadBuilder = LazyMessageMessages.PayloadMessage.newBuilder().setNumber(payloadNumber);
+			if (payloadText != null)
+				payloadBuilder.setText(payloadText);
+			builder.setPayload(payloadBuilder);
+			payload = LazyMessage.of(new PayloadMessage(payloadText, payloadNumber));
+		}
+		LazyMessageMessages.EnvelopeMessage protobufMessage = builder.build();
+
+		testEncodingEquals(new EnvelopeMessage(destination, payload, id), EnvelopeMessageCodec.INSTANCE, protobufMessage);
+		testEncodingEquals(EnvelopeMessageCodec.INSTANCE.parseFrom(protobufMessage.toByteArray()), EnvelopeMessageCodec.INSTANCE, protobufMessage);
+	}
+
+
+
+	/**
+	 * Returns a list of the given number of values, spanning all varint sizes.
+	 */
+	static List<Integer> manyInts(int count){
+		List<Integer> values = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i)
+			values.add((i % 2 == 0) ? i * i * i : -i);
+		return values;
+	}
+
+
+
+	/**
+	 * Returns an array of the given number of {@code double} values.
+	 */
+	static double[] manyDoubles(int count){
+		double[] values = new double[count];
+		for (int i = 0; i < count; ++i)
+			values[i] = (i % 2 == 0) ? i / 3.0 : -i * 1e100;
+		return values;
+	}
+
+
+
+	/**
+	 * Returns an array of the given number of {@code float} values.
+	 */
+	static float[] manyFloats(int count){
+		float[] values = new float[count];
+		for (int i = 0; i < count; ++i)
+			values[i] = (i % 2 == 0) ? i / 3.0f : -i * 1e30f;
+		return values;
+	}
+
+
+
 	/**
 	 * Tests the encoding of {@link Int2Message} with the given list of values. Each two consecutive
 	 * values are converted into objects that are tested.
@@ -170,6 +478,20 @@ public class EncodingTests{
 
 
 
+	/**
+	 * Tests the encoding of {@link LargeTagMessage}, whose fields have multi-byte tags and are
+	 * declared out of order, with the given values.
+	 */
+	private static void testLargeTagMessageEncoding(String text, long value) throws IOException{
+		TwoFieldMessages.LargeTagMessage.Builder builder = TwoFieldMessages.LargeTagMessage.newBuilder();
+		if (text != null)
+			builder.setText(text);
+		builder.setValue(value);
+		testEncodingEquals(new LargeTagMessage(value, text), LargeTagMessageCodec.INSTANCE, builder.build());
+	}
+
+
+
 	/**
 	 * Tests the encoding of {@link StringColorMessage} with the given list of values. The values
 	 * at even indices are expected to be {@code String}s, and the values at odd indices are
@@ -214,6 +536,28 @@ public class EncodingTests{
 
 
 
+	/**
+	 * Tests the encoding of {@link StringChainMessage}s of each of the given depths.
+	 */
+	private static void testStringChainMessageEncoding(int... depths) throws IOException{
+		Codec<StringChainMessage> codec = StringChainMessageCodec.INSTANCE;
+		for (int depth : depths){
+			StringChainMessage chain = null;
+			TwoFieldMessages.StringChainMessage protoChain = null;
+			for (int i = 0; i < depth; ++i){
+				String text = "Level " + i;
+				chain = new StringChainMessage(text, chain);
+				TwoFieldMessages.StringChainMessage.Builder builder = TwoFieldMessages.StringChainMessage.newBuilder().setText(text);
+				if (protoChain != null)
+					builder.setNext(protoChain);
+				protoChain = builder.build();
+			}
+			testEncodingEquals(chain, codec, protoChain);
+		}
+	}
+
+
+
 	/**
 	 * Tests the encoding of {@link AllTypesMessage} with the given values.
 	 */
@@ -256,18 +600,289 @@ public class EncodingTests{
 		// Can't test empty string, because the standard implementation encodes it as null, but
 		// we encode null and empty string differently
 		testIntMessageEncoding(5, 42, 0xffffffff, -1, Integer.MAX_VALUE, Integer.MIN_VALUE);
-		testStringMessageEncoding("Hello, World!", null, "\0");
+		testStringMessageEncoding("Hello, World!", null, "\0", "\u00e9t\u00e9", "\u4e16\u754c", "\ud83d\ude00");
 		testColorMessageEncoding(null, null);//, Color.BLUE, Color.RED);
 		testInt2MessageEncoding(-1, 1, 0, 0, 0xffffffff, -1, Integer.MAX_VALUE, Integer.MIN_VALUE);
 		testString2MessageEncoding(null, null, "0", "0", "a", "b", "Hello", "Goodbye", "World", null);
 		testStringIntMessageEncoding("Hello", 0, null, -1, "foobar", Integer.MAX_VALUE);
+		testLargeTagMessageEncoding("Hello", Long.MIN_VALUE);
+		testLargeTagMessageEncoding(null, 1);
 		testStringColorMessageEncoding("Peace", Color.RED, "Love", null, "Happiness", Color.BLUE);
 		testStringWithInnerMessageEncoding("Hello, World!", null, "\0");
+		testStringWithInnerMessageEncoding("\u00e9t\u00e9", "\u4e16\u754c\ud83d\ude00",
+				new String(new char[5000]).replace('\0', '\u00e9'), "Long strings aren't kept by the size pass");
+		testStringChainMessageEncoding(1, 2, 3, 16, 32);
+		testRepeatedIntMessageEncoding(Arrays.asList(1, -1, 300, Integer.MIN_VALUE, Integer.MAX_VALUE), manyInts(1000));
+		testPrimitiveArraysMessageEncoding(new int[]{1, -1, 300, Integer.MIN_VALUE, Integer.MAX_VALUE},
+				new long[]{0, -1, 1234567890240L, Long.MIN_VALUE, Long.MAX_VALUE}, new double[]{1.23, -0.0, Double.NaN},
+				new float[]{3.45f, Float.MIN_VALUE}, new boolean[]{true, false, true}, new int[]{-5, 7});
+		testPrimitiveArraysMessageEncoding(manyInts(1000).stream().mapToInt(Integer::intValue).toArray(),
+				null, null, null, null, null);
+		testPrimitiveArraysMessageEncoding(null, null, manyDoubles(1000), manyFloats(1000), null,
+				manyInts(1000).stream().mapToInt(Integer::intValue).toArray()); // Converted in bulk
 		testAllTypesMessageEncoding(1.23, 3.45f, -50, -1234567890240L,
 				50, 1234567890240L,50, -1234567890240L,
 				50, 1234567890240L, 50, 1234567890240L,
 				true, "Hello,", new byte[]{1, -2},
 				new StringMessage("World"), Color.RED);
+		testAllTypesMessageEncoding(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+				false, "Large", new byte[1000],
+				new StringMessage("bytes"), Color.BLUE);
+		testAliasedBytesMessageEncoding(new byte[]{1, -2, 3}, "Hello");
+		testAliasedBytesMessageEncoding(null, "World");
+		testAliasedBytesMessageEncoding(new byte[70000], null);
+		testLazyStringMessageEncoding("Hello", "World", 1);
+		testLazyStringMessageEncoding(null, "\u05e9\u05dc\u05d5\u05dd \ud83d\ude00", -1);
+		testLazyStringMessageEncoding("Hello", null, Integer.MAX_VALUE);
+		testEnvelopeMessageEncoding("auth", "Hello", 42, 1);
+		testEnvelopeMessageEncoding(null, "\u4e16\u754c", -1, Long.MAX_VALUE);
+		testEnvelopeMessageEncoding("billing", null, 0, 0);
+	}
+
+
+
+	/**
+	 * Tests that large {@code bytes} values are written into a {@link SegmentedOutput} with a
+	 * reference threshold by reference, rather than copied.
+	 */
+	@Test
+	public void testBytesWrittenByReference() throws IOException{
+		byte[] bytes = new byte[100];
+		AllTypesMessage message = new AllTypesMessage(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+				false, "Hello", bytes, new StringMessage("World"), Color.RED);
+
+		SegmentedOutput copying = new SegmentedOutput(CHUNKS);
+		SegmentedOutput referencing = new SegmentedOutput(CHUNKS, bytes.length);
+		AllTypesMessageCodec.INSTANCE.write(copying, message);
+		AllTypesMessageCodec.INSTANCE.write(referencing, message);
+		Assert.assertArrayEquals(toByteArray(copying.toByteBuffers()), toByteArray(referencing.toByteBuffers()));
+
+		// Modifying the value is seen in the referencing output only
+		byte[] copied = toByteArray(copying.toByteBuffers());
+		bytes[bytes.length - 1] = 42;
+		Assert.assertArrayEquals(copied, toByteArray(copying.toByteBuffers()));
+		Assert.assertFalse(Arrays.equals(copied, toByteArray(referencing.toByteBuffers())));
+
+		copying.release();
+		referencing.release();
+	}
+
+
+
+	/**
+	 * Tests that encoding via contexts with a {@link StringCache} produces the same bytes as without
+	 * one, both when the cached strings are hit and when they are evicted.
+	 */
+	@Test
+	public void testStringCache() throws IOException{
+		StringCache cache = new StringCache(2, 16);
+		CodecContexts contexts = new CodecContexts(1, CodecContexts.DEFAULT_MAX_RETAINED_BUFFER_SIZE, cache);
+		Codec<StringWithInnerMessage> codec = StringWithInnerMessageCodec.INSTANCE;
+		String[] texts = {"us-east-1", "eu-west-1", "\u00e9t\u00e9", "A string too long to be cached"};
+		for (int i = 0; i < 20; ++i){
+			StringWithInnerMessage message = new StringWithInnerMessage(texts[i % 2], new StringMessage(texts[(i / 4) % texts.length]));
+			byte[] expected = codec.toByteArray(message);
+			try (EncodeContext context = contexts.acquireEncodeContext()){
+				codec.write(context, message);
+				Assert.assertArrayEquals(expected, context.toByteArray());
+
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				codec.write(context, message, buf);
+				Assert.assertArrayEquals(expected, buf.toByteArray());
+			}
+		}
+
+		Assert.assertTrue(cache.hits() > 0);
+		Assert.assertTrue(cache.evictions() > 0);
+		Assert.assertTrue(cache.size() <= cache.capacity());
+	}
+
+
+
+	/**
+	 * Tests that parents sharing a child whose codec has a {@link SerializedFormCache} are encoded
+	 * correctly, with the child encoded only once.
+	 */
+	@Test
+	public void testSerializedFormCache() throws IOException{
+		SerializedFormCache<StringMessage> cache = new SerializedFormCache<>();
+		StringMessageCodec.INSTANCE.setSerializedFormCache(cache);
+		try{
+			StringMessage child = new StringMessage("Shared configuration");
+			OneFieldMessages.StringMessage protoChild = OneFieldMessages.StringMessage.newBuilder().setText(child.getText()).build();
+			for (String text : new String[]{"First", "Second", "Third"}){
+				TwoFieldMessages.StringWithInnerMessage protoParent = TwoFieldMessages.StringWithInnerMessage.newBuilder()
+						.setText(text)
+						.setStringMsg(protoChild)
+						.build();
+				testEncodingEquals(new StringWithInnerMessage(text, child), StringWithInnerMessageCodec.INSTANCE, protoParent);
+			}
+
+			Assert.assertEquals(1, cache.misses());
+			Assert.assertTrue(cache.hits() > 0);
+		} finally{
+			StringMessageCodec.INSTANCE.setSerializedFormCache(null);
+		}
+	}
+
+
+
+	/**
+	 * Tests that encoding repeated fields in parallel produces the same bytes as encoding them
+	 * sequentially.
+	 */
+	@Test
+	public void testParallelEncoding() throws IOException{
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for (int count : new int[]{0, 1, 1000, 100_000}){
+				List<IntMessage> intMessages = new ArrayList<>(count);
+				RepeatedFieldMessages.RepeatedTypesMessage.Builder builder = RepeatedFieldMessages.RepeatedTypesMessage.newBuilder();
+				for (int i = 0; i < count; ++i){
+					intMessages.add(new IntMessage(i * 7919));
+					builder.addIntMessages(OneFieldMessages.IntMessage.newBuilder().setValue(i * 7919));
+				}
+				Assert.assertArrayEquals(builder.build().toByteArray(), IntMessageCodec.INSTANCE.toByteArrayParallel(4, intMessages, pool));
+
+				// Values with sub-messages and strings, whose sizes are recorded by the size pass
+				List<StringChainMessage> chains = new ArrayList<>(count);
+				for (int i = 0; i < count; ++i)
+					chains.add(new StringChainMessage("Top " + i, new StringChainMessage("\u00e9l\u00e9ment " + i, null)));
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				CodedOutputStream out = CodedOutputStream.newInstance(buf);
+				WritePass pass = new WritePass();
+				for (StringChainMessage chain : chains)
+					StringChainMessageCodec.INSTANCE.writeField(out, 7, chain, pass);
+				out.flush();
+				Assert.assertArrayEquals(buf.toByteArray(), StringChainMessageCodec.INSTANCE.toByteArrayParallel(7, chains, pool));
+			}
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+
+
+	/**
+	 * Tests that encoding a batch of length-delimited values in parallel produces the same bytes as
+	 * writing them one after another.
+	 */
+	@Test
+	public void testParallelDelimitedEncoding() throws IOException{
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for (int count : new int[]{0, 1, 1000, 50_000}){
+				List<StringWithInnerMessage> values = new ArrayList<>(count);
+				ByteArrayOutputStream protoBuf = new ByteArrayOutputStream();
+				for (int i = 0; i < count; ++i){
+					String text = "Event " + i;
+					String innerText = "\u00e9v\u00e9nement " + (i * 7919);
+					values.add(new StringWithInnerMessage(text, new StringMessage(innerText)));
+					TwoFieldMessages.StringWithInnerMessage.newBuilder()
+							.setText(text)
+							.setStringMsg(OneFieldMessages.StringMessage.newBuilder().setText(innerText))
+							.build()
+							.writeDelimitedTo(protoBuf);
+				}
+				byte[] expected = protoBuf.toByteArray();
+
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				CodedOutputStream out = CodedOutputStream.newInstance(buf);
+				for (StringWithInnerMessage value : values)
+					StringWithInnerMessageCodec.INSTANCE.writeDelimited(out, value);
+				out.flush();
+				Assert.assertArrayEquals(expected, buf.toByteArray());
+
+				Assert.assertArrayEquals(expected, StringWithInnerMessageCodec.INSTANCE.toByteArrayDelimited(values, pool));
+
+				for (ByteBuffer byteBuffer : new ByteBuffer[]{ByteBuffer.allocate(expected.length + 2), ByteBuffer.allocateDirect(expected.length + 2)}){
+					byteBuffer.position(1);
+					StringWithInnerMessageCodec.INSTANCE.writeDelimitedTo(values, byteBuffer, pool);
+					Assert.assertEquals(expected.length + 1, byteBuffer.position());
+					byte[] written = new byte[expected.length];
+					byteBuffer.position(1);
+					byteBuffer.get(written);
+					Assert.assertArrayEquals(expected, written);
+				}
+			}
+		} finally{
+			pool.shutdown();
+		}
+	}
+
+
+
+	/**
+	 * Tests streaming a repeated field from an iterator, after the other fields of the value holding
+	 * it.
+	 */
+	@Test
+	public void testStreamingRepeatedFieldEncoding() throws IOException{
+		int count = 100_000;
+		List<Integer> intValues = Arrays.asList(1, -1, 300);
+		List<Double> doubleValues = Arrays.asList(0.5, -2.0);
+		List<Boolean> boolValues = Arrays.asList(true, false);
+
+		RepeatedFieldMessages.RepeatedTypesMessage.Builder builder = RepeatedFieldMessages.RepeatedTypesMessage.newBuilder()
+				.addAllIntValues(intValues)
+				.addAllDoubleValues(doubleValues)
+				.addAllBoolValues(boolValues);
+		for (int i = 0; i < count; ++i)
+			builder.addIntMessages(OneFieldMessages.IntMessage.newBuilder().setValue(i));
+
+		Iterator<IntMessage> intMessages = new Iterator<IntMessage>(){
+			private int next = 0;
+
+			@Override
+			public boolean hasNext(){
+				return next < count;
+			}
+
+			@Override
+			public IntMessage next(){
+				return new IntMessage(next++);
+			}
+		};
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		CodedOutputStream out = CodedOutputStream.newInstance(buf);
+		RepeatedTypesMessageCodec.INSTANCE.write(out, new RepeatedTypesMessage(intValues, doubleValues, null, null, boolValues));
+		IntMessageCodec.INSTANCE.writeRepeatedField(out, 4, intMessages);
+		out.flush();
+		Assert.assertEquals(builder.build(), RepeatedFieldMessages.RepeatedTypesMessage.parseFrom(buf.toByteArray()));
+	}
+
+
+
+	/**
+	 * Tests splitting a large list into values of bounded size.
+	 */
+	@Test
+	public void testListSplitting(){
+		List<Integer> values = manyInts(10_000);
+		int maxSize = 1000;
+		List<RepeatedIntMessage> messages = ListSplitter.split(RepeatedIntMessageCodec.INSTANCE, values,
+				CodedOutputStream::computeInt32SizeNoTag, RepeatedIntMessage::new, maxSize - 4); // See ListSplitter.split
+
+		List<Integer> joined = new ArrayList<>();
+		for (int i = 0; i < messages.size(); ++i){
+			RepeatedIntMessage message = messages.get(i);
+			int size = RepeatedIntMessageCodec.INSTANCE.computeSerializedSize(message);
+			Assert.assertTrue(size <= maxSize);
+			if (i < messages.size() - 1){ // Greedy; the first value of the next message wouldn't have fit
+				int next = messages.get(i + 1).getValues().get(0);
+				Assert.assertTrue(size + CodedOutputStream.computeInt32SizeNoTag(next) > maxSize - 4);
+			}
+			joined.addAll(message.getValues());
+		}
+		Assert.assertEquals(values, joined);
+
+		try{
+			ListSplitter.split(RepeatedIntMessageCodec.INSTANCE, values, CodedOutputStream::computeInt32SizeNoTag, RepeatedIntMessage::new, 2);
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e){
+			// Expected
+		}
 	}
 
 
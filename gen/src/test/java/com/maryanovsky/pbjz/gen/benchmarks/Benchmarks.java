@@ -0,0 +1,89 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+
+
+/**
+ * A minimal harness for the micro-benchmarks in this package. Each benchmark is a class with a
+ * {@code main} method, to be run manually; they are not part of the test suite.
+ *
+ * @author Alexander Maryanovsky
+ */
+final class Benchmarks{
+
+
+
+	/**
+	 * The number of rounds run, and discarded, before measuring, to let the JIT compiler settle.
+	 */
+	private static final int WARMUP_ROUNDS = 10;
+
+
+
+	/**
+	 * The number of measured rounds; the fastest one is reported.
+	 */
+	private static final int MEASURED_ROUNDS = 10;
+
+
+
+	/**
+	 * A benchmarked operation.
+	 */
+	interface Operation{
+
+		/**
+		 * Runs the operation once.
+		 */
+		void run() throws Exception;
+
+	}
+
+
+
+	/**
+	 * Prevents the JIT compiler from eliminating computations whose results are otherwise unused.
+	 */
+	static volatile Object blackhole;
+
+
+
+	/**
+	 * Runs the given operation repeatedly and returns the time, in nanoseconds, a single run took in
+	 * the fastest round.
+	 */
+	static double nanosPerOperation(int operationsPerRound, @NotNull Operation operation) throws Exception{
+		for (int i = 0; i < WARMUP_ROUNDS; ++i)
+			runRound(operationsPerRound, operation);
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < MEASURED_ROUNDS; ++i)
+			best = Math.min(best, runRound(operationsPerRound, operation));
+
+		return (double)best / operationsPerRound;
+	}
+
+
+
+	/**
+	 * Runs the given operation the given number of times and returns the total time it took, in
+	 * nanoseconds.
+	 */
+	private static long runRound(int operations, @NotNull Operation operation) throws Exception{
+		long start = System.nanoTime();
+		for (int i = 0; i < operations; ++i)
+			operation.run();
+		return System.nanoTime() - start;
+	}
+
+
+
+	/**
+	 * Private constructor; the class only has static methods.
+	 */
+	private Benchmarks(){}
+
+
+
+}
@@ -0,0 +1,115 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.CodecContexts;
+import com.maryanovsky.pbjz.runtime.DecodeContext;
+import com.maryanovsky.pbjz.runtime.EncodeContext;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
+
+
+
+/**
+ * Compares the time and the number of bytes allocated per value when encoding and decoding with
+ * freshly created streams and when doing so via pooled {@link EncodeContext}s and
+ * {@link DecodeContext}s.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class ContextAllocationBenchmark{
+
+
+
+	/**
+	 * The number of operations per measured round.
+	 */
+	private static final int OPERATIONS = 100_000;
+
+
+
+	/**
+	 * An {@link OutputStream} that discards everything written into it.
+	 */
+	private static final OutputStream NULL_OUTPUT = new OutputStream(){
+		@Override
+		public void write(int b){}
+
+		@Override
+		public void write(@NotNull byte[] b, int off, int len){}
+	};
+
+
+
+	/**
+	 * Returns the number of bytes allocated so far by the current thread.
+	 */
+	private static long allocatedBytes(){
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+
+
+	/**
+	 * Measures and prints the time and the number of bytes allocated per run of the given
+	 * operation.
+	 */
+	private static void measure(@NotNull String name, @NotNull Benchmarks.Operation operation) throws Exception{
+		double nanos = Benchmarks.nanosPerOperation(OPERATIONS, operation);
+
+		long allocatedBefore = allocatedBytes();
+		for (int i = 0; i < OPERATIONS; ++i)
+			operation.run();
+		double allocated = (double)(allocatedBytes() - allocatedBefore) / OPERATIONS;
+
+		System.out.printf("%s\t%.1f\t%.1f%n", name, nanos, allocated);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		Codec<StringChainMessage> codec = StringChainMessageCodec.INSTANCE;
+		StringChainMessage chain = null;
+		for (int i = 0; i < 8; ++i)
+			chain = new StringChainMessage("Level " + i, chain);
+		StringChainMessage value = chain;
+		byte[] encoded = codec.toByteArray(value);
+
+		System.out.println("operation\tns\tbytes allocated");
+
+		measure("encode, new stream", () -> {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+			codec.write(output, value);
+			output.flush();
+			buffer.writeTo(NULL_OUTPUT);
+		});
+		measure("encode, context", () -> {
+			try (EncodeContext context = CodecContexts.DEFAULT.acquireEncodeContext()){
+				codec.write(context, value);
+				context.writeTo(NULL_OUTPUT);
+			}
+		});
+		measure("decode, new stream", () -> Benchmarks.blackhole = codec.read(CodedInputStream.newInstance(encoded)));
+		measure("decode, parseFrom(byte[])", () -> Benchmarks.blackhole = codec.parseFrom(encoded));
+		measure("decode, context", () -> {
+			try (DecodeContext context = CodecContexts.DEFAULT.acquireDecodeContext()){
+				Benchmarks.blackhole = codec.parseFrom(context, encoded, 0, encoded.length);
+			}
+		});
+	}
+
+
+
+}
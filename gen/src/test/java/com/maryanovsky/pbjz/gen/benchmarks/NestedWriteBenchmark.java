@@ -0,0 +1,54 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.runtime.Codec;
+
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
+
+
+
+/**
+ * Measures the cost of writing {@link StringChainMessage} chains of depth 1 to 32. Because the size
+ * of each sub-message is computed only once per write, the time per level should stay roughly
+ * constant as the depth grows.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class NestedWriteBenchmark{
+
+
+
+	/**
+	 * The depths of the chains we measure.
+	 */
+	private static final int[] DEPTHS = {1, 2, 4, 8, 16, 32};
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		Codec<StringChainMessage> codec = StringChainMessageCodec.INSTANCE;
+		byte[] buffer = new byte[64 * 1024];
+
+		System.out.println("depth\tns/write\tns/level");
+		for (int depth : DEPTHS){
+			StringChainMessage chain = null;
+			for (int i = 0; i < depth; ++i)
+				chain = new StringChainMessage("Level " + i, chain);
+
+			StringChainMessage value = chain;
+			double nanos = Benchmarks.nanosPerOperation(100_000, () -> {
+				CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+				codec.write(output, value);
+				Benchmarks.blackhole = output;
+			});
+			System.out.printf("%d\t%.1f\t%.1f%n", depth, nanos, nanos / depth);
+		}
+	}
+
+
+
+}
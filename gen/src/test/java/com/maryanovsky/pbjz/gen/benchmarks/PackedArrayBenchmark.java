@@ -0,0 +1,94 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.maryanovsky.pbjz.runtime.Codec;
+
+import test.PrimitiveArraysMessage;
+import test.PrimitiveArraysMessageCodec;
+
+
+
+/**
+ * Compares reading and writing a {@link PrimitiveArraysMessage} holding a vector of floats with the
+ * codec, which converts large packed fixed-width fields in bulk, via little-endian buffer views,
+ * to reading and writing the same floats element by element.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class PackedArrayBenchmark{
+
+
+
+	/**
+	 * The numbers of floats we measure.
+	 */
+	private static final int[] COUNTS = {16, 64, 1000, 100_000};
+
+
+
+	/**
+	 * Writes the floats element by element.
+	 */
+	private static void writeByElement(CodedOutputStream output, float[] values) throws Exception{
+		output.writeTag(4, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		output.writeUInt32NoTag(values.length * 4);
+		for (float value : values)
+			output.writeFloatNoTag(value);
+	}
+
+
+
+	/**
+	 * Reads the floats element by element.
+	 */
+	private static float[] readByElement(CodedInputStream input) throws Exception{
+		input.readTag();
+		int length = input.readRawVarint32();
+		float[] values = new float[length / 4];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = input.readFloat();
+		return values;
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		Codec<PrimitiveArraysMessage> codec = PrimitiveArraysMessageCodec.INSTANCE;
+
+		System.out.println("count\tns/float (write by element)\tns/float (write)\tns/float (read by element)\tns/float (read)");
+		for (int count : COUNTS){
+			float[] values = new float[count];
+			for (int i = 0; i < count; ++i)
+				values[i] = i * 0.25f;
+			PrimitiveArraysMessage message = new PrimitiveArraysMessage(null, null, null, values, null, null);
+			byte[] encoded = codec.toByteArray(message);
+			byte[] buffer = new byte[encoded.length];
+			int opsPerRound = Math.max(1, 1_000_000 / count);
+
+			double writeByElementNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> {
+				CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+				writeByElement(output, values);
+				Benchmarks.blackhole = output;
+			});
+			double writeNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> {
+				CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+				codec.write(output, message);
+				Benchmarks.blackhole = output;
+			});
+			double readByElementNanos = Benchmarks.nanosPerOperation(opsPerRound,
+					() -> Benchmarks.blackhole = readByElement(CodedInputStream.newInstance(encoded)));
+			double readNanos = Benchmarks.nanosPerOperation(opsPerRound,
+					() -> Benchmarks.blackhole = codec.parseFrom(encoded));
+			System.out.printf("%d\t%.2f\t%.2f\t%.2f\t%.2f%n", count,
+					writeByElementNanos / count, writeNanos / count, readByElementNanos / count, readNanos / count);
+		}
+	}
+
+
+
+}
@@ -0,0 +1,79 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.maryanovsky.pbjz.runtime.Codec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import test.RepeatedIntMessage;
+import test.RepeatedIntMessageCodec;
+
+
+
+/**
+ * Compares writing a {@link RepeatedIntMessage} with the codec, which encodes the packed values in
+ * a single pass, to writing the same values the way the codecs used to: computing the size of the
+ * values in one pass over them, and then writing them in another.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class PackedWriteBenchmark{
+
+
+
+	/**
+	 * The numbers of values we measure.
+	 */
+	private static final int[] COUNTS = {10, 100, 1000, 10_000, 100_000};
+
+
+
+	/**
+	 * Writes the values in two passes - one to compute their size and another to write them.
+	 */
+	private static void writeTwoPass(CodedOutputStream output, List<Integer> values) throws Exception{
+		output.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+		int size = 0;
+		for (Integer item : values)
+			size += CodedOutputStream.computeInt32SizeNoTag(item);
+		output.writeUInt32NoTag(size);
+		for (Integer item : values)
+			output.writeInt32NoTag(item);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		Codec<RepeatedIntMessage> codec = RepeatedIntMessageCodec.INSTANCE;
+
+		System.out.println("count\tns/write (two-pass)\tns/write (single-pass)");
+		for (int count : COUNTS){
+			List<Integer> values = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i)
+				values.add(i * 7919);
+			RepeatedIntMessage message = new RepeatedIntMessage(values);
+			byte[] buffer = new byte[codec.computeSerializedSize(message)];
+			int opsPerRound = Math.max(1, 1_000_000 / count);
+
+			double twoPassNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> {
+				CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+				writeTwoPass(output, values);
+				Benchmarks.blackhole = output;
+			});
+			double singlePassNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> {
+				CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+				codec.write(output, message);
+				Benchmarks.blackhole = output;
+			});
+			System.out.printf("%d\t%.1f\t%.1f%n", count, twoPassNanos, singlePassNanos);
+		}
+	}
+
+
+
+}
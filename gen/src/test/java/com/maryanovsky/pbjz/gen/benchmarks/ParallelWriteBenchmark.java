@@ -0,0 +1,64 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.maryanovsky.pbjz.runtime.Codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import test.StringMessage;
+import test.StringWithInnerMessage;
+import test.StringWithInnerMessageCodec;
+
+
+
+/**
+ * Measures how encoding a huge repeated field via {@link Codec#toByteArrayParallel} scales with the
+ * number of threads, from 1 to the number of available processors.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class ParallelWriteBenchmark{
+
+
+
+	/**
+	 * The number of values in the repeated field.
+	 */
+	private static final int COUNT = 1_000_000;
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		Codec<StringWithInnerMessage> codec = StringWithInnerMessageCodec.INSTANCE;
+		List<StringWithInnerMessage> values = new ArrayList<>(COUNT);
+		for (int i = 0; i < COUNT; ++i)
+			values.add(new StringWithInnerMessage("Entry " + i, new StringMessage("Value " + i * 7919)));
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		List<Integer> threadCounts = new ArrayList<>();
+		for (int threads = 1; threads < processors; threads *= 2)
+			threadCounts.add(threads);
+		threadCounts.add(processors);
+
+		System.out.println("threads\tms/write\tspeedup");
+		double singleThreadNanos = 0;
+		for (int threads : threadCounts){
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try{
+				double nanos = Benchmarks.nanosPerOperation(1, () -> Benchmarks.blackhole = codec.toByteArrayParallel(1, values, pool));
+				if (threads == 1)
+					singleThreadNanos = nanos;
+				System.out.printf("%d\t%.1f\t%.2f%n", threads, nanos / 1_000_000, singleThreadNanos / nanos);
+			} finally{
+				pool.shutdown();
+			}
+		}
+	}
+
+
+
+}
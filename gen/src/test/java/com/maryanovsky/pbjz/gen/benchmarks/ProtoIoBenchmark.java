@@ -0,0 +1,89 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.ProtoReader;
+import com.maryanovsky.pbjz.runtime.ProtoWriter;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+import test.AllTypesMessage;
+import test.AllTypesMessageCodec;
+import test.Color;
+import test.PrimitiveArraysMessage;
+import test.PrimitiveArraysMessageCodec;
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
+import test.StringMessage;
+
+
+
+/**
+ * Compares reading and writing via protobuf's {@link CodedInputStream} and
+ * {@link CodedOutputStream} with reading and writing via the runtime's own final
+ * {@link ProtoReader} and {@link ProtoWriter}, with codecs generated with the {@code proto_io}
+ * option.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class ProtoIoBenchmark{
+
+
+
+	/**
+	 * Measures and prints the time to write and read the given value in each of the two ways.
+	 */
+	private static <T> void compare(@NotNull String name, @NotNull Codec<T> codec, @NotNull T value) throws Exception{
+		byte[] encoded = codec.toByteArray(value);
+		byte[] buffer = new byte[encoded.length];
+
+		double codedWriteNanos = Benchmarks.nanosPerOperation(100_000, () -> {
+			CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+			codec.write(output, value);
+			Benchmarks.blackhole = output;
+		});
+		double protoWriteNanos = Benchmarks.nanosPerOperation(100_000, () -> {
+			ProtoWriter output = ProtoWriter.newInstance(buffer);
+			codec.write(output, value);
+			Benchmarks.blackhole = output;
+		});
+		double codedReadNanos = Benchmarks.nanosPerOperation(100_000,
+				() -> Benchmarks.blackhole = codec.read(CodedInputStream.newInstance(encoded)));
+		double protoReadNanos = Benchmarks.nanosPerOperation(100_000,
+				() -> Benchmarks.blackhole = codec.read(ProtoReader.newInstance(encoded)));
+
+		System.out.printf("%s\t%.1f\t%.1f\t%.1f\t%.1f%n", name, codedWriteNanos, protoWriteNanos, codedReadNanos, protoReadNanos);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		StringChainMessage chain = null;
+		for (int i = 0; i < 32; ++i)
+			chain = new StringChainMessage("Level " + i, chain);
+
+		AllTypesMessage allTypes = new AllTypesMessage(1.23, 3.45f, -50, -1234567890240L,
+				50, 1234567890240L, 50, -1234567890240L,
+				50, 1234567890240L, 50, 1234567890240L,
+				true, "Hello,", new byte[]{1, -2},
+				new StringMessage("World"), Color.RED);
+
+		int[] ints = new int[256];
+		Arrays.setAll(ints, i -> i * 1000);
+		PrimitiveArraysMessage arrays = new PrimitiveArraysMessage(ints, null, null, null, null, null);
+
+		System.out.println("message\tCodedOutputStream ns\tProtoWriter ns\tCodedInputStream ns\tProtoReader ns");
+		compare("AllTypesMessage", AllTypesMessageCodec.INSTANCE, allTypes);
+		compare("StringChainMessage(32)", StringChainMessageCodec.INSTANCE, chain);
+		compare("PrimitiveArraysMessage(256 ints)", PrimitiveArraysMessageCodec.INSTANCE, arrays);
+	}
+
+
+
+}
@@ -0,0 +1,71 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedOutputStream;
+import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.ReverseOutput;
+
+import org.jetbrains.annotations.NotNull;
+
+import test.AllTypesMessage;
+import test.AllTypesMessageCodec;
+import test.Color;
+import test.StringChainMessage;
+import test.StringChainMessageCodec;
+import test.StringMessage;
+
+
+
+/**
+ * Compares writing via {@link CodedOutputStream} (a size pass followed by a write pass) with
+ * writing back-to-front via {@link ReverseOutput} (a single pass).
+ *
+ * @author Alexander Maryanovsky
+ */
+public class ReverseWriteBenchmark{
+
+
+
+	/**
+	 * Measures and prints the time to write the given value in each of the two ways.
+	 */
+	private static <T> void compare(@NotNull String name, @NotNull Codec<T> codec, @NotNull T value) throws Exception{
+		byte[] buffer = new byte[64 * 1024];
+		double forwardNanos = Benchmarks.nanosPerOperation(100_000, () -> {
+			CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+			codec.write(output, value);
+			Benchmarks.blackhole = output;
+		});
+
+		ReverseOutput reverseOutput = new ReverseOutput(buffer.length);
+		double reverseNanos = Benchmarks.nanosPerOperation(100_000, () -> {
+			reverseOutput.reset();
+			codec.write(reverseOutput, value);
+		});
+
+		System.out.printf("%s\t%.1f\t%.1f%n", name, forwardNanos, reverseNanos);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		StringChainMessage chain = null;
+		for (int i = 0; i < 32; ++i)
+			chain = new StringChainMessage("Level " + i, chain);
+
+		AllTypesMessage allTypes = new AllTypesMessage(1.23, 3.45f, -50, -1234567890240L,
+				50, 1234567890240L, 50, -1234567890240L,
+				50, 1234567890240L, 50, 1234567890240L,
+				true, "Hello,", new byte[]{1, -2},
+				new StringMessage("World"), Color.RED);
+
+		System.out.println("message\tforward ns\treverse ns");
+		compare("AllTypesMessage", AllTypesMessageCodec.INSTANCE, allTypes);
+		compare("StringChainMessage(32)", StringChainMessageCodec.INSTANCE, chain);
+	}
+
+
+
+}
@@ -0,0 +1,80 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.maryanovsky.pbjz.runtime.Codec;
+import com.maryanovsky.pbjz.runtime.CodecContexts;
+import com.maryanovsky.pbjz.runtime.EncodeContext;
+
+import test.AllTypesMessage;
+import test.AllTypesMessageCodec;
+import test.Color;
+import test.StringMessage;
+
+
+
+/**
+ * Measures the cost of encoding {@link AllTypesMessage}s whose {@code string_field} (and the
+ * {@code text} of their {@code string_msg_field}) are ASCII and non-ASCII strings of various
+ * lengths, both into new byte arrays and via a pooled {@link EncodeContext}. Each string is encoded
+ * only once per write, in the size pass, and the write pass copies the encoded bytes, so the cost
+ * per char should be close to that of a single UTF-8 encoding.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class StringWriteBenchmark{
+
+
+
+	/**
+	 * The lengths of the strings we measure.
+	 */
+	private static final int[] LENGTHS = {8, 32, 128, 1024};
+
+
+
+	/**
+	 * Returns a string of the given length, made of the given char.
+	 */
+	private static String text(int length, char c){
+		return new String(new char[length]).replace('\0', c);
+	}
+
+
+
+	/**
+	 * Measures encoding messages with strings of the given length, made of the given char.
+	 */
+	private static void measure(String label, int length, char c) throws Exception{
+		String text = text(length, c);
+		Codec<AllTypesMessage> codec = AllTypesMessageCodec.INSTANCE;
+		AllTypesMessage message = new AllTypesMessage(1.5, 2.5f, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12,
+				true, text, new byte[]{1, 2, 3}, new StringMessage(text), Color.RED);
+
+		int opsPerRound = Math.max(1000, 100_000 / length);
+		double arrayNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> Benchmarks.blackhole = codec.toByteArray(message));
+		double contextNanos = Benchmarks.nanosPerOperation(opsPerRound, () -> {
+			try (EncodeContext context = CodecContexts.DEFAULT.acquireEncodeContext()){
+				codec.write(context, message);
+				Benchmarks.blackhole = context;
+			}
+		});
+		int chars = 2 * length;
+		System.out.printf("%s\t%d\t%.1f\t%.2f\t%.1f\t%.2f%n",
+				label, length, arrayNanos, arrayNanos / chars, contextNanos, contextNanos / chars);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		System.out.println("chars\tlength\tns/write (array)\tns/char (array)\tns/write (context)\tns/char (context)");
+		for (int length : LENGTHS)
+			measure("ascii", length, 'a');
+		for (int length : LENGTHS)
+			measure("non-ascii", length, '\u00e9');
+	}
+
+
+
+}
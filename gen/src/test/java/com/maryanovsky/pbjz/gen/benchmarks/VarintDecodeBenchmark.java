@@ -0,0 +1,93 @@
+package com.maryanovsky.pbjz.gen.benchmarks;
+
+import com.google.protobuf.CodedInputStream;
+import com.maryanovsky.pbjz.runtime.Codec;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import test.PrimitiveArraysMessage;
+import test.PrimitiveArraysMessageCodec;
+
+
+
+/**
+ * Compares reading a {@link PrimitiveArraysMessage} holding a large packed {@code int32} field with
+ * the codec, which decodes the varints a word at a time on Java 9 and later, to reading the same
+ * values a varint at a time, via {@link CodedInputStream#readInt32()}, for several distributions of
+ * values.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class VarintDecodeBenchmark{
+
+
+
+	/**
+	 * The number of values in the field.
+	 */
+	private static final int COUNT = 100_000;
+
+
+
+	/**
+	 * Reads the values a varint at a time.
+	 */
+	private static int[] readByVarint(CodedInputStream input) throws Exception{
+		input.readTag();
+		int length = input.readRawVarint32();
+		int limit = input.pushLimit(length);
+		int[] values = new int[16];
+		int count = 0;
+		while (input.getBytesUntilLimit() > 0){
+			if (count == values.length)
+				values = Arrays.copyOf(values, count * 2);
+			values[count++] = input.readInt32();
+		}
+		input.popLimit(limit);
+		return Arrays.copyOf(values, count);
+	}
+
+
+
+	/**
+	 * Measures reading values produced by the given supplier.
+	 */
+	private static void measure(String label, IntSupplier values) throws Exception{
+		Codec<PrimitiveArraysMessage> codec = PrimitiveArraysMessageCodec.INSTANCE;
+		int[] intValues = new int[COUNT];
+		for (int i = 0; i < COUNT; ++i)
+			intValues[i] = values.getAsInt();
+		byte[] encoded = codec.toByteArray(new PrimitiveArraysMessage(intValues, null, null, null, null, null));
+
+		double byVarintNanos = Benchmarks.nanosPerOperation(10, () -> Benchmarks.blackhole = readByVarint(CodedInputStream.newInstance(encoded)));
+		double codecNanos = Benchmarks.nanosPerOperation(10, () -> Benchmarks.blackhole = codec.parseFrom(encoded));
+		System.out.printf("%s\t%.2f\t%.2f\t%.2f%n", label, (double)encoded.length / COUNT, byVarintNanos / COUNT, codecNanos / COUNT);
+	}
+
+
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) throws Exception{
+		System.out.println("Java " + System.getProperty("java.specification.version"));
+		System.out.println("values\tbytes/value\tns/value (by varint)\tns/value (codec)");
+		Random random = new Random(1);
+		measure("small (< 128)", () -> random.nextInt(128));
+		measure("ids (< 2^21)", () -> random.nextInt(1 << 21));
+		measure("sequential ids (2^20 + i)", new IntSupplier(){
+			private int next = 1 << 20;
+			@Override
+			public int getAsInt(){
+				return next++;
+			}
+		});
+		measure("mixed (1-4 bytes)", () -> random.nextInt(1 << (7 * (1 + random.nextInt(4)))));
+		measure("any int (incl. negative)", random::nextInt);
+	}
+
+
+
+}
@@ -0,0 +1,56 @@
+package test;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+
+
+public class AliasedBytesMessage{
+
+	private final ByteBuffer payload;
+	private final String name;
+
+	public AliasedBytesMessage(ByteBuffer payload, String name){
+		this.payload = payload;
+		this.name = name;
+	}
+
+	public ByteBuffer getPayload(){
+		return payload;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		AliasedBytesMessage that = (AliasedBytesMessage) o;
+		return Objects.equals(payload, that.payload) &&
+				Objects.equals(name, that.name);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(payload, name);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "AliasedBytesMessage{" +
+				"payload=" + payload +
+				", name='" + name + '\'' +
+				'}';
+	}
+
+
+
+}
@@ -0,0 +1,65 @@
+package test;
+
+import com.maryanovsky.pbjz.runtime.LazyMessage;
+
+import java.util.Objects;
+
+
+
+public class EnvelopeMessage{
+
+	private final String destination;
+	private final LazyMessage<PayloadMessage> payload;
+	private final long id;
+
+	public EnvelopeMessage(String destination, LazyMessage<PayloadMessage> payload, long id){
+		this.destination = destination;
+		this.payload = payload;
+		this.id = id;
+	}
+
+	public String getDestination(){
+		return destination;
+	}
+
+	public LazyMessage<PayloadMessage> getPayload(){
+		return payload;
+	}
+
+	public long getId(){
+		return id;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		EnvelopeMessage that = (EnvelopeMessage) o;
+		return id == that.id &&
+				Objects.equals(destination, that.destination) &&
+				Objects.equals(payload, that.payload);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(destination, payload, id);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "EnvelopeMessage{" +
+				"destination='" + destination + '\'' +
+				", payload=" + payload +
+				", id=" + id +
+				'}';
+	}
+
+
+
+}
@@ -0,0 +1,63 @@
+package test;
+
+import java.util.Objects;
+
+
+
+public class InternedStringMessage{
+
+	private final String service;
+	private final String host;
+	private final long timestamp;
+
+	public InternedStringMessage(String service, String host, long timestamp){
+		this.service = service;
+		this.host = host;
+		this.timestamp = timestamp;
+	}
+
+	public String getService(){
+		return service;
+	}
+
+	public String getHost(){
+		return host;
+	}
+
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		InternedStringMessage that = (InternedStringMessage) o;
+		return timestamp == that.timestamp &&
+				Objects.equals(service, that.service) &&
+				Objects.equals(host, that.host);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(service, host, timestamp);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "InternedStringMessage{" +
+				"service='" + service + '\'' +
+				", host='" + host + '\'' +
+				", timestamp=" + timestamp +
+				'}';
+	}
+
+
+
+}
@@ -0,0 +1,55 @@
+package test;
+
+import java.util.Objects;
+
+
+
+public class LargeTagMessage{
+
+	private final String text;
+	private final long value;
+
+	public LargeTagMessage(long value, String text){
+		this.text = text;
+		this.value = value;
+	}
+
+	public String getText(){
+		return text;
+	}
+
+	public long getValue(){
+		return value;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		LargeTagMessage that = (LargeTagMessage) o;
+		return value == that.value &&
+				Objects.equals(text, that.text);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(text, value);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "LargeTagMessage{" +
+				"text='" + text + '\'' +
+				", value=" + value +
+				'}';
+	}
+
+
+
+}
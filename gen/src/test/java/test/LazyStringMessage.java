@@ -0,0 +1,65 @@
+package test;
+
+import com.maryanovsky.pbjz.runtime.LazyString;
+
+import java.util.Objects;
+
+
+
+public class LazyStringMessage{
+
+	private final LazyString name;
+	private final LazyString description;
+	private final int id;
+
+	public LazyStringMessage(LazyString name, LazyString description, int id){
+		this.name = name;
+		this.description = description;
+		this.id = id;
+	}
+
+	public LazyString getName(){
+		return name;
+	}
+
+	public LazyString getDescription(){
+		return description;
+	}
+
+	public int getId(){
+		return id;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		LazyStringMessage that = (LazyStringMessage) o;
+		return id == that.id &&
+				Objects.equals(name, that.name) &&
+				Objects.equals(description, that.description);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(name, description, id);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "LazyStringMessage{" +
+				"name='" + name + '\'' +
+				", description='" + description + '\'' +
+				", id=" + id +
+				'}';
+	}
+
+
+
+}
@@ -0,0 +1,55 @@
+package test;
+
+import java.util.Objects;
+
+
+
+public class PayloadMessage{
+
+	private final String text;
+	private final int number;
+
+	public PayloadMessage(String text, int number){
+		this.text = text;
+		this.number = number;
+	}
+
+	public String getText(){
+		return text;
+	}
+
+	public int getNumber(){
+		return number;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		PayloadMessage that = (PayloadMessage) o;
+		return number == that.number &&
+				Objects.equals(text, that.text);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(text, number);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "PayloadMessage{" +
+				"text='" + text + '\'' +
+				", number=" + number +
+				'}';
+	}
+
+
+
+}
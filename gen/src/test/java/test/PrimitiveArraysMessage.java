@@ -0,0 +1,105 @@
+package test;
+
+import java.util.Arrays;
+
+
+
+/**
+ * @author Alexander Maryanovsky
+ */
+public class PrimitiveArraysMessage{
+
+
+//	repeated int32 int_values = 1;
+//	repeated sint64 long_values = 2;
+//	repeated double double_values = 3;
+//	repeated float float_values = 4;
+//	repeated bool bool_values = 5;
+//	repeated sfixed32 fixed_values = 6;
+
+
+	private final int[] intValues;
+	private final long[] longValues;
+	private final double[] doubleValues;
+	private final float[] floatValues;
+	private final boolean[] boolValues;
+	private final int[] fixedValues;
+
+
+
+	public PrimitiveArraysMessage(int[] intValues, long[] longValues, double[] doubleValues, float[] floatValues, boolean[] boolValues, int[] fixedValues){
+		this.intValues = intValues;
+		this.longValues = longValues;
+		this.doubleValues = doubleValues;
+		this.floatValues = floatValues;
+		this.boolValues = boolValues;
+		this.fixedValues = fixedValues;
+	}
+
+
+
+	public int[] getIntValues(){
+		return intValues;
+	}
+
+
+
+	public long[] getLongValues(){
+		return longValues;
+	}
+
+
+
+	public double[] getDoubleValues(){
+		return doubleValues;
+	}
+
+
+
+	public float[] getFloatValues(){
+		return floatValues;
+	}
+
+
+
+	public boolean[] getBoolValues(){
+		return boolValues;
+	}
+
+
+
+	public int[] getFixedValues(){
+		return fixedValues;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		PrimitiveArraysMessage that = (PrimitiveArraysMessage) o;
+		return Arrays.equals(intValues, that.intValues) &&
+				Arrays.equals(longValues, that.longValues) &&
+				Arrays.equals(doubleValues, that.doubleValues) &&
+				Arrays.equals(floatValues, that.floatValues) &&
+				Arrays.equals(boolValues, that.boolValues) &&
+				Arrays.equals(fixedValues, that.fixedValues);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		int result = Arrays.hashCode(intValues);
+		result = 31 * result + Arrays.hashCode(longValues);
+		result = 31 * result + Arrays.hashCode(doubleValues);
+		result = 31 * result + Arrays.hashCode(floatValues);
+		result = 31 * result + Arrays.hashCode(boolValues);
+		result = 31 * result + Arrays.hashCode(fixedValues);
+		return result;
+	}
+
+
+
+}
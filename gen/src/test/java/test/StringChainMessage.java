@@ -0,0 +1,56 @@
+package test;
+
+import java.util.Objects;
+
+
+
+public class StringChainMessage{
+
+	private final String text;
+
+	private final StringChainMessage next;
+
+	public StringChainMessage(String text, StringChainMessage next){
+		this.text = text;
+		this.next = next;
+	}
+
+	public String getText(){
+		return text;
+	}
+
+	public StringChainMessage getNext(){
+		return next;
+	}
+
+
+
+	@Override
+	public boolean equals(Object o){
+		if(this == o) return true;
+		if(o == null || getClass() != o.getClass()) return false;
+		StringChainMessage that = (StringChainMessage) o;
+		return Objects.equals(text, that.text) &&
+				Objects.equals(next, that.next);
+	}
+
+
+
+	@Override
+	public int hashCode(){
+		return Objects.hash(text, next);
+	}
+
+
+
+	@Override
+	public String toString(){
+		return "StringChainMessage{" +
+				"text='" + text + '\'' +
+				", next=" + next +
+				'}';
+	}
+
+
+
+}
@@ -0,0 +1,97 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+
+
+/**
+ * A bounded pool of fixed-size byte arrays ("chunks"), used by {@link SegmentedOutput}. Like
+ * {@link CodecContexts}, it is lock-free and safe to use from any number of platform or virtual
+ * threads.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class ChunkPool{
+
+
+
+	/**
+	 * The default size of a chunk, in bytes.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+
+
+	/**
+	 * The default maximum number of chunks retained by a pool.
+	 */
+	public static final int DEFAULT_MAX_POOLED_CHUNKS = 256;
+
+
+
+	/**
+	 * A shared pool with the default chunk size and limit.
+	 */
+	@NotNull
+	public static final ChunkPool DEFAULT = new ChunkPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_CHUNKS);
+
+
+
+	/**
+	 * The size of the chunks.
+	 */
+	private final int chunkSize;
+
+
+
+	/**
+	 * The pooled chunks.
+	 */
+	@NotNull
+	private final ObjectPool<byte[]> chunks;
+
+
+
+	/**
+	 * Creates a new pool of chunks of the given size, retaining at most the given number of chunks.
+	 */
+	public ChunkPool(int chunkSize, int maxPooledChunks){
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+
+		this.chunkSize = chunkSize;
+		this.chunks = new ObjectPool<>(maxPooledChunks);
+	}
+
+
+
+	/**
+	 * Returns the size of the chunks of this pool.
+	 */
+	public int chunkSize(){
+		return chunkSize;
+	}
+
+
+
+	/**
+	 * Returns a chunk for the exclusive use of the caller, until it is released.
+	 */
+	@NotNull
+	byte[] acquire(){
+		byte[] chunk = chunks.poll();
+		return (chunk != null) ? chunk : new byte[chunkSize];
+	}
+
+
+
+	/**
+	 * Returns the given chunk, previously acquired from this pool, to the pool.
+	 */
+	void release(@NotNull byte[] chunk){
+		chunks.offer(chunk);
+	}
+
+
+
+}
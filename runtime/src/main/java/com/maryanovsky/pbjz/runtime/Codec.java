@@ -1,6 +1,5 @@
 package com.maryanovsky.pbjz.runtime;
 
-
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.ExtensionRegistryLite;
@@ -12,7 +11,16 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
 
 
 
@@ -28,11 +36,103 @@ public abstract class Codec<T>{
 
 
 
+	/**
+	 * The cache of the serialized forms of values written as fields, if one has been set via
+	 * {@link #setSerializedFormCache(SerializedFormCache)}.
+	 */
+	@Nullable
+	private volatile SerializedFormCache<T> serializedFormCache = null;
+
+
+
+	/**
+	 * The interner via which {@code string} fields are decoded, if the codec was generated with the
+	 * {@code intern_strings} option and one has been set via
+	 * {@link #setStringInterner(StringInterner)}.
+	 */
+	@Nullable
+	private volatile StringInterner stringInterner = null;
+
+
+
+	/**
+	 * Sets the {@link SerializedFormCache} via which values of the user-defined type that are
+	 * written as fields of other values (via
+	 * {@link #writeField(CodedOutputStream, int, Object, WritePass)} and friends) are encoded only
+	 * once per value instance: the serialized form of each value is kept, and later writes of the
+	 * same instance copy it; or clears it, if {@code null}. This is useful for immutable values that
+	 * are embedded in many parents, such as a configuration block attached to many outgoing
+	 * messages.
+	 *
+	 * The values are looked up by identity and held weakly, so they can be collected as usual. They
+	 * must not be modified after being written, as the change would not be seen in later writes.
+	 *
+	 * The cache may be set or cleared at any time: whether a value is copied from the cache is
+	 * decided when its size is computed, and the write pass follows that decision.
+	 */
+	public final void setSerializedFormCache(@Nullable SerializedFormCache<T> cache){
+		this.serializedFormCache = cache;
+	}
+
+
+
+	/**
+	 * Sets the {@link StringInterner} via which the {@code string} fields of the values read by this
+	 * codec are decoded, so that equal strings decoded from many values share a single instance; or
+	 * clears it, if {@code null}. This only has an effect on codecs generated with the
+	 * {@code intern_strings} option, and not on the codecs of nested fields, each of which has its
+	 * own interner. An interner may be shared by several codecs.
+	 */
+	public final void setStringInterner(@Nullable StringInterner interner){
+		this.stringInterner = interner;
+	}
+
+
+
+	/**
+	 * Returns the {@link StringInterner} set via {@link #setStringInterner(StringInterner)}, if any.
+	 */
+	@Nullable
+	public final StringInterner stringInterner(){
+		return stringInterner;
+	}
+
+
+
 	/**
 	 * Writes the given value of the user-defined type into a {@link CodedOutputStream}.
 	 * This is the public method to use in order to write a single value of the user-defined type.
 	 */
-	public abstract void write(@NotNull CodedOutputStream output, @NotNull T value) throws IOException;
+	public final void write(@NotNull CodedOutputStream output, @NotNull T value) throws IOException{
+		write(output, value, new WritePass());
+	}
+
+
+
+	/**
+	 * Writes the given value of the user-defined type into a {@link CodedOutputStream}, taking the
+	 * sizes of its sub-messages from (or computing them into) the given {@link WritePass}.
+	 */
+	protected abstract void write(@NotNull CodedOutputStream output, @NotNull T value, @NotNull WritePass pass) throws IOException;
+
+
+
+	/**
+	 * Writes the given value of the user-defined type into a {@link ReverseOutput}, back-to-front.
+	 * This produces the same bytes as {@link #write(CodedOutputStream, Object)}, but without
+	 * computing the sizes of sub-messages in a separate pass.
+	 */
+	public final void write(@NotNull ReverseOutput output, @NotNull T value){
+		writeReverse(output, value);
+	}
+
+
+
+	/**
+	 * Writes the given value of the user-defined type into a {@link ReverseOutput}, writing its
+	 * fields last-to-first.
+	 */
+	protected abstract void writeReverse(@NotNull ReverseOutput output, @NotNull T value);
 
 
 
@@ -46,505 +146,2714 @@ public abstract class Codec<T>{
 
 
 	/**
-	 * Computes and returns the serialized size of the given value of the user-defined type.
+	 * Writes the given value of the user-defined type into a {@link ProtoWriter}.
+	 * This produces the same bytes as {@link #write(CodedOutputStream, Object)}.
+	 *
+	 * @throws BufferOverflowException if there isn't enough space left in the output.
 	 */
-	protected abstract int computeSerializedSize(@NotNull T value);
+	public final void write(@NotNull ProtoWriter output, @NotNull T value){
+		write(output, value, new WritePass());
+	}
 
 
 
 	/**
-	 * Writes a {@code double} field at the given field number.
+	 * Writes the given value of the user-defined type into a {@link ProtoWriter}, taking the sizes
+	 * of its sub-messages from (or computing them into) the given {@link WritePass}. Codecs generated
+	 * with the {@code proto_io} option override this to write into the {@link ProtoWriter} directly;
+	 * the default implementation writes via a {@link CodedOutputStream} over its remaining space.
 	 */
-	protected static void writeDoubleField(@NotNull CodedOutputStream output, int fieldNumber, double value) throws IOException{
-		if (value != 0D)
-			output.writeDouble(fieldNumber, value);
+	protected void write(@NotNull ProtoWriter output, @NotNull T value, @NotNull WritePass pass){
+		CodedOutputStream codedOutput = CodedOutputStream.newInstance(output.buffer(), output.position(), output.spaceLeft());
+		try{
+			write(codedOutput, value, pass);
+		} catch (CodedOutputStream.OutOfSpaceException e){
+			throw new BufferOverflowException();
+		} catch (IOException e){
+			throw new IllegalStateException("Writing into a byte array threw an IOException (should never happen)", e);
+		}
+		output.skip(codedOutput.getTotalBytesWritten());
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code double} field, at the given field number.
+	 * Reads a single value of the user defined type from the given {@link ProtoReader}. Codecs
+	 * generated with the {@code proto_io} option override this to read from the {@link ProtoReader}
+	 * directly; the default implementation reads via a {@link CodedInputStream} over the bytes up to
+	 * its current limit.
 	 */
-	protected static int doubleFieldSize(int fieldNumber, double value){
-		return (value == 0D) ? 0 : CodedOutputStream.computeDoubleSize(fieldNumber, value);
+	@NotNull
+	public T read(@NotNull ProtoReader input) throws IOException{
+		CodedInputStream codedInput = CodedInputStream.newInstance(input.buffer(), input.position(), input.getBytesUntilLimit());
+		T result = read(codedInput);
+		input.skipRawBytes(codedInput.getTotalBytesRead());
+		input.setLastTag(codedInput.getLastTag());
+
+		return result;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code double} field, not including the tag.
+	 * Encodes the given value of the user-defined type into a new byte array of exactly its
+	 * serialized size.
 	 */
-	protected static int packedRepeatedDoubleFieldSize(@NotNull Collection<Double> values){
-		return values.size() * 8; // See CodedOutputStream.computeDoubleSizeNoTag
+	@NotNull
+	public final byte[] toByteArray(@NotNull T value){
+		WritePass pass = new WritePass();
+		byte[] result = new byte[computeSerializedSize(value, pass)];
+		ProtoWriter output = ProtoWriter.newInstance(result);
+		write(output, value, pass);
+		output.checkNoSpaceLeft();
+
+		return result;
 	}
 
 
 
 	/**
-	 * Writes a {@code float} field at the given field number.
+	 * Encodes the given value of the user-defined type into the given {@link ByteBuffer}, which may
+	 * be a heap or a direct one, starting at its position. The position of the buffer is advanced by
+	 * the serialized size of the value.
+	 *
+	 * @throws BufferOverflowException if the remaining space in the buffer is smaller than the
+	 * serialized size of the value. In this case the buffer is not modified.
 	 */
-	protected static void writeFloatField(@NotNull CodedOutputStream output, int fieldNumber, float value) throws IOException{
-		if (value != 0F)
-			output.writeFloat(fieldNumber, value);
+	public final void writeTo(@NotNull T value, @NotNull ByteBuffer buffer){
+		writeTo(value, buffer, false);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code float} field, at the given field number.
+	 * Encodes the given value of the user-defined type, preceded by its size, into the given
+	 * {@link ByteBuffer}, which may be a heap or a direct one, starting at its position. The
+	 * position of the buffer is advanced by the size of the written bytes. This is the equivalent of
+	 * {@link #writeDelimited(CodedOutputStream, Object)}, and the counterpart of
+	 * {@link #parseDelimitedFrom(ByteBuffer)}.
+	 *
+	 * @throws BufferOverflowException if the remaining space in the buffer is smaller than the size
+	 * of the written bytes. In this case the buffer is not modified.
 	 */
-	protected static int floatFieldSize(int fieldNumber, float value){
-		return (value == 0F) ? 0 : CodedOutputStream.computeFloatSize(fieldNumber, value);
+	public final void writeDelimitedTo(@NotNull T value, @NotNull ByteBuffer buffer){
+		writeTo(value, buffer, true);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code float} field, not including the tag.
+	 * Encodes the given value of the user-defined type, preceded by its size if {@code delimited},
+	 * into the given {@link ByteBuffer}, starting at its position, and advances the position past
+	 * it. The bytes of a heap buffer are written in place by a {@link ProtoWriter}, and those of a
+	 * direct buffer by a {@link CodedOutputStream}.
+	 *
+	 * @throws BufferOverflowException if the remaining space in the buffer is too small. In this
+	 * case the buffer is not modified.
 	 */
-	protected static int packedRepeatedFloatFieldSize(@NotNull Collection<Float> values){
-		return values.size() * 4; // See CodedOutputStream.computeFloatSizeNoTag
+	private void writeTo(@NotNull T value, @NotNull ByteBuffer buffer, boolean delimited){
+		WritePass pass = new WritePass();
+		int size = computeSerializedSize(value, pass);
+		int prefixSize = delimited ? CodedOutputStream.computeUInt32SizeNoTag(size) : 0;
+		if (buffer.remaining() - prefixSize < size)
+			throw new BufferOverflowException();
+
+		if (buffer.hasArray()){
+			ProtoWriter output = ProtoWriter.newInstance(buffer.array(), buffer.arrayOffset() + buffer.position(), prefixSize + size);
+			if (delimited)
+				output.writeUInt32NoTag(size);
+			write(output, value, pass);
+			output.checkNoSpaceLeft();
+			buffer.position(buffer.position() + prefixSize + size);
+			return;
+		}
+
+		CodedOutputStream output = CodedOutputStream.newInstance(buffer);
+		try{
+			if (delimited)
+				output.writeUInt32NoTag(size);
+			write(output, value, pass);
+			output.flush(); // Updates the position of the buffer
+		} catch (IOException e){
+			throw new IllegalStateException("Writing into a ByteBuffer threw an IOException (should never happen)", e);
+		}
 	}
 
 
 
 	/**
-	 * Writes an {@code int} field at the given field number, encoded in {@code int32} format.
+	 * Encodes the given value of the user-defined type into the given {@link SegmentedOutput}. This
+	 * is the way to encode very large values, which shouldn't be held in a single array.
+	 * {@code bytes} values of at least the {@linkplain SegmentedOutput#referenceThreshold()
+	 * reference threshold} of the output are appended to it by reference, rather than copied.
 	 */
-	protected static void writeInt32Field(@NotNull CodedOutputStream output, int fieldNumber, int value) throws IOException{
-		if (value != 0)
-			output.writeInt32(fieldNumber, value);
+	public final void write(@NotNull SegmentedOutput output, @NotNull T value){
+		CodedOutputStream codedOutput = CodedOutputStream.newInstance(output);
+		WritePass pass = new WritePass();
+		if (output.referenceThreshold() != Integer.MAX_VALUE)
+			pass.referencingOutput = output;
+		try{
+			write(codedOutput, value, pass);
+			codedOutput.flush();
+		} catch (IOException e){
+			throw new IllegalStateException("Writing into a SegmentedOutput threw an IOException (should never happen)", e);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of an {@code int} field, at the given field number, encoded in
-	 * {@code int32} format.
+	 * Encodes the given values of the user-defined type as a repeated field with the given number
+	 * into a new byte array, using the threads of the given {@link ForkJoinPool}. The result is the
+	 * same as writing each of the values via
+	 * {@link #writeField(CodedOutputStream, int, Object, WritePass)}, in order.
+	 *
+	 * This is meant for encoding huge collections of values; as fields may be concatenated, the
+	 * result can be preceded and followed by the encodings of the other fields of the value that
+	 * holds them.
+	 *
+	 * @throws IllegalArgumentException if the encoded values are too large for a byte array.
 	 */
-	protected static int int32FieldSize(int fieldNumber, int value){
-		return (value == 0) ? 0 : CodedOutputStream.computeInt32Size(fieldNumber, value);
+	@NotNull
+	public final byte[] toByteArrayParallel(int fieldNumber, @NotNull List<? extends T> values, @NotNull ForkJoinPool pool){
+		return new ParallelWrite<>(this, fieldNumber, values, pool.getParallelism()).toByteArray(pool);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code int32} field, not including the tag.
+	 * Writes the given value of the user-defined type, preceded by its size, into a
+	 * {@link CodedOutputStream}. This is the equivalent of
+	 * {@link MessageLite#writeDelimitedTo(OutputStream)}.
 	 */
-	protected static int packedRepeatedInt32FieldSize(@NotNull Collection<Integer> values){
-		int size = 0;
-		for (Integer item : values)
-			size += CodedOutputStream.computeInt32SizeNoTag(item);
-		return size;
+	public final void writeDelimited(@NotNull CodedOutputStream output, @NotNull T value) throws IOException{
+		writeFieldNoTag(output, value, new WritePass());
 	}
 
 
 
 	/**
-	 * Writes a {@code long} field at the given field number, encoded in {@code int64} format.
+	 * Encodes the given values of the user-defined type, each preceded by its size, into a new byte
+	 * array, using the threads of the given {@link ForkJoinPool}. The result is the same as writing
+	 * each of the values via {@link #writeDelimited(CodedOutputStream, Object)}, in order.
+	 *
+	 * @throws IllegalArgumentException if the encoded values are too large for a byte array.
 	 */
-	protected static void writeInt64Field(@NotNull CodedOutputStream output, int fieldNumber, long value) throws IOException{
-		if (value != 0L)
-			output.writeInt64(fieldNumber, value);
+	@NotNull
+	public final byte[] toByteArrayDelimited(@NotNull List<? extends T> values, @NotNull ForkJoinPool pool){
+		return new ParallelWrite<>(this, 0, values, pool.getParallelism()).toByteArray(pool);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code long} field, at the given field number, encoded in
-	 * {@code int64} format.
+	 * Encodes the given values of the user-defined type, each preceded by its size, into the given
+	 * {@link ByteBuffer}, which may be a heap or a direct one, starting at its position, using the
+	 * threads of the given {@link ForkJoinPool}. The position of the buffer is advanced by the size
+	 * of the encoded values. The result is the same as writing each of the values via
+	 * {@link #writeDelimited(CodedOutputStream, Object)}, in order.
+	 *
+	 * @throws BufferOverflowException if the remaining space in the buffer is smaller than the size
+	 * of the encoded values. In this case the buffer is not modified.
+	 * @throws IllegalArgumentException if the encoded values are larger than 2GB.
 	 */
-	protected static int int64FieldSize(int fieldNumber, long value){
-		return (value == 0L) ? 0 : CodedOutputStream.computeInt64Size(fieldNumber, value);
+	public final void writeDelimitedTo(@NotNull List<? extends T> values, @NotNull ByteBuffer buffer, @NotNull ForkJoinPool pool){
+		new ParallelWrite<>(this, 0, values, pool.getParallelism()).writeTo(buffer, pool);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code int64} field, not including the tag.
+	 * Decodes a value of the user-defined type from the given byte array. The {@code bytes} fields
+	 * of codecs generated with the {@code aliased_bytes} option are slices of the array, so it must
+	 * not be modified while they are in use.
 	 */
-	protected static int packedRepeatedInt64FieldSize(@NotNull Collection<Long> values){
-		int size = 0;
-		for (Long item : values)
-			size += CodedOutputStream.computeInt64SizeNoTag(item);
-		return size;
+	@NotNull
+	public final T parseFrom(@NotNull byte[] data) throws IOException{
+		return parseFrom(ProtoReader.newInstance(data));
 	}
 
 
 
 	/**
-	 * Writes an {@code int} field at the given field number, encoded in {@code uint32} format.
+	 * Decodes a value of the user-defined type from the bytes between the position and the limit of
+	 * the given {@link ByteBuffer}, which may be a heap or a direct one. The bytes are read in place,
+	 * without being copied: those of a heap buffer by a {@link ProtoReader}, and those of a direct
+	 * one by a {@link CodedInputStream}. The position of the buffer is not modified.
+	 *
+	 * Note that the {@code bytes} fields of codecs generated with the {@code aliased_bytes} option
+	 * are slices of the given buffer, so it must not be modified while they are in use.
 	 */
-	protected static void writeUInt32Field(@NotNull CodedOutputStream output, int fieldNumber, int value) throws IOException{
-		if (value != 0)
-			output.writeUInt32(fieldNumber, value);
+	@NotNull
+	public final T parseFrom(@NotNull ByteBuffer data) throws IOException{
+		if (data.hasArray())
+			return parseFrom(ProtoReader.newInstance(data));
+
+		CodedInputStream input = CodedInputStream.newInstance(data);
+		input.enableAliasing(true); // Aliased bytes fields slice the buffer, like they do a heap one
+		return parseFrom(input);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of an {@code int} field, at the given field number, encoded in
-	 * {@code uint32} format.
+	 * Decodes a value of the user-defined type, preceded by its size, from the given
+	 * {@link ByteBuffer}, which may be a heap or a direct one, starting at its position, and
+	 * advances the position past it. This is the counterpart of
+	 * {@link #writeDelimitedTo(Object, ByteBuffer)}, and allows reading values, one at a time, off
+	 * a buffer they are received into, in place.
+	 *
+	 * Returns {@code null}, without modifying the buffer, if it doesn't hold an entire value (or
+	 * even its size) between its position and limit, which is the case when the rest of the value
+	 * hasn't been received yet.
+	 *
+	 * @throws MalformedProtoException if the value is malformed. In this case, the position
+	 * of the buffer is not modified.
 	 */
-	protected static int uInt32FieldSize(int fieldNumber, int value){
-		return (value == 0) ? 0 : CodedOutputStream.computeUInt32Size(fieldNumber, value);
+	@Nullable
+	public final T parseDelimitedFrom(@NotNull ByteBuffer data) throws IOException{
+		int position = data.position();
+		int limit = data.limit();
+		int index = position;
+		int size = 0;
+		for (int shift = 0;; shift += 7){
+			if (index == limit)
+				return null;
+			if (shift == 35)
+				throw new MalformedProtoException("CodedInputStream encountered a malformed varint.");
+			byte b = data.get(index++);
+			size |= (b & 0x7F) << shift;
+			if (b >= 0)
+				break;
+		}
+		if (size < 0)
+			throw new MalformedProtoException("CodedInputStream encountered an embedded string or message which claimed to have negative size.");
+		if (limit - index < size)
+			return null;
+
+		ByteBuffer valueData = data.duplicate();
+		valueData.position(index);
+		valueData.limit(index + size);
+		T result = parseFrom(valueData);
+		data.position(index + size);
+		return result;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code uint32} field, not including the tag.
+	 * Encodes the given value of the user-defined type into the buffer of the given
+	 * {@link EncodeContext}, replacing its previous contents. The encoded value can then be obtained
+	 * from the context.
 	 */
-	protected static int packedRepeatedUInt32FieldSize(@NotNull Collection<Integer> values){
-		int size = 0;
-		for (Integer item : values)
-			size += CodedOutputStream.computeUInt32SizeNoTag(item);
-		return size;
+	public final void write(@NotNull EncodeContext context, @NotNull T value){
+		CodedOutputStream output = context.begin(null);
+		boolean completed = false;
+		try{
+			context.ensureCapacity(computeSerializedSize(value, context.pass));
+			write(output, value, context.pass);
+			output.flush();
+			completed = true;
+		} catch (IOException e){
+			throw new IllegalStateException("Writing into a byte array threw an IOException (should never happen)", e);
+		} finally{
+			context.end(completed);
+		}
 	}
 
 
 
 	/**
-	 * Writes a {@code long} field at the given field number, encoded in {@code uint64} format.
+	 * Encodes the given value of the user-defined type into the given {@link OutputStream}, reusing
+	 * the buffers of the given {@link EncodeContext}.
 	 */
-	protected static void writeUInt64Field(@NotNull CodedOutputStream output, int fieldNumber, long value) throws IOException{
-		if (value != 0L)
-			output.writeUInt64(fieldNumber, value);
+	public final void write(@NotNull EncodeContext context, @NotNull T value, @NotNull OutputStream output) throws IOException{
+		CodedOutputStream codedOutput = context.begin(output);
+		boolean completed = false;
+		try{
+			write(codedOutput, value, context.pass);
+			codedOutput.flush();
+			completed = true;
+		} finally{
+			context.end(completed);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code long} field, at the given field number, encoded in
-	 * {@code uint64} format.
+	 * Decodes a value of the user-defined type from the entire contents of the given
+	 * {@link InputStream}, reusing the buffers of the given {@link DecodeContext}.
 	 */
-	protected static int uInt64FieldSize(int fieldNumber, long value){
-		return (value == 0L) ? 0 : CodedOutputStream.computeUInt64Size(fieldNumber, value);
+	@NotNull
+	public final T read(@NotNull DecodeContext context, @NotNull InputStream input) throws IOException{
+		return parseFrom(context, context.begin(input));
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code uint64} field, not including the tag.
+	 * Decodes a value of the user-defined type from the given range of the given byte array, in
+	 * place, via the {@link ProtoReader} of the given {@link DecodeContext}, so that neither the
+	 * bytes nor the reader are copied or allocated. As with {@link #parseFrom(byte[])}, the
+	 * {@code bytes} fields of codecs generated with the {@code aliased_bytes} option are slices of
+	 * the array, so it must not be modified while they are in use.
 	 */
-	protected static int packedRepeatedUInt64FieldSize(@NotNull Collection<Long> values){
-		int size = 0;
-		for (Long item : values)
-			size += CodedOutputStream.computeUInt64SizeNoTag(item);
-		return size;
+	@NotNull
+	public final T parseFrom(@NotNull DecodeContext context, @NotNull byte[] data, int offset, int length) throws IOException{
+		ProtoReader input = context.begin(data, offset, length);
+		try{
+			return parseFrom(input);
+		} finally{
+			context.end();
+		}
 	}
 
 
 
 	/**
-	 * Writes an {@code int} field at the given field number, encoded in {@code sint32} format.
+	 * Decodes a value of the user-defined type from the given {@link CodedInputStream}, obtained
+	 * from the given {@link DecodeContext}, making sure the entire input has been consumed.
 	 */
-	protected static void writeSInt32Field(@NotNull CodedOutputStream output, int fieldNumber, int value) throws IOException{
-		if (value != 0)
-			output.writeSInt32(fieldNumber, value);
+	@NotNull
+	private T parseFrom(@NotNull DecodeContext context, @NotNull CodedInputStream input) throws IOException{
+		boolean completed = false;
+		try{
+			T result = parseFrom(input);
+			completed = true;
+			return result;
+		} finally{
+			context.end(completed);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of an {@code int} field, at the given field number, encoded in
-	 * {@code sint32} format.
+	 * Decodes a value of the user-defined type from the given {@link CodedInputStream}, making sure
+	 * the entire input has been consumed.
 	 */
-	protected static int sInt32FieldSize(int fieldNumber, int value){
-		return (value == 0) ? 0 : CodedOutputStream.computeSInt32Size(fieldNumber, value);
+	@NotNull
+	private T parseFrom(@NotNull CodedInputStream input) throws IOException{
+		T result = read(input);
+		input.checkLastTagWas(0);
+		return result;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code sint32} field, not including the tag.
+	 * Decodes a value of the user-defined type from the given {@link ProtoReader}, making sure the
+	 * entire input has been consumed.
 	 */
-	protected static int packedRepeatedSInt32FieldSize(@NotNull Collection<Integer> values){
-		int size = 0;
-		for (Integer item : values)
-			size += CodedOutputStream.computeSInt32SizeNoTag(item);
-		return size;
+	@NotNull
+	T parseFrom(@NotNull ProtoReader input) throws IOException{
+		T result = read(input);
+		input.checkLastTagWas(0);
+		return result;
 	}
 
 
 
 	/**
-	 * Writes a {@code long} field at the given field number, encoded in {@code sint64} format.
+	 * Computes and returns the serialized size of the given value of the user-defined type.
 	 */
-	protected static void writeSInt64Field(@NotNull CodedOutputStream output, int fieldNumber, long value) throws IOException{
-		if (value != 0L)
-			output.writeSInt64(fieldNumber, value);
+	public final int computeSerializedSize(@NotNull T value){
+		return computeSerializedSize(value, null);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code long} field, at the given field number, encoded in
-	 * {@code sint64} format.
+	 * Computes and returns the serialized size of the given value of the user-defined type. If
+	 * {@code pass} is not {@code null}, the sizes of the sub-messages of the value are recorded
+	 * into it, in pre-order.
+	 */
+	protected abstract int computeSerializedSize(@NotNull T value, @Nullable WritePass pass);
+
+
+
+	/**
+	 * Writes a {@code double} field, with the given precomputed tag, into a {@link ReverseOutput}.
 	 */
-	protected static int sInt64FieldSize(int fieldNumber, long value){
-		return (value == 0L) ? 0 : CodedOutputStream.computeSInt64Size(fieldNumber, value);
+	protected static void writeTaggedDoubleField(@NotNull ReverseOutput output, int tag, double value){
+		if (value != 0D){
+			output.writeDoubleNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code sint64} field, not including the tag.
+	 * Writes a {@code double} field, with the given precomputed tag.
 	 */
-	protected static int packedRepeatedSInt64FieldSize(@NotNull Collection<Long> values){
-		int size = 0;
-		for (Long item : values)
-			size += CodedOutputStream.computeSInt64SizeNoTag(item);
-		return size;
+	protected static void writeTaggedDoubleField(@NotNull CodedOutputStream output, int tag, double value) throws IOException{
+		if (value != 0D){
+			output.writeUInt32NoTag(tag);
+			output.writeDoubleNoTag(value);
+		}
 	}
 
 
 
 	/**
-	 * Writes an {@code int} field at the given field number, encoded in {@code fixed32} format.
+	 * Returns the serialized size of a {@code double} field, whose tag is of the given precomputed
+	 * size.
 	 */
-	protected static void writeFixed32Field(@NotNull CodedOutputStream output, int fieldNumber, int value) throws IOException{
-		if (value != 0)
-			output.writeFixed32(fieldNumber, value);
+	protected static int taggedDoubleFieldSize(int tagSize, double value){
+		return (value != 0D) ? tagSize + CodedOutputStream.computeDoubleSizeNoTag(value) : 0;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of an {@code int} field, at the given field number, encoded in
-	 * {@code fixed32} format.
+	 * Returns the serialized size of a packed repeated field whose tag is of the given precomputed
+	 * size, including the tag and the length prefix, given the size of its elements.
 	 */
-	protected static int fixed32FieldSize(int fieldNumber, int value){
-		return (value == 0) ? 0 : CodedOutputStream.computeFixed32Size(fieldNumber, value);
+	protected static int packedFieldSize(int tagSize, int elementsSize){
+		return tagSize + CodedOutputStream.computeUInt32SizeNoTag(elementsSize) + elementsSize;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code fixed32} field, not including the
-	 * tag.
+	 * Returns the serialized size of a packed repeated {@code double} field, not including the tag.
 	 */
-	protected static int packedRepeatedFixed32FieldSize(@NotNull Collection<Integer> values){
-		return values.size() * 4; // See CodedOutputStream.computeFixed32SizeNoTag
+	protected static int packedRepeatedDoubleFieldSize(@NotNull Collection<Double> values){
+		return values.size() * 8; // See CodedOutputStream.computeDoubleSizeNoTag
 	}
 
 
 
 	/**
-	 * Writes a {@code long} field at the given field number, encoded in {@code fixed64} format.
+	 * Returns the serialized size of a packed repeated {@code double} field, held in an array, not
+	 * including the tag.
 	 */
-	protected static void writeFixed64Field(@NotNull CodedOutputStream output, int fieldNumber, long value) throws IOException{
-		if (value != 0L)
-			output.writeFixed64(fieldNumber, value);
+	protected static int packedRepeatedDoubleFieldSize(@NotNull double[] values){
+		return values.length * 8; // See CodedOutputStream.computeDoubleSizeNoTag
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code long} field, at the given field number, encoded in
-	 * {@code fixed64} format.
+	 * Writes a packed repeated {@code double} field, held in an array, with the given precomputed tag.
+	 * A large field is converted into its encoding in bulk. A {@code null} array is not written at
+	 * all.
 	 */
-	protected static int fixed64FieldSize(int fieldNumber, long value){
-		return (value == 0L) ? 0 : CodedOutputStream.computeFixed64Size(fieldNumber, value);
+	protected static void writePackedDoubleField(@NotNull CodedOutputStream output, int tag, @Nullable double[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedDoubleFieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code fixed64} field, not including the
-	 * tag.
+	 * Writes a {@code float} field, with the given precomputed tag, into a {@link ReverseOutput}.
 	 */
-	protected static int packedRepeatedFixed64FieldSize(@NotNull Collection<Long> values){
-		return values.size() * 8; // See CodedOutputStream.computeFixed64SizeNoTag
+	protected static void writeTaggedFloatField(@NotNull ReverseOutput output, int tag, float value){
+		if (value != 0F){
+			output.writeFloatNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
 	}
 
 
 
 	/**
-	 * Writes an {@code int} field at the given field number, encoded in {@code sfixed32} format.
+	 * Writes a {@code float} field, with the given precomputed tag.
 	 */
-	protected static void writeSFixed32Field(@NotNull CodedOutputStream output, int fieldNumber, int value) throws IOException{
-		if (value != 0)
-			output.writeSFixed32(fieldNumber, value);
+	protected static void writeTaggedFloatField(@NotNull CodedOutputStream output, int tag, float value) throws IOException{
+		if (value != 0F){
+			output.writeUInt32NoTag(tag);
+			output.writeFloatNoTag(value);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of an {@code int} field, at the given field number, encoded in
-	 * {@code sfixed32} format.
+	 * Returns the serialized size of a {@code float} field, whose tag is of the given precomputed
+	 * size.
 	 */
-	protected static int sFixed32FieldSize(int fieldNumber, int value){
-		return (value == 0) ? 0 : CodedOutputStream.computeSFixed32Size(fieldNumber, value);
+	protected static int taggedFloatFieldSize(int tagSize, float value){
+		return (value != 0F) ? tagSize + CodedOutputStream.computeFloatSizeNoTag(value) : 0;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code sfixed32} field, not including the
-	 * tag.
+	 * Returns the serialized size of a packed repeated {@code float} field, not including the tag.
 	 */
-	protected static int packedRepeatedSFixed32FieldSize(@NotNull Collection<Integer> values){
-		return values.size() * 4; // See CodedOutputStream.computeSFixed32SizeNoTag
+	protected static int packedRepeatedFloatFieldSize(@NotNull Collection<Float> values){
+		return values.size() * 4; // See CodedOutputStream.computeFloatSizeNoTag
 	}
 
 
 
 	/**
-	 * Writes a {@code long} field at the given field number, encoded in {@code sfixed64} format.
+	 * Returns the serialized size of a packed repeated {@code float} field, held in an array, not
+	 * including the tag.
 	 */
-	protected static void writeSFixed64Field(@NotNull CodedOutputStream output, int fieldNumber, long value) throws IOException{
-		if (value != 0L)
-			output.writeSFixed64(fieldNumber, value);
+	protected static int packedRepeatedFloatFieldSize(@NotNull float[] values){
+		return values.length * 4; // See CodedOutputStream.computeFloatSizeNoTag
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code long} field, at the given field number, encoded in
-	 * {@code sfixed64} format.
+	 * Writes a packed repeated {@code float} field, held in an array, with the given precomputed tag.
+	 * A large field is converted into its encoding in bulk. A {@code null} array is not written at
+	 * all.
 	 */
-	protected static int sFixed64FieldSize(int fieldNumber, long value){
-		return (value == 0L) ? 0 : CodedOutputStream.computeSFixed64Size(fieldNumber, value);
+	protected static void writePackedFloatField(@NotNull CodedOutputStream output, int tag, @Nullable float[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedFloatFieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code sfixed64} field, not including the
-	 * tag.
+	 * Writes an {@code int} field, encoded in {@code int32} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
 	 */
-	protected static int packedRepeatedSFixed64FieldSize(@NotNull Collection<Long> values){
-		return values.size() * 8; // See CodedOutputStream.computeSFixed64SizeNoTag
+	protected static void writeTaggedInt32Field(@NotNull ReverseOutput output, int tag, int value){
+		if (value != 0){
+			output.writeInt32NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
 	}
 
 
 
 	/**
-	 * Writes a {@code boolean} field at the given field number.
+	 * Writes an {@code int} field, encoded in {@code int32} format, with the given precomputed tag.
 	 */
-	protected static void writeBoolField(@NotNull CodedOutputStream output, int fieldNumber, boolean value) throws IOException{
-		if (value)
-			output.writeBool(fieldNumber, true);
+	protected static void writeTaggedInt32Field(@NotNull CodedOutputStream output, int tag, int value) throws IOException{
+		if (value != 0){
+			output.writeUInt32NoTag(tag);
+			output.writeInt32NoTag(value);
+		}
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@code boolean} field, at the given field number.
+	 * Returns the serialized size of an {@code int} field, encoded in {@code int32} format, whose tag
+	 * is of the given precomputed size.
 	 */
-	protected static int boolFieldSize(int fieldNumber, boolean value){
-		return !value ? 0 : CodedOutputStream.computeBoolSize(fieldNumber, true);
+	protected static int taggedInt32FieldSize(int tagSize, int value){
+		return (value != 0) ? tagSize + CodedOutputStream.computeInt32SizeNoTag(value) : 0;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a packed repeated {@code boolean} field, not including the
-	 * tag.
+	 * Returns the serialized size of a packed repeated {@code int32} field, not including the tag.
 	 */
-	protected static int packedRepeatedBoolFieldSize(@NotNull Collection<Boolean> values){
-		return values.size(); // See CodedOutputStream.computeBoolSizeNoTag
+	protected static int packedRepeatedInt32FieldSize(@NotNull Collection<Integer> values){
+		int size = 0;
+		for (Integer item : values)
+			size += CodedOutputStream.computeInt32SizeNoTag(item);
+		return size;
 	}
 
 
 
 	/**
-	 * Writes a {@link String} field at the given field number. A {@code null} value is treated the
-	 * same way as an empty string.
+	 * Returns the serialized size of a packed repeated {@code int32} field, held in an array, not
+	 * including the tag.
 	 */
-	protected static void writeStringField(@NotNull CodedOutputStream output, int fieldNumber, @Nullable String value) throws IOException{
-		if (value != null)
-			output.writeString(fieldNumber, value);
+	protected static int packedRepeatedInt32FieldSize(@NotNull int[] values){
+		int size = 0;
+		for (int item : values)
+			size += CodedOutputStream.computeInt32SizeNoTag(item);
+		return size;
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a {@link String} field, at the given field number.
+	 * Writes a packed repeated {@code int32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
 	 */
-	protected static int stringFieldSize(int fieldNumber, @Nullable String value){
-		return (value == null) ? 0 : CodedOutputStream.computeStringSize(fieldNumber, value);
+	protected static void writePackedInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packInt32(values);
+		pass.endPacked(output, tag);
 	}
 
 
 
 	/**
-	 * Writes a byte array field at the given field number. A {@code null} value is treated the same
-	 * way as a byte array of zero length.
+	 * Writes a packed repeated {@code int32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
 	 */
-	protected static void writeBytesField(@NotNull CodedOutputStream output, int fieldNumber, @Nullable byte[] value) throws IOException{
-		if (value != null)
-			output.writeByteArray(fieldNumber, value);
+	protected static void writePackedInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable int[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packInt32(values);
+		pass.endPacked(output, tag);
 	}
 
 
 
 	/**
-	 * Returns the serialized size of a byte array field, at the given field number.
+	 * Writes a {@code long} field, encoded in {@code int64} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
 	 */
-	protected static int bytesFieldSize(int fieldNumber, @Nullable byte[] value){
-		return (value == null) ? 0 : CodedOutputStream.computeByteArraySize(fieldNumber, value);
+	protected static void writeTaggedInt64Field(@NotNull ReverseOutput output, int tag, long value){
+		if (value != 0L){
+			output.writeInt64NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
 	}
 
 
 
 	/**
-	 * Writes the given field of the user-defined type, at the given field number.
+	 * Writes a {@code long} field, encoded in {@code int64} format, with the given precomputed tag.
 	 */
-	public final void writeField(@NotNull CodedOutputStream output, int fieldNumber, @Nullable T value) throws IOException{
-		if (value != null){
-			output.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-			writeFieldNoTag(output, value);
+	protected static void writeTaggedInt64Field(@NotNull CodedOutputStream output, int tag, long value) throws IOException{
+		if (value != 0L){
+			output.writeUInt32NoTag(tag);
+			output.writeInt64NoTag(value);
 		}
 	}
 
 
+
 	/**
-	 * Writes the given value of the user-defined type, sans the tag.
-	 * This is the equivalent of {@link CodedOutputStream#writeMessageNoTag(MessageLite)}.
+	 * Returns the serialized size of a {@code long} field, encoded in {@code int64} format, whose tag
+	 * is of the given precomputed size.
 	 */
-	private void writeFieldNoTag(@NotNull CodedOutputStream output, @NotNull T value) throws IOException{
-		output.writeUInt32NoTag(computeSerializedSize(value));
-		write(output, value);
+	protected static int taggedInt64FieldSize(int tagSize, long value){
+		return (value != 0L) ? tagSize + CodedOutputStream.computeInt64SizeNoTag(value) : 0;
 	}
 
 
 
 	/**
-	 * Reads a field of the user-defined type.
-	 * This is the equivalent of {@link CodedInputStream#readMessage(Parser, ExtensionRegistryLite)}
+	 * Returns the serialized size of a packed repeated {@code int64} field, not including the tag.
 	 */
-	public T readField(@NotNull CodedInputStream input) throws IOException{
-		int length = input.readRawVarint32();
-		int oldLimit = input.pushLimit(length);
-		T result = read(input);
-		input.checkLastTagWas(0);
-		input.popLimit(oldLimit);
+	protected static int packedRepeatedInt64FieldSize(@NotNull Collection<Long> values){
+		int size = 0;
+		for (Long item : values)
+			size += CodedOutputStream.computeInt64SizeNoTag(item);
+		return size;
+	}
 
-		return result;
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code int64} field, held in an array, not
+	 * including the tag.
+	 */
+	protected static int packedRepeatedInt64FieldSize(@NotNull long[] values){
+		int size = 0;
+		for (long item : values)
+			size += CodedOutputStream.computeInt64SizeNoTag(item);
+		return size;
 	}
 
 
 
 	/**
-	 * Computes the serialized size of a field of the user-defined type, at the given field number.
+	 * Writes a packed repeated {@code int64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
 	 */
-	public final int computeSerializedSize(int fieldNumber, @Nullable T value){
-		if (value == null)
-			return 0;
+	protected static void writePackedInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Long> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
 
-		return CodedOutputStream.computeTagSize(fieldNumber) + computeSerializedSizeNoTag(value);
+		pass.packInt64(values);
+		pass.endPacked(output, tag);
 	}
 
 
 
 	/**
-	 * Computes the serialized size of a field of the user-defined type, sans the tag.
-	 * This is the equivalent of {@link CodedOutputStream#computeMessageSizeNoTag(MessageLite)}.
+	 * Writes a packed repeated {@code int64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	protected static void writePackedInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable long[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code uint32} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedUInt32Field(@NotNull ReverseOutput output, int tag, int value){
+		if (value != 0){
+			output.writeUInt32NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code uint32} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedUInt32Field(@NotNull CodedOutputStream output, int tag, int value) throws IOException{
+		if (value != 0){
+			output.writeUInt32NoTag(tag);
+			output.writeUInt32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of an {@code int} field, encoded in {@code uint32} format, whose tag
+	 * is of the given precomputed size.
+	 */
+	protected static int taggedUInt32FieldSize(int tagSize, int value){
+		return (value != 0) ? tagSize + CodedOutputStream.computeUInt32SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code uint32} field, not including the tag.
+	 */
+	protected static int packedRepeatedUInt32FieldSize(@NotNull Collection<Integer> values){
+		int size = 0;
+		for (Integer item : values)
+			size += CodedOutputStream.computeUInt32SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code uint32} field, held in an array, not
+	 * including the tag.
+	 */
+	protected static int packedRepeatedUInt32FieldSize(@NotNull int[] values){
+		int size = 0;
+		for (int item : values)
+			size += CodedOutputStream.computeUInt32SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
 	 */
-	private int computeSerializedSizeNoTag(@NotNull T value){
-		int fieldSize = computeSerializedSize(value);
+	protected static void writePackedUInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packUInt32(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	protected static void writePackedUInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable int[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packUInt32(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code uint64} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedUInt64Field(@NotNull ReverseOutput output, int tag, long value){
+		if (value != 0L){
+			output.writeUInt64NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code uint64} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedUInt64Field(@NotNull CodedOutputStream output, int tag, long value) throws IOException{
+		if (value != 0L){
+			output.writeUInt32NoTag(tag);
+			output.writeUInt64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code long} field, encoded in {@code uint64} format, whose tag
+	 * is of the given precomputed size.
+	 */
+	protected static int taggedUInt64FieldSize(int tagSize, long value){
+		return (value != 0L) ? tagSize + CodedOutputStream.computeUInt64SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code uint64} field, not including the tag.
+	 */
+	protected static int packedRepeatedUInt64FieldSize(@NotNull Collection<Long> values){
+		int size = 0;
+		for (Long item : values)
+			size += CodedOutputStream.computeUInt64SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code uint64} field, held in an array, not
+	 * including the tag.
+	 */
+	protected static int packedRepeatedUInt64FieldSize(@NotNull long[] values){
+		int size = 0;
+		for (long item : values)
+			size += CodedOutputStream.computeUInt64SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	protected static void writePackedUInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Long> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	protected static void writePackedUInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable long[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sint32} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedSInt32Field(@NotNull ReverseOutput output, int tag, int value){
+		if (value != 0){
+			output.writeSInt32NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sint32} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedSInt32Field(@NotNull CodedOutputStream output, int tag, int value) throws IOException{
+		if (value != 0){
+			output.writeUInt32NoTag(tag);
+			output.writeSInt32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of an {@code int} field, encoded in {@code sint32} format, whose tag
+	 * is of the given precomputed size.
+	 */
+	protected static int taggedSInt32FieldSize(int tagSize, int value){
+		return (value != 0) ? tagSize + CodedOutputStream.computeSInt32SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sint32} field, not including the tag.
+	 */
+	protected static int packedRepeatedSInt32FieldSize(@NotNull Collection<Integer> values){
+		int size = 0;
+		for (Integer item : values)
+			size += CodedOutputStream.computeSInt32SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sint32} field, held in an array, not
+	 * including the tag.
+	 */
+	protected static int packedRepeatedSInt32FieldSize(@NotNull int[] values){
+		int size = 0;
+		for (int item : values)
+			size += CodedOutputStream.computeSInt32SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	protected static void writePackedSInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packSInt32(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	protected static void writePackedSInt32Field(@NotNull CodedOutputStream output, int tag, @Nullable int[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packSInt32(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sint64} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedSInt64Field(@NotNull ReverseOutput output, int tag, long value){
+		if (value != 0L){
+			output.writeSInt64NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sint64} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedSInt64Field(@NotNull CodedOutputStream output, int tag, long value) throws IOException{
+		if (value != 0L){
+			output.writeUInt32NoTag(tag);
+			output.writeSInt64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code long} field, encoded in {@code sint64} format, whose tag
+	 * is of the given precomputed size.
+	 */
+	protected static int taggedSInt64FieldSize(int tagSize, long value){
+		return (value != 0L) ? tagSize + CodedOutputStream.computeSInt64SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sint64} field, not including the tag.
+	 */
+	protected static int packedRepeatedSInt64FieldSize(@NotNull Collection<Long> values){
+		int size = 0;
+		for (Long item : values)
+			size += CodedOutputStream.computeSInt64SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sint64} field, held in an array, not
+	 * including the tag.
+	 */
+	protected static int packedRepeatedSInt64FieldSize(@NotNull long[] values){
+		int size = 0;
+		for (long item : values)
+			size += CodedOutputStream.computeSInt64SizeNoTag(item);
+		return size;
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	protected static void writePackedSInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable Collection<Long> values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packSInt64(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	protected static void writePackedSInt64Field(@NotNull CodedOutputStream output, int tag, @Nullable long[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		pass.packSInt64(values);
+		pass.endPacked(output, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code fixed32} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedFixed32Field(@NotNull ReverseOutput output, int tag, int value){
+		if (value != 0){
+			output.writeFixed32NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code fixed32} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedFixed32Field(@NotNull CodedOutputStream output, int tag, int value) throws IOException{
+		if (value != 0){
+			output.writeUInt32NoTag(tag);
+			output.writeFixed32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of an {@code int} field, encoded in {@code fixed32} format, whose
+	 * tag is of the given precomputed size.
+	 */
+	protected static int taggedFixed32FieldSize(int tagSize, int value){
+		return (value != 0) ? tagSize + CodedOutputStream.computeFixed32SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code fixed32} field, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedFixed32FieldSize(@NotNull Collection<Integer> values){
+		return values.size() * 4; // See CodedOutputStream.computeFixed32SizeNoTag
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code fixed32} field, held in an array, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedFixed32FieldSize(@NotNull int[] values){
+		return values.length * 4; // See CodedOutputStream.computeFixed32SizeNoTag
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code fixed32} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk. A {@code null} array is not written
+	 * at all.
+	 */
+	protected static void writePackedFixed32Field(@NotNull CodedOutputStream output, int tag, @Nullable int[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedFixed32FieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code fixed64} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedFixed64Field(@NotNull ReverseOutput output, int tag, long value){
+		if (value != 0L){
+			output.writeFixed64NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code fixed64} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedFixed64Field(@NotNull CodedOutputStream output, int tag, long value) throws IOException{
+		if (value != 0L){
+			output.writeUInt32NoTag(tag);
+			output.writeFixed64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code long} field, encoded in {@code fixed64} format, whose
+	 * tag is of the given precomputed size.
+	 */
+	protected static int taggedFixed64FieldSize(int tagSize, long value){
+		return (value != 0L) ? tagSize + CodedOutputStream.computeFixed64SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code fixed64} field, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedFixed64FieldSize(@NotNull Collection<Long> values){
+		return values.size() * 8; // See CodedOutputStream.computeFixed64SizeNoTag
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code fixed64} field, held in an array, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedFixed64FieldSize(@NotNull long[] values){
+		return values.length * 8; // See CodedOutputStream.computeFixed64SizeNoTag
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code fixed64} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk. A {@code null} array is not written
+	 * at all.
+	 */
+	protected static void writePackedFixed64Field(@NotNull CodedOutputStream output, int tag, @Nullable long[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedFixed64FieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sfixed32} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedSFixed32Field(@NotNull ReverseOutput output, int tag, int value){
+		if (value != 0){
+			output.writeSFixed32NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sfixed32} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedSFixed32Field(@NotNull CodedOutputStream output, int tag, int value) throws IOException{
+		if (value != 0){
+			output.writeUInt32NoTag(tag);
+			output.writeSFixed32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of an {@code int} field, encoded in {@code sfixed32} format, whose
+	 * tag is of the given precomputed size.
+	 */
+	protected static int taggedSFixed32FieldSize(int tagSize, int value){
+		return (value != 0) ? tagSize + CodedOutputStream.computeSFixed32SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sfixed32} field, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedSFixed32FieldSize(@NotNull Collection<Integer> values){
+		return values.size() * 4; // See CodedOutputStream.computeSFixed32SizeNoTag
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sfixed32} field, held in an array, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedSFixed32FieldSize(@NotNull int[] values){
+		return values.length * 4; // See CodedOutputStream.computeSFixed32SizeNoTag
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sfixed32} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk. A {@code null} array is not written
+	 * at all.
+	 */
+	protected static void writePackedSFixed32Field(@NotNull CodedOutputStream output, int tag, @Nullable int[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedSFixed32FieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sfixed64} format, with the given precomputed tag,
+	 * into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedSFixed64Field(@NotNull ReverseOutput output, int tag, long value){
+		if (value != 0L){
+			output.writeSFixed64NoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sfixed64} format, with the given precomputed tag.
+	 */
+	protected static void writeTaggedSFixed64Field(@NotNull CodedOutputStream output, int tag, long value) throws IOException{
+		if (value != 0L){
+			output.writeUInt32NoTag(tag);
+			output.writeSFixed64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code long} field, encoded in {@code sfixed64} format, whose
+	 * tag is of the given precomputed size.
+	 */
+	protected static int taggedSFixed64FieldSize(int tagSize, long value){
+		return (value != 0L) ? tagSize + CodedOutputStream.computeSFixed64SizeNoTag(value) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sfixed64} field, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedSFixed64FieldSize(@NotNull Collection<Long> values){
+		return values.size() * 8; // See CodedOutputStream.computeSFixed64SizeNoTag
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code sfixed64} field, held in an array, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedSFixed64FieldSize(@NotNull long[] values){
+		return values.length * 8; // See CodedOutputStream.computeSFixed64SizeNoTag
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sfixed64} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk. A {@code null} array is not written
+	 * at all.
+	 */
+	protected static void writePackedSFixed64Field(@NotNull CodedOutputStream output, int tag, @Nullable long[] values, @NotNull WritePass pass) throws IOException{
+		if (values == null)
+			return;
+
+		int length = packedRepeatedSFixed64FieldSize(values);
+		byte[] buffer = pass.packedFixedWidthBuffer(length);
+		PackedFixedWidth.encode(values, buffer, 0);
+		output.writeUInt32NoTag(tag);
+		output.writeUInt32NoTag(length);
+		output.writeRawBytes(buffer, 0, length);
+	}
+
+
+
+	/**
+	 * Writes a {@code boolean} field, with the given precomputed tag, into a {@link ReverseOutput}.
+	 */
+	protected static void writeTaggedBoolField(@NotNull ReverseOutput output, int tag, boolean value){
+		if (value){
+			output.writeBoolNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code boolean} field, with the given precomputed tag.
+	 */
+	protected static void writeTaggedBoolField(@NotNull CodedOutputStream output, int tag, boolean value) throws IOException{
+		if (value){
+			output.writeUInt32NoTag(tag);
+			output.writeBoolNoTag(true);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code boolean} field, whose tag is of the given precomputed
+	 * size.
+	 */
+	protected static int taggedBoolFieldSize(int tagSize, boolean value){
+		return (value) ? tagSize + CodedOutputStream.computeBoolSizeNoTag(true) : 0;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code boolean} field, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedBoolFieldSize(@NotNull Collection<Boolean> values){
+		return values.size(); // See CodedOutputStream.computeBoolSizeNoTag
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a packed repeated {@code boolean} field, held in an array, not including the
+	 * tag.
+	 */
+	protected static int packedRepeatedBoolFieldSize(@NotNull boolean[] values){
+		return values.length; // See CodedOutputStream.computeBoolSizeNoTag
+	}
+
+
+
+	/**
+	 * Writes a {@link String} field, with the given precomputed tag, into a {@link ReverseOutput}. A
+	 * {@code null} value is treated the same way as an empty string.
+	 */
+	protected static void writeTaggedStringField(@NotNull ReverseOutput output, int tag, @Nullable String value){
+		if (value != null){
+			output.writeStringNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@link String} field, with the given precomputed tag. If the size pass has already
+	 * encoded the string, its encoding is copied rather than encoded again.
+	 */
+	protected static void writeTaggedStringField(@NotNull CodedOutputStream output, int tag, @Nullable String value, @NotNull WritePass pass) throws IOException{
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			pass.writeString(output, value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@link String} field, whose tag is of the given precomputed
+	 * size. If {@code pass} is not {@code null}, the string is encoded into it, to be copied by
+	 * {@link #writeTaggedStringField(CodedOutputStream, int, String, WritePass)}.
+	 */
+	protected static int taggedStringFieldSize(int tagSize, @Nullable String value, @Nullable WritePass pass){
+		if (value == null)
+			return 0;
+
+		return tagSize + ((pass == null) ? CodedOutputStream.computeStringSizeNoTag(value) : pass.stringSize(value));
+	}
+
+
+
+	/**
+	 * Writes a {@link LazyString} field, with the given precomputed tag, into a
+	 * {@link ReverseOutput}. A value that was read is written as the bytes it was read from. A
+	 * {@code null} value is treated the same way as an empty string.
+	 */
+	protected static void writeTaggedStringField(@NotNull ReverseOutput output, int tag, @Nullable LazyString value){
+		if (value == null)
+			return;
+
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			output.writeStringNoTag(value.toString());
+		else{
+			output.writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+			output.writeUInt32NoTag(value.encodedLength());
+		}
+		output.writeUInt32NoTag(tag);
+	}
+
+
+
+	/**
+	 * Writes a {@link LazyString} field, with the given precomputed tag. A value that was read is
+	 * written as the bytes it was read from; otherwise, the same as
+	 * {@link #writeTaggedStringField(CodedOutputStream, int, String, WritePass)}.
+	 */
+	protected static void writeTaggedStringField(@NotNull CodedOutputStream output, int tag, @Nullable LazyString value, @NotNull WritePass pass) throws IOException{
+		if (value == null)
+			return;
+
+		output.writeUInt32NoTag(tag);
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			pass.writeString(output, value.toString());
+		else{
+			output.writeUInt32NoTag(value.encodedLength());
+			output.writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@link LazyString} field, whose tag is of the given
+	 * precomputed size. Only values that weren't read are encoded into {@code pass}; those that were
+	 * are written as the bytes they were read from.
+	 */
+	protected static int taggedStringFieldSize(int tagSize, @Nullable LazyString value, @Nullable WritePass pass){
+		if (value == null)
+			return 0;
+
+		if (value.encoded() == null)
+			return taggedStringFieldSize(tagSize, value.toString(), pass);
+
+		int length = value.encodedLength();
+		return tagSize + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value as a {@link LazyString}, without decoding, or validating, its
+	 * UTF-8 encoding. The encoded bytes are copied out of the input.
+	 */
+	@NotNull
+	protected static LazyString readLazyString(@NotNull CodedInputStream input) throws IOException{
+		byte[] bytes = input.readByteArray();
+		return LazyString.of(bytes, 0, bytes.length);
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value as a {@link LazyString} over the bytes of the given
+	 * {@link ProtoReader}, without decoding, or validating, its UTF-8 encoding.
+	 */
+	@NotNull
+	protected static LazyString readLazyString(@NotNull ProtoReader input) throws IOException{
+		return input.readLazyString();
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value via the {@link StringInterner} of this codec, if one is set; the
+	 * encoding is then copied out of the input, to be looked up. Otherwise, the same as
+	 * {@link CodedInputStream#readStringRequireUtf8()}.
+	 */
+	@NotNull
+	protected final String readInternedString(@NotNull CodedInputStream input) throws IOException{
+		StringInterner interner = stringInterner;
+		if (interner == null)
+			return input.readStringRequireUtf8();
+
+		byte[] bytes = input.readByteArray();
+		return interner.decode(bytes, 0, bytes.length);
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value from the given {@link ProtoReader} via the
+	 * {@link StringInterner} of this codec, if one is set, looking its encoding up in place.
+	 * Otherwise, the same as {@link ProtoReader#readStringRequireUtf8()}.
+	 */
+	@NotNull
+	protected final String readInternedString(@NotNull ProtoReader input) throws IOException{
+		StringInterner interner = stringInterner;
+		return (interner == null) ? input.readStringRequireUtf8() : input.readInternedString(interner);
+	}
+
+
+
+	/**
+	 * Writes a byte array field, with the given precomputed tag, into a {@link ReverseOutput}. A
+	 * {@code null} value is treated the same way as a byte array of zero length.
+	 */
+	protected static void writeTaggedBytesField(@NotNull ReverseOutput output, int tag, @Nullable byte[] value){
+		if (value != null){
+			output.writeByteArrayNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a byte array field, with the given precomputed tag. A {@code null} value is treated
+	 * the same way as a byte array of zero length. When writing into a {@link SegmentedOutput}, large
+	 * values are written by reference; see {@link #write(SegmentedOutput, Object)}.
+	 */
+	protected static void writeTaggedBytesField(@NotNull CodedOutputStream output, int tag, @Nullable byte[] value, @NotNull WritePass pass) throws IOException{
+		if (value == null)
+			return;
+
+		output.writeUInt32NoTag(tag);
+		SegmentedOutput referencingOutput = pass.referencingOutput;
+		if ((referencingOutput != null) && (value.length >= referencingOutput.referenceThreshold())){
+			output.writeUInt32NoTag(value.length);
+			output.flush(); // The bytes written so far must precede the reference
+			referencingOutput.writeReference(value, 0, value.length);
+		}
+		else
+			output.writeByteArrayNoTag(value);
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a byte array field, whose tag is of the given precomputed
+	 * size.
+	 */
+	protected static int taggedBytesFieldSize(int tagSize, @Nullable byte[] value){
+		return (value == null) ? 0 : tagSize + CodedOutputStream.computeByteArraySizeNoTag(value);
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} field held in a {@link ByteBuffer} (the bytes between its position and
+	 * its limit), with the given precomputed tag, into a {@link ReverseOutput}. A {@code null} value
+	 * is not written.
+	 */
+	protected static void writeTaggedBytesField(@NotNull ReverseOutput output, int tag, @Nullable ByteBuffer value){
+		if (value != null){
+			output.writeByteBufferNoTag(value);
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} field held in a {@link ByteBuffer} (the bytes between its position and
+	 * its limit), with the given precomputed tag. A {@code null} value is not written. The position
+	 * of the buffer is not modified.
+	 *
+	 * Unlike a {@code byte[]} value, the bytes are always copied, even when writing a large value
+	 * into a {@link SegmentedOutput}, which can only reference byte arrays: read-only and direct
+	 * buffers, such as those produced by reading aliased {@code bytes} fields, don't expose one.
+	 */
+	protected static void writeTaggedBytesField(@NotNull CodedOutputStream output, int tag, @Nullable ByteBuffer value) throws IOException{
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			output.writeUInt32NoTag(value.remaining());
+			output.write(value.duplicate()); // Advances the position of the buffer it's given
+		}
+	}
+
+
+
+	/**
+	 * Returns the serialized size of a {@code bytes} field held in a {@link ByteBuffer}, whose tag
+	 * is of the given precomputed size.
+	 */
+	protected static int taggedBytesFieldSize(int tagSize, @Nullable ByteBuffer value){
+		if (value == null)
+			return 0;
+
+		int length = value.remaining();
+		return tagSize + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+	}
+
+
+
+	/**
+	 * Reads a {@code bytes} value as a read-only {@link ByteBuffer} that shares the bytes of the
+	 * input, if aliasing has been {@linkplain CodedInputStream#enableAliasing(boolean) enabled} on
+	 * it; otherwise, the bytes are copied.
+	 */
+	@NotNull
+	protected static ByteBuffer readAliasedBytes(@NotNull CodedInputStream input) throws IOException{
+		return input.readByteBuffer().asReadOnlyBuffer();
+	}
+
+
+
+	/**
+	 * Reads a {@code bytes} value as a read-only {@link ByteBuffer} that shares the bytes of the
+	 * given {@link ProtoReader}.
+	 */
+	@NotNull
+	protected static ByteBuffer readAliasedBytes(@NotNull ProtoReader input) throws IOException{
+		return input.readByteBuffer();
+	}
+
+
+
+	/**
+	 * Writes the given field of the user-defined type, at the given field number.
+	 */
+	public final void writeField(@NotNull CodedOutputStream output, int fieldNumber, @Nullable T value, @NotNull WritePass pass) throws IOException{
+		writeTaggedField(output, (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED, value, pass); // See WireFormat.makeTag
+	}
+
+
+
+	/**
+	 * Writes the given field of the user-defined type, with the given precomputed tag.
+	 */
+	public final void writeTaggedField(@NotNull CodedOutputStream output, int tag, @Nullable T value, @NotNull WritePass pass) throws IOException{
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			writeFieldNoTag(output, value, pass);
+		}
+	}
+
+
+	/**
+	 * Writes the given value of the user-defined type, sans the tag.
+	 * This is the equivalent of {@link CodedOutputStream#writeMessageNoTag(MessageLite)}.
+	 */
+	void writeFieldNoTag(@NotNull CodedOutputStream output, @NotNull T value, @NotNull WritePass pass) throws IOException{
+		int size = pass.nextMessageSize(this, value);
+		if (size == WritePass.SERIALIZED_FORM_RECORDED){
+			output.writeByteArrayNoTag(pass.nextSerializedForm());
+			return;
+		}
+
+		output.writeUInt32NoTag(size);
+		write(output, value, pass);
+	}
+
+
+
+	/**
+	 * Writes the values produced by the given iterator as a repeated field of the user-defined
+	 * type, at the given field number. Each value is sized and written on its own, as it is
+	 * produced, so memory use is bounded by the largest single value rather than by the whole
+	 * field, and the values need not be known in advance. This allows writing a huge repeated field,
+	 * backed by a database cursor, for example, directly into a stream.
+	 *
+	 * The occurrences of a repeated field need not be contiguous, so a value holding such a field
+	 * can be streamed by writing it with the field left empty, followed by the field itself.
+	 */
+	public final void writeRepeatedField(@NotNull CodedOutputStream output, int fieldNumber, @NotNull Iterator<? extends T> values) throws IOException{
+		WritePass pass = new WritePass(); // Its recorded sizes are replaced for each value
+		while (values.hasNext())
+			writeField(output, fieldNumber, values.next(), pass);
+	}
+
+
+
+	/**
+	 * Writes the given field of the user-defined type, with the given precomputed tag, into a
+	 * {@link ReverseOutput}.
+	 */
+	public final void writeTaggedField(@NotNull ReverseOutput output, int tag, @Nullable T value){
+		if (value != null){
+			SerializedFormCache<T> cache = serializedFormCache;
+			if (cache != null)
+				output.writeByteArrayNoTag(cache.serializedForm(this, value));
+			else{
+				int end = output.size();
+				writeReverse(output, value);
+				output.writeUInt32NoTag(output.size() - end);
+			}
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes the given field of the user-defined type, with the given precomputed tag, into a
+	 * {@link ProtoWriter}.
+	 */
+	public final void writeTaggedField(@NotNull ProtoWriter output, int tag, @Nullable T value, @NotNull WritePass pass){
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			writeFieldNoTag(output, value, pass);
+		}
+	}
+
+
+
+	/**
+	 * Writes the given value of the user-defined type, sans the tag, into a {@link ProtoWriter}.
+	 */
+	void writeFieldNoTag(@NotNull ProtoWriter output, @NotNull T value, @NotNull WritePass pass){
+		int size = pass.nextMessageSize(this, value);
+		if (size == WritePass.SERIALIZED_FORM_RECORDED){
+			output.writeByteArrayNoTag(pass.nextSerializedForm());
+			return;
+		}
+
+		output.writeUInt32NoTag(size);
+		write(output, value, pass);
+	}
+
+
+
+	/**
+	 * Writes the given lazily decoded field of the user-defined type, with the given precomputed
+	 * tag. A value that was read is written as the bytes it was read from, without being decoded.
+	 */
+	public final void writeTaggedField(@NotNull CodedOutputStream output, int tag, @Nullable LazyMessage<T> value, @NotNull WritePass pass) throws IOException{
+		if (value == null)
+			return;
+
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			writeTaggedField(output, tag, value.get(), pass);
+		else{
+			output.writeUInt32NoTag(tag);
+			output.writeUInt32NoTag(value.encodedLength());
+			output.writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+		}
+	}
+
+
+
+	/**
+	 * Writes the given lazily decoded field of the user-defined type, with the given precomputed
+	 * tag, into a {@link ReverseOutput}. A value that was read is written as the bytes it was read
+	 * from, without being decoded.
+	 */
+	public final void writeTaggedField(@NotNull ReverseOutput output, int tag, @Nullable LazyMessage<T> value){
+		if (value == null)
+			return;
+
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			writeTaggedField(output, tag, value.get());
+		else{
+			output.writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+			output.writeUInt32NoTag(value.encodedLength());
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes the given lazily decoded field of the user-defined type, with the given precomputed
+	 * tag, into a {@link ProtoWriter}. A value that was read is written as the bytes it was read
+	 * from, without being decoded.
+	 */
+	public final void writeTaggedField(@NotNull ProtoWriter output, int tag, @Nullable LazyMessage<T> value, @NotNull WritePass pass){
+		if (value == null)
+			return;
+
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			writeTaggedField(output, tag, value.get(), pass);
+		else{
+			output.writeUInt32NoTag(tag);
+			output.writeUInt32NoTag(value.encodedLength());
+			output.writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+		}
+	}
+
+
+
+	/**
+	 * Returns an {@link Iterable} over the elements of the given collection, in reverse order.
+	 * This is used when writing repeated fields into a {@link ReverseOutput}.
+	 */
+	@NotNull
+	protected static <E> Iterable<E> reversed(@NotNull Collection<E> values){
+		List<E> list = (values instanceof List) ? (List<E>)values : new ArrayList<>(values);
+		return () -> new Iterator<E>(){
+			private final ListIterator<E> iterator = list.listIterator(list.size());
+
+			@Override
+			public boolean hasNext(){
+				return iterator.hasPrevious();
+			}
+
+			@Override
+			public E next(){
+				return iterator.previous();
+			}
+		};
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code double} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static double[] readPackedDoubleArray(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeDoubles(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code double} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static double[] readPackedDoubleArray(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeDoubles(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code float} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static float[] readPackedFloatArray(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFloats(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code float} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static float[] readPackedFloatArray(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFloats(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int32} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedInt32Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).int32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedInt32Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).int32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int64} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedInt64Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).int64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedInt64Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).int64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint32} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedUInt32Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).int32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedUInt32Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).int32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint64} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedUInt64Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).int64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedUInt64Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).int64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint32} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedSInt32Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).sInt32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static int[] readPackedSInt32Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).sInt32Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint64} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedSInt64Array(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).sInt64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static long[] readPackedSInt64Array(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).sInt64Values();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed32} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static int[] readPackedFixed32Array(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed32s(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static int[] readPackedFixed32Array(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed32s(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed64} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static long[] readPackedFixed64Array(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed64s(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static long[] readPackedFixed64Array(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed64s(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed32} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static int[] readPackedSFixed32Array(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed32s(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static int[] readPackedSFixed32Array(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed32s(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed64} field, whose tag has just been read, into an array.
+	 * The number of values is known from the length of the field, so the array is allocated up
+	 * front, and a large field is converted into it in bulk, where that's faster.
+	 */
+	@NotNull
+	protected static long[] readPackedSFixed64Array(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed64s(input.readRawBytes(length), 0, length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array. The number of values is known from the length of the field,
+	 * so the array is allocated up front, and a large field is converted into it in bulk, directly
+	 * from the buffer of the reader, where that's faster.
+	 */
+	@NotNull
+	protected static long[] readPackedSFixed64Array(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return PackedFixedWidth.decodeFixed64s(input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code bool} field, whose tag has just been read, into an array of
+	 * exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static boolean[] readPackedBoolArray(@NotNull CodedInputStream input) throws IOException{
+		return VarintDecoder.read(input).boolValues();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code bool} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an array of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static boolean[] readPackedBoolArray(@NotNull ProtoReader input) throws IOException{
+		return VarintDecoder.read(input).boolValues();
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code double} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Double> readPackedDoubleList(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedDoubleArray(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code double} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Double> readPackedDoubleList(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedDoubleArray(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code float} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Float> readPackedFloatList(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedFloatArray(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code float} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Float> readPackedFloatList(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedFloatArray(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int32} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedInt32List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedInt32List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int64} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedInt64List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code int64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedInt64List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint32} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedUInt32List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedUInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedUInt32List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedUInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint64} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedUInt64List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedUInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code uint64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedUInt64List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedUInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint32} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedSInt32List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedSInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedSInt32List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedSInt32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint64} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedSInt64List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedSInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sint64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedSInt64List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedSInt64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed32} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedFixed32List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedFixed32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedFixed32List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedFixed32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed64} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedFixed64List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedFixed64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code fixed64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedFixed64List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedFixed64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed32} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedSFixed32List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedSFixed32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed32} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Integer> readPackedSFixed32List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedSFixed32Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed64} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedSFixed64List(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedSFixed64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code sfixed64} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Long> readPackedSFixed64List(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedSFixed64Array(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code bool} field, whose tag has just been read, into an
+	 * {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Boolean> readPackedBoolList(@NotNull CodedInputStream input) throws IOException{
+		return toList(readPackedBoolArray(input));
+	}
+
+
+
+	/**
+	 * Reads a packed repeated {@code bool} field, whose tag has just been read from a
+	 * {@link ProtoReader}, into an {@link ArrayList} of exactly the number of values in the field.
+	 */
+	@NotNull
+	protected static ArrayList<Boolean> readPackedBoolList(@NotNull ProtoReader input) throws IOException{
+		return toList(readPackedBoolArray(input));
+	}
+
+
+
+	/**
+	 * Returns an {@link ArrayList} of the given values.
+	 */
+	@NotNull
+	private static ArrayList<Double> toList(@NotNull double[] values){
+		ArrayList<Double> list = new ArrayList<>(values.length);
+		for (double value : values)
+			list.add(value);
+		return list;
+	}
+
+
+
+	/**
+	 * Returns an {@link ArrayList} of the given values.
+	 */
+	@NotNull
+	private static ArrayList<Float> toList(@NotNull float[] values){
+		ArrayList<Float> list = new ArrayList<>(values.length);
+		for (float value : values)
+			list.add(value);
+		return list;
+	}
+
+
+
+	/**
+	 * Returns an {@link ArrayList} of the given values.
+	 */
+	@NotNull
+	private static ArrayList<Integer> toList(@NotNull int[] values){
+		ArrayList<Integer> list = new ArrayList<>(values.length);
+		for (int value : values)
+			list.add(value);
+		return list;
+	}
+
+
+
+	/**
+	 * Returns an {@link ArrayList} of the given values.
+	 */
+	@NotNull
+	private static ArrayList<Long> toList(@NotNull long[] values){
+		ArrayList<Long> list = new ArrayList<>(values.length);
+		for (long value : values)
+			list.add(value);
+		return list;
+	}
+
+
+
+	/**
+	 * Returns an {@link ArrayList} of the given values.
+	 */
+	@NotNull
+	private static ArrayList<Boolean> toList(@NotNull boolean[] values){
+		ArrayList<Boolean> list = new ArrayList<>(values.length);
+		for (boolean value : values)
+			list.add(value);
+		return list;
+	}
+
+
+
+	/**
+	 * Reads a field of the user-defined type.
+	 * This is the equivalent of {@link CodedInputStream#readMessage(Parser, ExtensionRegistryLite)}
+	 */
+	public T readField(@NotNull CodedInputStream input) throws IOException{
+		int length = input.readRawVarint32();
+		int oldLimit = input.pushLimit(length);
+		T result = read(input);
+		input.checkLastTagWas(0);
+		input.popLimit(oldLimit);
+
+		return result;
+	}
+
+
+
+	/**
+	 * Reads a field of the user-defined type from the given {@link ProtoReader}.
+	 */
+	public T readField(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		int oldLimit = input.pushLimit(length);
+		T result = read(input);
+		input.checkLastTagWas(0);
+		input.popLimit(oldLimit);
+
+		return result;
+	}
+
+
+
+	/**
+	 * Reads a field of the user-defined type without decoding it; the returned {@link LazyMessage}
+	 * holds a copy of its encoding, and decodes it when first accessed.
+	 */
+	@NotNull
+	public final LazyMessage<T> readLazyField(@NotNull CodedInputStream input) throws IOException{
+		byte[] bytes = input.readByteArray();
+		return LazyMessage.of(this, bytes, 0, bytes.length);
+	}
+
+
+
+	/**
+	 * Reads a field of the user-defined type from the given {@link ProtoReader} without decoding
+	 * it; the returned {@link LazyMessage} refers to its encoding in the buffer of the reader, and
+	 * decodes it when first accessed.
+	 */
+	@NotNull
+	public final LazyMessage<T> readLazyField(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		return LazyMessage.of(this, input.buffer(), input.skip(length), length);
+	}
+
+
+
+	/**
+	 * Computes the serialized size of a field of the user-defined type, at the given field number.
+	 */
+	public final int computeSerializedSize(int fieldNumber, @Nullable T value){
+		return computeSerializedSize(fieldNumber, value, null);
+	}
+
+
+
+	/**
+	 * Computes the serialized size of a field of the user-defined type, at the given field number.
+	 * If {@code pass} is not {@code null}, the size of the value, followed by the sizes of its
+	 * sub-messages, are recorded into it.
+	 */
+	public final int computeSerializedSize(int fieldNumber, @Nullable T value, @Nullable WritePass pass){
+		return taggedFieldSize(CodedOutputStream.computeTagSize(fieldNumber), value, pass);
+	}
+
+
+
+	/**
+	 * Computes the serialized size of a field of the user-defined type, whose tag is of the given
+	 * precomputed size. If {@code pass} is not {@code null}, the size of the value, followed by the
+	 * sizes of its sub-messages, are recorded into it.
+	 */
+	public final int taggedFieldSize(int tagSize, @Nullable T value, @Nullable WritePass pass){
+		return (value == null) ? 0 : tagSize + computeSerializedSizeNoTag(value, pass);
+	}
+
+
+
+	/**
+	 * Computes the serialized size of a lazily decoded field of the user-defined type, whose tag is
+	 * of the given precomputed size. The size of a value that was read is that of the bytes it was
+	 * read from, and nothing is recorded for it in {@code pass}, as it's written by copying them.
+	 */
+	public final int taggedFieldSize(int tagSize, @Nullable LazyMessage<T> value, @Nullable WritePass pass){
+		if (value == null)
+			return 0;
+
+		if (value.encoded() == null)
+			return taggedFieldSize(tagSize, value.get(), pass);
+
+		int length = value.encodedLength();
+		return tagSize + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+	}
+
+
+
+	/**
+	 * Computes the serialized size of a field of the user-defined type, sans the tag.
+	 * This is the equivalent of {@link CodedOutputStream#computeMessageSizeNoTag(MessageLite)}.
+	 */
+	int computeSerializedSizeNoTag(@NotNull T value, @Nullable WritePass pass){
+		SerializedFormCache<T> cache = serializedFormCache; // Read once, and recorded in the pass
+		int fieldSize;
+		if (pass == null)
+			fieldSize = (cache != null) ? cache.serializedForm(this, value).length : computeSerializedSize(value, null);
+		else{
+			int index = pass.reserve();
+			if (cache != null)
+				fieldSize = pass.setSerializedForm(index, cache.serializedForm(this, value));
+			else{
+				fieldSize = computeSerializedSize(value, pass);
+				pass.set(index, fieldSize);
+			}
+		}
+
 		return CodedOutputStream.computeUInt32SizeNoTag(fieldSize) + fieldSize;
 	}
 
@@ -0,0 +1,171 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+
+/**
+ * A bounded pool of reusable {@link EncodeContext}s and {@link DecodeContext}s. Encoding and
+ * decoding through a context reuses its buffers, so that in steady state they allocate nothing
+ * beyond the user objects.
+ *
+ * Contexts are acquired from the pool, used by a single thread at a time, and returned to it by
+ * closing them:
+ * <pre>
+ * try (EncodeContext context = CodecContexts.DEFAULT.acquireEncodeContext()){
+ *     codec.write(context, value, outputStream);
+ * }
+ * </pre>
+ *
+ * The pool is lock-free and keeps no thread-local state, so it is safe to use from any number of
+ * platform or virtual threads. It retains at most a given number of contexts of each kind, and
+ * buffers that grew beyond a given size are dropped when their context is returned, so a single
+ * huge message doesn't pin a huge buffer forever.
+ *
+ * A pool may also have a {@link StringCache}, shared by all its encode contexts, for values that
+ * repeat the same short strings many times.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class CodecContexts{
+
+
+
+	/**
+	 * The default maximum number of contexts of each kind retained by a pool.
+	 */
+	public static final int DEFAULT_MAX_POOLED_CONTEXTS = 64;
+
+
+
+	/**
+	 * The default maximum size, in bytes, of a buffer retained by a pooled context.
+	 */
+	public static final int DEFAULT_MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+
+
+	/**
+	 * A shared pool with the default limits.
+	 */
+	@NotNull
+	public static final CodecContexts DEFAULT = new CodecContexts(DEFAULT_MAX_POOLED_CONTEXTS, DEFAULT_MAX_RETAINED_BUFFER_SIZE);
+
+
+
+	/**
+	 * The pooled encode contexts.
+	 */
+	@NotNull
+	private final ObjectPool<EncodeContext> encodeContexts;
+
+
+
+	/**
+	 * The pooled decode contexts.
+	 */
+	@NotNull
+	private final ObjectPool<DecodeContext> decodeContexts;
+
+
+
+	/**
+	 * The maximum size, in bytes, of a buffer retained by a pooled context.
+	 */
+	private final int maxRetainedBufferSize;
+
+
+
+	/**
+	 * The cache of string encodings used by the encode contexts, if any.
+	 */
+	@Nullable
+	final StringCache stringCache;
+
+
+
+	/**
+	 * Creates a new pool retaining at most the given number of contexts of each kind, and buffers
+	 * of at most the given size.
+	 */
+	public CodecContexts(int maxPooledContexts, int maxRetainedBufferSize){
+		this(maxPooledContexts, maxRetainedBufferSize, null);
+	}
+
+
+
+	/**
+	 * Creates a new pool retaining at most the given number of contexts of each kind, and buffers
+	 * of at most the given size, whose encode contexts use the given {@link StringCache}, if any.
+	 */
+	public CodecContexts(int maxPooledContexts, int maxRetainedBufferSize, @Nullable StringCache stringCache){
+		if (maxRetainedBufferSize < 0)
+			throw new IllegalArgumentException("Negative buffer size: " + maxRetainedBufferSize);
+
+		this.encodeContexts = new ObjectPool<>(maxPooledContexts);
+		this.decodeContexts = new ObjectPool<>(maxPooledContexts);
+		this.maxRetainedBufferSize = maxRetainedBufferSize;
+		this.stringCache = stringCache;
+	}
+
+
+
+	/**
+	 * Returns the cache of string encodings used by the encode contexts of this pool, if any.
+	 */
+	@Nullable
+	public StringCache stringCache(){
+		return stringCache;
+	}
+
+
+
+	/**
+	 * Returns an {@link EncodeContext} for the exclusive use of the caller, until it is closed.
+	 */
+	@NotNull
+	public EncodeContext acquireEncodeContext(){
+		EncodeContext context = encodeContexts.poll();
+		if (context == null)
+			context = new EncodeContext(this);
+		context.open();
+		return context;
+	}
+
+
+
+	/**
+	 * Returns a {@link DecodeContext} for the exclusive use of the caller, until it is closed.
+	 */
+	@NotNull
+	public DecodeContext acquireDecodeContext(){
+		DecodeContext context = decodeContexts.poll();
+		if (context == null)
+			context = new DecodeContext(this);
+		context.open();
+		return context;
+	}
+
+
+
+	/**
+	 * Returns the given, closed, context to the pool.
+	 */
+	void release(@NotNull EncodeContext context){
+		context.trim(maxRetainedBufferSize);
+		encodeContexts.offer(context);
+	}
+
+
+
+	/**
+	 * Returns the given, closed, context to the pool.
+	 */
+	void release(@NotNull DecodeContext context){
+		decodeContexts.offer(context);
+	}
+
+
+
+}
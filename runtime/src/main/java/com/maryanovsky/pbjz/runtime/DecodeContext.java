@@ -0,0 +1,201 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+
+/**
+ * A reusable context for decoding values via {@link Codec#read(DecodeContext, InputStream)} and
+ * {@link Codec#parseFrom(DecodeContext, byte[], int, int)}. It holds a {@link CodedInputStream},
+ * with its buffer, which is reused from one stream to the next, and a {@link ProtoReader}, which
+ * is reused from one array to the next, reading each in place.
+ *
+ * Contexts are obtained from {@link CodecContexts#acquireDecodeContext()}, and are returned to the
+ * pool by {@link #close()}. A context must only be used by one thread at a time.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class DecodeContext implements AutoCloseable{
+
+
+
+	/**
+	 * The array {@link #reader} reads from between values, so that it doesn't hold on to the last
+	 * one.
+	 */
+	@NotNull
+	private static final byte[] EMPTY = new byte[0];
+
+
+
+	/**
+	 * The pool this context belongs to.
+	 */
+	@NotNull
+	private final CodecContexts pool;
+
+
+
+	/**
+	 * The stream {@link #input} reads from.
+	 */
+	@NotNull
+	private final Source source = new Source();
+
+
+
+	/**
+	 * The input we decode values from streams with.
+	 */
+	@NotNull
+	private CodedInputStream input = CodedInputStream.newInstance(source);
+
+
+
+	/**
+	 * The reader we decode values from arrays with.
+	 */
+	@NotNull
+	private final ProtoReader reader = ProtoReader.newInstance(EMPTY);
+
+
+
+	/**
+	 * Whether the context is currently closed (in the pool).
+	 */
+	private boolean closed = true;
+
+
+
+	/**
+	 * Creates a new context, belonging to the given pool.
+	 */
+	DecodeContext(@NotNull CodecContexts pool){
+		this.pool = pool;
+	}
+
+
+
+	/**
+	 * Marks the context as acquired from the pool.
+	 */
+	void open(){
+		closed = false;
+	}
+
+
+
+	/**
+	 * Prepares the context for reading a value from the given stream, and returns the
+	 * {@link CodedInputStream} to read it from. Each call must be followed by a call to
+	 * {@link #end(boolean)}.
+	 */
+	@NotNull
+	CodedInputStream begin(@NotNull InputStream stream){
+		checkNotClosed();
+		source.stream = stream;
+		input.resetSizeCounter();
+		return input;
+	}
+
+
+
+	/**
+	 * Prepares the context for reading a value from the given range of the given array, and returns
+	 * the {@link ProtoReader} to read it from, in place. Each call must be followed by a call to
+	 * {@link #end()}.
+	 */
+	@NotNull
+	ProtoReader begin(@NotNull byte[] data, int offset, int length){
+		checkNotClosed();
+		reader.reset(data, offset, length);
+		return reader;
+	}
+
+
+
+	/**
+	 * Finishes reading a value from a stream. If reading didn't complete successfully, the
+	 * {@link CodedInputStream}, which may hold unread bytes, is replaced.
+	 */
+	void end(boolean completed){
+		source.stream = null;
+		if (!completed)
+			input = CodedInputStream.newInstance(source);
+	}
+
+
+
+	/**
+	 * Finishes reading a value from an array.
+	 */
+	void end(){
+		reader.reset(EMPTY, 0, 0);
+	}
+
+
+
+	/**
+	 * Throws an exception if the context is closed.
+	 */
+	private void checkNotClosed(){
+		if (closed)
+			throw new IllegalStateException("DecodeContext used after being closed");
+	}
+
+
+
+	/**
+	 * Returns the context to its pool. The context must not be used after this call.
+	 */
+	@Override
+	public void close(){
+		if (closed)
+			return;
+
+		closed = true;
+		pool.release(this);
+	}
+
+
+
+	/**
+	 * The stream {@link DecodeContext#input} reads from; it reads from the current stream.
+	 */
+	private static final class Source extends InputStream{
+
+
+
+		/**
+		 * The stream to read from; {@code null} if there is no current input.
+		 */
+		@Nullable
+		private InputStream stream = null;
+
+
+
+		@Override
+		public int read() throws IOException{
+			return (stream == null) ? -1 : stream.read();
+		}
+
+
+
+		@Override
+		public int read(@NotNull byte[] bytes, int offset, int length) throws IOException{
+			return (stream == null) ? -1 : stream.read(bytes, offset, length);
+		}
+
+
+
+	}
+
+
+
+}
@@ -0,0 +1,282 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+
+/**
+ * A reusable context for encoding values via {@link Codec#write(EncodeContext, Object)} and
+ * {@link Codec#write(EncodeContext, Object, OutputStream)}. It holds a {@link CodedOutputStream}
+ * with its buffer, a {@link WritePass}, and a growable buffer into which
+ * values can be encoded, all of which are reused from one value to the next.
+ *
+ * Contexts are obtained from {@link CodecContexts#acquireEncodeContext()}, and are returned to the
+ * pool by {@link #close()}. A context must only be used by one thread at a time.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class EncodeContext implements AutoCloseable{
+
+
+
+	/**
+	 * The size of the buffer of the {@link CodedOutputStream}.
+	 */
+	private static final int OUTPUT_BUFFER_SIZE = 4096;
+
+
+
+	/**
+	 * The pool this context belongs to.
+	 */
+	@NotNull
+	private final CodecContexts pool;
+
+
+
+	/**
+	 * The state of the write pass of the value being written.
+	 */
+	@NotNull
+	final WritePass pass = new WritePass();
+
+
+
+	/**
+	 * The stream into which {@link #output} writes.
+	 */
+	@NotNull
+	private final Sink sink = new Sink();
+
+
+
+	/**
+	 * The output we encode values into.
+	 */
+	@NotNull
+	private CodedOutputStream output = CodedOutputStream.newInstance(sink, OUTPUT_BUFFER_SIZE);
+
+
+
+	/**
+	 * Whether the context is currently closed (in the pool).
+	 */
+	private boolean closed = true;
+
+
+
+	/**
+	 * Creates a new context, belonging to the given pool.
+	 */
+	EncodeContext(@NotNull CodecContexts pool){
+		this.pool = pool;
+		pass.stringCache = pool.stringCache;
+	}
+
+
+
+	/**
+	 * Marks the context as acquired from the pool.
+	 */
+	void open(){
+		closed = false;
+	}
+
+
+
+	/**
+	 * Prepares the context for writing a value and returns the {@link CodedOutputStream} to write
+	 * it into. If the given target stream is {@code null}, the value is written into the buffer of
+	 * the context, replacing its previous contents. Each call must be followed by a call to
+	 * {@link #end(boolean)}.
+	 */
+	@NotNull
+	CodedOutputStream begin(@Nullable OutputStream target){
+		if (closed)
+			throw new IllegalStateException("EncodeContext used after being closed");
+
+		pass.clear();
+		sink.target = target;
+		if (target == null)
+			sink.size = 0;
+		return output;
+	}
+
+
+
+	/**
+	 * Makes sure the buffer of the context can hold a value of the given size without growing.
+	 */
+	void ensureCapacity(int size){
+		sink.ensureCapacity(size);
+	}
+
+
+
+	/**
+	 * Finishes writing a value. If writing didn't complete successfully, the
+	 * {@link CodedOutputStream}, which may hold unflushed bytes, is replaced.
+	 */
+	void end(boolean completed){
+		sink.target = null;
+		if (!completed){
+			output = CodedOutputStream.newInstance(sink, OUTPUT_BUFFER_SIZE);
+			sink.size = 0;
+		}
+	}
+
+
+
+	/**
+	 * Drops buffers larger than the given size, so that the pool doesn't retain them.
+	 */
+	void trim(int maxRetainedBufferSize){
+		sink.size = 0;
+		if (sink.buffer.length > maxRetainedBufferSize)
+			sink.buffer = Sink.EMPTY_BUFFER;
+		pass.trim(maxRetainedBufferSize);
+	}
+
+
+
+	/**
+	 * Returns the number of bytes of the value last written into the buffer of this context.
+	 */
+	public int size(){
+		return sink.size;
+	}
+
+
+
+	/**
+	 * Returns a copy of the value last written into the buffer of this context.
+	 */
+	@NotNull
+	public byte[] toByteArray(){
+		return Arrays.copyOf(sink.buffer, sink.size);
+	}
+
+
+
+	/**
+	 * Returns a read-only {@link ByteBuffer} wrapping (not copying) the value last written into the
+	 * buffer of this context. The returned buffer is only valid until the context is reused or
+	 * closed.
+	 */
+	@NotNull
+	public ByteBuffer toByteBuffer(){
+		return ByteBuffer.wrap(sink.buffer, 0, sink.size).asReadOnlyBuffer();
+	}
+
+
+
+	/**
+	 * Writes the value last written into the buffer of this context into the given stream.
+	 */
+	public void writeTo(@NotNull OutputStream output) throws IOException{
+		output.write(sink.buffer, 0, sink.size);
+	}
+
+
+
+	/**
+	 * Returns the context to its pool. The context must not be used after this call.
+	 */
+	@Override
+	public void close(){
+		if (closed)
+			return;
+
+		closed = true;
+		pool.release(this);
+	}
+
+
+
+	/**
+	 * The stream {@link EncodeContext#output} writes into; it forwards the bytes to the current
+	 * target stream or, if there is none, appends them to its own buffer.
+	 */
+	private static final class Sink extends OutputStream{
+
+
+
+		/**
+		 * The initial, empty, buffer.
+		 */
+		@NotNull
+		private static final byte[] EMPTY_BUFFER = new byte[0];
+
+
+
+		/**
+		 * The stream to forward the bytes to; {@code null} to append them to {@link #buffer}.
+		 */
+		@Nullable
+		private OutputStream target = null;
+
+
+
+		/**
+		 * The buffer holding the bytes written while there was no target stream.
+		 */
+		@NotNull
+		private byte[] buffer = EMPTY_BUFFER;
+
+
+
+		/**
+		 * The number of bytes in {@link #buffer}.
+		 */
+		private int size = 0;
+
+
+
+		/**
+		 * Makes sure the buffer can hold the given number of bytes.
+		 */
+		private void ensureCapacity(int capacity){
+			if (capacity > buffer.length)
+				buffer = Arrays.copyOf(buffer, Math.max(capacity, Math.min(buffer.length * 2, Integer.MAX_VALUE - 8)));
+		}
+
+
+
+		@Override
+		public void write(int b) throws IOException{
+			if (target != null)
+				target.write(b);
+			else{
+				ensureCapacity(size + 1);
+				buffer[size++] = (byte)b;
+			}
+		}
+
+
+
+		@Override
+		public void write(@NotNull byte[] bytes, int offset, int length) throws IOException{
+			if (target != null)
+				target.write(bytes, offset, length);
+			else{
+				ensureCapacity(size + length);
+				System.arraycopy(bytes, offset, buffer, size, length);
+				size += length;
+			}
+		}
+
+
+
+	}
+
+
+
+}
@@ -34,6 +34,45 @@ public abstract class EnumCodec<E extends Enum<E>>{
 
 
 
+	/**
+	 * Writes the given user-defined enum-type value into a {@link CodedOutputStream}, with the
+	 * given precomputed tag.
+	 */
+	public final void writeTaggedField(@NotNull CodedOutputStream output, int tag, @Nullable E value) throws IOException{
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			output.writeEnumNoTag(toEncodedValue(value));
+		}
+	}
+
+
+
+	/**
+	 * Writes the given user-defined enum-type value into a {@link ReverseOutput}, with the given
+	 * precomputed tag.
+	 */
+	public final void writeTaggedField(@NotNull ReverseOutput output, int tag, @Nullable E value){
+		if (value != null){
+			output.writeInt32NoTag(toEncodedValue(value)); // See CodedOutputStream.writeEnumNoTag
+			output.writeUInt32NoTag(tag);
+		}
+	}
+
+
+
+	/**
+	 * Writes the given user-defined enum-type value into a {@link ProtoWriter}, with the given
+	 * precomputed tag.
+	 */
+	public final void writeTaggedField(@NotNull ProtoWriter output, int tag, @Nullable E value){
+		if (value != null){
+			output.writeUInt32NoTag(tag);
+			output.writeEnumNoTag(toEncodedValue(value));
+		}
+	}
+
+
+
 	/**
 	 * Reads a field of the user-defined enum-type from the given {@link CodedInputStream}.
 	 */
@@ -44,6 +83,16 @@ public abstract class EnumCodec<E extends Enum<E>>{
 
 
 
+	/**
+	 * Reads a field of the user-defined enum-type from the given {@link ProtoReader}.
+	 */
+	@Nullable
+	public final E readField(@NotNull ProtoReader input) throws IOException{
+		return fromEncodedValue(input.readEnum());
+	}
+
+
+
 	/**
 	 * Computes and returns the serialized size of the given user-defined enum-type, at the given
 	 * field number.
@@ -61,6 +110,17 @@ public abstract class EnumCodec<E extends Enum<E>>{
 
 
 
+	/**
+	 * Computes and returns the serialized size of the given user-defined enum-type, whose tag is of
+	 * the given precomputed size. Like the {@code writeTaggedField} methods, this counts every
+	 * non-{@code null} value, including the one encoded as 0.
+	 */
+	public final int taggedFieldSize(int tagSize, @Nullable E value){
+		return (value == null) ? 0 : tagSize + CodedOutputStream.computeEnumSizeNoTag(toEncodedValue(value));
+	}
+
+
+
 	/**
 	 * Returns the integer representing the given enum value in the protobuf wire format.
 	 */
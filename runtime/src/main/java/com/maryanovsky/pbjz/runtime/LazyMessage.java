@@ -0,0 +1,203 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+
+
+/**
+ * A message-typed field value that is decoded only when it's first accessed. Codecs generated with
+ * the {@code lazy_messages} option hold singular message fields in these, and only record where
+ * the encoded bytes of the sub-message are when reading them, so sub-messages that are never
+ * accessed (such as the payload of an envelope that is only routed according to its headers) cost
+ * no decoding at all. A value that was read is written back as the same bytes it was read from,
+ * without being encoded again; to change the field, replace it with a new {@link LazyMessage}.
+ *
+ * When read from a {@link ProtoReader}, the bytes are those of its buffer, which must therefore
+ * not be modified while the value is in use; when read from a
+ * {@link com.google.protobuf.CodedInputStream}, they are copied.
+ *
+ * The decoded value is cached: concurrent first accesses from several threads may each decode
+ * it, but they all see a completely decoded value. Since decoding is deferred, so is detecting a
+ * malformed sub-message; it makes {@link #get()} throw an {@link IllegalStateException}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class LazyMessage<T>{
+
+
+
+	/**
+	 * The codec with which the value is decoded; {@code null} if it was created from a value.
+	 */
+	@Nullable
+	private final Codec<T> codec;
+
+
+
+	/**
+	 * The array holding the encoding of the value; {@code null} if it was created from a value.
+	 */
+	@Nullable
+	private final byte[] bytes;
+
+
+
+	/**
+	 * The index of the encoding in {@link #bytes}.
+	 */
+	private final int offset;
+
+
+
+	/**
+	 * The length of the encoding in {@link #bytes}.
+	 */
+	private final int encodedLength;
+
+
+
+	/**
+	 * The decoded value; {@code null} until it's first accessed. Volatile, so that a value decoded
+	 * by one thread is safely published to others, whatever the user-defined type.
+	 */
+	@Nullable
+	private volatile T value;
+
+
+
+	/**
+	 * Creates a new {@link LazyMessage} with the given encoding or value.
+	 */
+	private LazyMessage(@Nullable Codec<T> codec, @Nullable byte[] bytes, int offset, int encodedLength, @Nullable T value){
+		this.codec = codec;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.encodedLength = encodedLength;
+		this.value = value;
+	}
+
+
+
+	/**
+	 * Returns a {@link LazyMessage} holding the given value.
+	 */
+	@NotNull
+	public static <T> LazyMessage<T> of(@NotNull T value){
+		return new LazyMessage<>(null, null, 0, 0, value);
+	}
+
+
+
+	/**
+	 * Returns a {@link LazyMessage} whose value is encoded in the given range of the given array, to
+	 * be decoded with the given codec. The array is not copied.
+	 */
+	@NotNull
+	static <T> LazyMessage<T> of(@NotNull Codec<T> codec, @NotNull byte[] bytes, int offset, int length){
+		return new LazyMessage<>(codec, bytes, offset, length, null);
+	}
+
+
+
+	/**
+	 * Returns the array holding the encoding of the value, if it was read rather than created from
+	 * a value; {@code null} otherwise. This doesn't depend on whether the value has been decoded, so
+	 * that computing the size of a message and writing it agree on how the value is written even if
+	 * it's decoded concurrently in between.
+	 */
+	@Nullable
+	byte[] encoded(){
+		return bytes;
+	}
+
+
+
+	/**
+	 * Returns the index of the encoding in {@link #encoded()}.
+	 */
+	int encodedOffset(){
+		return offset;
+	}
+
+
+
+	/**
+	 * Returns the length of the encoding in {@link #encoded()}.
+	 */
+	int encodedLength(){
+		return encodedLength;
+	}
+
+
+
+	/**
+	 * Returns whether the value has been decoded (or was created from a value).
+	 */
+	public boolean isDecoded(){
+		return value != null;
+	}
+
+
+
+	/**
+	 * Returns the value, decoding it on the first call.
+	 *
+	 * @throws IllegalStateException if the encoding of the value is malformed.
+	 */
+	@NotNull
+	public T get(){
+		T result = value;
+		if (result == null){
+			try{
+				result = codec.parseFrom(ProtoReader.newInstance(bytes, offset, encodedLength));
+			} catch (IOException e){
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			value = result;
+		}
+		return result;
+	}
+
+
+
+	/**
+	 * Returns whether the given object is a {@link LazyMessage} with an equal value. The values
+	 * are decoded, if needed.
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (this == o)
+			return true;
+		if (!(o instanceof LazyMessage))
+			return false;
+
+		return get().equals(((LazyMessage<?>)o).get());
+	}
+
+
+
+	/**
+	 * Returns the hash code of the value, decoding it if needed.
+	 */
+	@Override
+	public int hashCode(){
+		return get().hashCode();
+	}
+
+
+
+	/**
+	 * Returns the string representation of the value, decoding it if needed.
+	 */
+	@NotNull
+	@Override
+	public String toString(){
+		return String.valueOf(get());
+	}
+
+
+
+}
@@ -0,0 +1,204 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+
+
+/**
+ * A {@code string} value that is decoded from UTF-8 only when it's first accessed. Codecs
+ * generated with the {@code lazy_strings} option hold singular {@code string} fields in these,
+ * and only record where the encoded bytes are when reading them, so strings that are never
+ * accessed cost neither decoding nor allocating a {@link String}. A value that was read is
+ * written back as the same bytes it was read from, without being encoded again.
+ *
+ * When read from a {@link ProtoReader}, the bytes are those of its buffer, which must therefore
+ * not be modified while the value is in use; when read from a
+ * {@link com.google.protobuf.CodedInputStream}, they are copied.
+ *
+ * The decoded string is cached via a racy single check: concurrent first accesses from several
+ * threads may each decode it, but as {@link String} is immutable, they all see a complete value.
+ * Since decoding is deferred, so is validating the UTF-8; an invalid encoding makes the accessing
+ * methods throw an {@link IllegalStateException}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class LazyString implements CharSequence{
+
+
+
+	/**
+	 * The array holding the UTF-8 encoding of the value; {@code null} if it was created from a
+	 * {@link String}.
+	 */
+	@Nullable
+	private final byte[] bytes;
+
+
+
+	/**
+	 * The index of the encoding in {@link #bytes}.
+	 */
+	private final int offset;
+
+
+
+	/**
+	 * The length of the encoding in {@link #bytes}.
+	 */
+	private final int encodedLength;
+
+
+
+	/**
+	 * The decoded value; {@code null} until it's first accessed. Not volatile, as a {@link String}
+	 * is safely published even via a data race.
+	 */
+	@Nullable
+	private String value;
+
+
+
+	/**
+	 * Creates a new {@link LazyString} with the given encoding or value.
+	 */
+	private LazyString(@Nullable byte[] bytes, int offset, int encodedLength, @Nullable String value){
+		this.bytes = bytes;
+		this.offset = offset;
+		this.encodedLength = encodedLength;
+		this.value = value;
+	}
+
+
+
+	/**
+	 * Returns a {@link LazyString} holding the given value.
+	 */
+	@NotNull
+	public static LazyString of(@NotNull String value){
+		return new LazyString(null, 0, 0, value);
+	}
+
+
+
+	/**
+	 * Returns a {@link LazyString} whose value is encoded in the given range of the given array.
+	 * The array is not copied.
+	 */
+	@NotNull
+	static LazyString of(@NotNull byte[] bytes, int offset, int length){
+		return new LazyString(bytes, offset, length, null);
+	}
+
+
+
+	/**
+	 * Returns the array holding the UTF-8 encoding of the value, if it was read rather than created
+	 * from a {@link String}; {@code null} otherwise. This doesn't depend on whether the value has
+	 * been decoded, so that computing the size of a message and writing it agree on how the value
+	 * is written even if it's decoded concurrently in between.
+	 */
+	@Nullable
+	byte[] encoded(){
+		return bytes;
+	}
+
+
+
+	/**
+	 * Returns the index of the encoding in {@link #encoded()}.
+	 */
+	int encodedOffset(){
+		return offset;
+	}
+
+
+
+	/**
+	 * Returns the length of the encoding in {@link #encoded()}.
+	 */
+	int encodedLength(){
+		return encodedLength;
+	}
+
+
+
+	/**
+	 * Returns the value, decoding it on the first call.
+	 *
+	 * @throws IllegalStateException if the value isn't valid UTF-8.
+	 */
+	@NotNull
+	@Override
+	public String toString(){
+		String result = value;
+		if (result == null){
+			try{
+				result = Utf8.decode(bytes, offset, encodedLength);
+			} catch (MalformedProtoException e){
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+			value = result;
+		}
+		return result;
+	}
+
+
+
+	/**
+	 * Returns the length of the value, decoding it if needed.
+	 */
+	@Override
+	public int length(){
+		return toString().length();
+	}
+
+
+
+	/**
+	 * Returns the character at the given index of the value, decoding it if needed.
+	 */
+	@Override
+	public char charAt(int index){
+		return toString().charAt(index);
+	}
+
+
+
+	/**
+	 * Returns the given subsequence of the value, decoding it if needed.
+	 */
+	@NotNull
+	@Override
+	public CharSequence subSequence(int start, int end){
+		return toString().subSequence(start, end);
+	}
+
+
+
+	/**
+	 * Returns whether the given object is a {@link LazyString} with the same value.
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (this == o)
+			return true;
+		if (!(o instanceof LazyString))
+			return false;
+
+		return toString().equals(o.toString());
+	}
+
+
+
+	/**
+	 * Returns the hash code of the value, which is the same as that of the equal {@link String}.
+	 */
+	@Override
+	public int hashCode(){
+		return toString().hashCode();
+	}
+
+
+
+}
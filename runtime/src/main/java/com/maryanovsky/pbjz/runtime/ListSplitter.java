@@ -0,0 +1,106 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+
+
+/**
+ * Splits a large list of elements into several values of a user-defined type, each holding a
+ * sub-list of the elements and encoding into at most a given number of bytes. This is useful when
+ * the transport limits the size of a single message.
+ *
+ * The elements are packed greedily, in order. The size of each value is computed incrementally,
+ * from the size of a value holding no elements plus the size each element adds to it, so no value
+ * is encoded, or even sized as a whole, in the process.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class ListSplitter{
+
+
+
+	/**
+	 * Splits the given elements of a repeated message field into values of the user-defined type
+	 * of the given codec, created by the given factory from sub-lists of the elements, so that each
+	 * value encodes into at most the given number of bytes.
+	 *
+	 * @param codec The codec of the values holding the elements.
+	 * @param elements The elements to split.
+	 * @param elementCodec The codec of the elements.
+	 * @param fieldNumber The number of the repeated field holding the elements.
+	 * @param factory Creates a value holding the given sub-list of elements. The sub-lists are views
+	 * of {@code elements}.
+	 * @param maxSize The maximum serialized size of each value.
+	 *
+	 * @throws IllegalArgumentException if a value holding a single one of the elements is larger
+	 * than {@code maxSize}.
+	 */
+	@NotNull
+	public static <E, T> List<T> split(@NotNull Codec<T> codec, @NotNull List<E> elements, @NotNull Codec<E> elementCodec, int fieldNumber, @NotNull Function<List<E>, T> factory, int maxSize){
+		return split(codec, elements, element -> elementCodec.computeSerializedSize(fieldNumber, element), factory, maxSize);
+	}
+
+
+
+	/**
+	 * Splits the given elements into values of the user-defined type of the given codec, created by
+	 * the given factory from sub-lists of the elements, so that each value encodes into at most the
+	 * given number of bytes.
+	 *
+	 * The size of each element must be the number of bytes it adds to the serialized size of a value
+	 * holding it. For a packed field, whose length prefix grows with the number of its elements,
+	 * that is the size of the encoded element, and {@code maxSize} should be reduced by 4 bytes, the
+	 * most the prefix can grow by.
+	 *
+	 * @param codec The codec of the values holding the elements.
+	 * @param elements The elements to split.
+	 * @param elementSize Returns the size of an element.
+	 * @param factory Creates a value holding the given sub-list of elements. The sub-lists are views
+	 * of {@code elements}.
+	 * @param maxSize The maximum serialized size of each value.
+	 *
+	 * @throws IllegalArgumentException if a value holding a single one of the elements is larger
+	 * than {@code maxSize}.
+	 */
+	@NotNull
+	public static <E, T> List<T> split(@NotNull Codec<T> codec, @NotNull List<E> elements, @NotNull ToIntFunction<? super E> elementSize, @NotNull Function<List<E>, T> factory, int maxSize){
+		long emptySize = codec.computeSerializedSize(factory.apply(Collections.emptyList()));
+		List<T> result = new ArrayList<>();
+		int start = 0;
+		long size = emptySize;
+		int i = 0;
+		for (E element : elements){
+			int addedSize = elementSize.applyAsInt(element);
+			if (emptySize + addedSize > maxSize)
+				throw new IllegalArgumentException("Element " + i + " doesn't fit into " + maxSize + " bytes on its own");
+
+			if (size + addedSize > maxSize){
+				result.add(factory.apply(elements.subList(start, i)));
+				start = i;
+				size = emptySize;
+			}
+			size += addedSize;
+			++i;
+		}
+		if (start < i)
+			result.add(factory.apply(elements.subList(start, i)));
+
+		return result;
+	}
+
+
+
+	/**
+	 * Private constructor; the class only has static methods.
+	 */
+	private ListSplitter(){}
+
+
+
+}
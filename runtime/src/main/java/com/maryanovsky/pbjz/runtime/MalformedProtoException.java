@@ -0,0 +1,35 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+
+
+/**
+ * Thrown by the runtime's own decoding code, such as {@link ProtoReader}, when the input isn't a
+ * well-formed protobuf encoding: a truncated field, a malformed varint or tag, invalid UTF-8, etc.
+ * Decoding via a {@link com.google.protobuf.CodedInputStream} may instead throw the
+ * {@link com.google.protobuf.InvalidProtocolBufferException} it throws for the same input; both
+ * are {@link IOException}s.
+ *
+ * @author Alexander Maryanovsky
+ */
+public class MalformedProtoException extends IOException{
+
+
+
+	private static final long serialVersionUID = 1L;
+
+
+
+	/**
+	 * Creates a new exception with the given message.
+	 */
+	public MalformedProtoException(@NotNull String message){
+		super(message);
+	}
+
+
+
+}
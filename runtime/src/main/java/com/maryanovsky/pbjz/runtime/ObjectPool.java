@@ -0,0 +1,92 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+
+/**
+ * A bounded, lock-free pool of objects. Neither taking nor returning an object allocates, and no
+ * thread-local state is used, so the pool behaves the same with platform and virtual threads.
+ *
+ * @author Alexander Maryanovsky
+ */
+final class ObjectPool<E>{
+
+
+
+	/**
+	 * The slots holding the pooled objects; an empty slot holds {@code null}.
+	 */
+	@NotNull
+	private final AtomicReferenceArray<E> slots;
+
+
+
+	/**
+	 * Creates a new pool that holds at most the given number of objects.
+	 */
+	ObjectPool(int capacity){
+		if (capacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+		slots = new AtomicReferenceArray<>(capacity);
+	}
+
+
+
+	/**
+	 * Returns the index of the slot at which the current thread should start looking, so that
+	 * concurrent threads tend to use different slots.
+	 */
+	private int startIndex(){
+		return (int)(Thread.currentThread().getId() % slots.length());
+	}
+
+
+
+	/**
+	 * Removes and returns an object from the pool, or returns {@code null} if the pool is empty.
+	 */
+	@Nullable
+	E poll(){
+		int length = slots.length();
+		if (length == 0)
+			return null;
+
+		int start = startIndex();
+		for (int i = 0; i < length; ++i){
+			int index = (start + i) % length;
+			E element = slots.get(index);
+			if ((element != null) && slots.compareAndSet(index, element, null))
+				return element;
+		}
+
+		return null;
+	}
+
+
+
+	/**
+	 * Adds the given object to the pool. Returns whether it was added; it isn't if the pool is full.
+	 */
+	boolean offer(@NotNull E element){
+		int length = slots.length();
+		if (length == 0)
+			return false;
+
+		int start = startIndex();
+		for (int i = 0; i < length; ++i){
+			int index = (start + i) % length;
+			if ((slots.get(index) == null) && slots.compareAndSet(index, null, element))
+				return true;
+		}
+
+		return false;
+	}
+
+
+
+}
@@ -0,0 +1,252 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+
+/**
+ * Converts primitive arrays to and from the contents of packed repeated fixed-width fields
+ * ({@code double}, {@code float}, {@code fixed32}, {@code fixed64}, {@code sfixed32} and
+ * {@code sfixed64}), in a range of a byte array. This is the one place where such fields are
+ * converted, whether the bytes are in the buffer of a {@link ProtoReader} or {@link ProtoWriter},
+ * or in a scratch buffer for a protobuf stream.
+ *
+ * A large field is converted in bulk, through a view of a little-endian {@link ByteBuffer}. When
+ * decoding, this is only done where it's faster (see {@link VarintDecoder#FAST_BUFFER_ACCESS}).
+ *
+ * @author Alexander Maryanovsky
+ */
+final class PackedFixedWidth{
+
+
+
+	/**
+	 * The length, in bytes, from which packed fixed-width fields held in primitive arrays are
+	 * converted to and from their encoding in bulk, via little-endian buffer views, rather than
+	 * element by element.
+	 */
+	private static final int MIN_BULK_PACKED_LENGTH = 256;
+
+
+
+	/**
+	 * Encodes the given values into the given array, starting at the given offset.
+	 */
+	static void encode(@NotNull double[] values, @NotNull byte[] bytes, int offset){
+		int length = values.length * 8;
+		if (length >= MIN_BULK_PACKED_LENGTH)
+			littleEndian(bytes, offset, length).asDoubleBuffer().put(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				putFixed64(bytes, offset + i * 8, Double.doubleToRawLongBits(values[i]));
+		}
+	}
+
+
+
+	/**
+	 * Encodes the given values into the given array, starting at the given offset.
+	 */
+	static void encode(@NotNull float[] values, @NotNull byte[] bytes, int offset){
+		int length = values.length * 4;
+		if (length >= MIN_BULK_PACKED_LENGTH)
+			littleEndian(bytes, offset, length).asFloatBuffer().put(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				putFixed32(bytes, offset + i * 4, Float.floatToRawIntBits(values[i]));
+		}
+	}
+
+
+
+	/**
+	 * Encodes the given values, as {@code fixed32} or {@code sfixed32} values, into the given
+	 * array, starting at the given offset.
+	 */
+	static void encode(@NotNull int[] values, @NotNull byte[] bytes, int offset){
+		int length = values.length * 4;
+		if (length >= MIN_BULK_PACKED_LENGTH)
+			littleEndian(bytes, offset, length).asIntBuffer().put(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				putFixed32(bytes, offset + i * 4, values[i]);
+		}
+	}
+
+
+
+	/**
+	 * Encodes the given values, as {@code fixed64} or {@code sfixed64} values, into the given
+	 * array, starting at the given offset.
+	 */
+	static void encode(@NotNull long[] values, @NotNull byte[] bytes, int offset){
+		int length = values.length * 8;
+		if (length >= MIN_BULK_PACKED_LENGTH)
+			littleEndian(bytes, offset, length).asLongBuffer().put(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				putFixed64(bytes, offset + i * 8, values[i]);
+		}
+	}
+
+
+
+	/**
+	 * Decodes the {@code double} values in the given range of the given array.
+	 *
+	 * @throws MalformedProtoException if the length isn't a multiple of the size of a value.
+	 */
+	@NotNull
+	static double[] decodeDoubles(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		double[] values = new double[count(length, 8)];
+		if (isBulk(length))
+			littleEndian(bytes, offset, length).asDoubleBuffer().get(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				values[i] = Double.longBitsToDouble(getFixed64(bytes, offset + i * 8));
+		}
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the {@code float} values in the given range of the given array.
+	 *
+	 * @throws MalformedProtoException if the length isn't a multiple of the size of a value.
+	 */
+	@NotNull
+	static float[] decodeFloats(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		float[] values = new float[count(length, 4)];
+		if (isBulk(length))
+			littleEndian(bytes, offset, length).asFloatBuffer().get(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				values[i] = Float.intBitsToFloat(getFixed32(bytes, offset + i * 4));
+		}
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the {@code fixed32} (or {@code sfixed32}) values in the given range of the given
+	 * array.
+	 *
+	 * @throws MalformedProtoException if the length isn't a multiple of the size of a value.
+	 */
+	@NotNull
+	static int[] decodeFixed32s(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		int[] values = new int[count(length, 4)];
+		if (isBulk(length))
+			littleEndian(bytes, offset, length).asIntBuffer().get(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				values[i] = getFixed32(bytes, offset + i * 4);
+		}
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the {@code fixed64} (or {@code sfixed64}) values in the given range of the given
+	 * array.
+	 *
+	 * @throws MalformedProtoException if the length isn't a multiple of the size of a value.
+	 */
+	@NotNull
+	static long[] decodeFixed64s(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		long[] values = new long[count(length, 8)];
+		if (isBulk(length))
+			littleEndian(bytes, offset, length).asLongBuffer().get(values);
+		else{
+			for (int i = 0; i < values.length; ++i)
+				values[i] = getFixed64(bytes, offset + i * 8);
+		}
+		return values;
+	}
+
+
+
+	/**
+	 * Returns whether a field of the given length should be decoded in bulk; on Java 8 that's
+	 * slower than decoding the values one by one.
+	 */
+	private static boolean isBulk(int length){
+		return VarintDecoder.FAST_BUFFER_ACCESS && (length >= MIN_BULK_PACKED_LENGTH);
+	}
+
+
+
+	/**
+	 * Returns the number of values of the given size in a packed repeated fixed-width field of the
+	 * given length.
+	 */
+	private static int count(int length, int elementSize) throws MalformedProtoException{
+		if ((length < 0) || (length % elementSize != 0))
+			throw new MalformedProtoException("Packed field length " + length + " is not a multiple of " + elementSize);
+		return length / elementSize;
+	}
+
+
+
+	/**
+	 * Returns a little-endian {@link ByteBuffer} wrapping the given range of the given bytes, whose
+	 * views convert between the bytes and primitive arrays in place. The views of the returned
+	 * buffer cover just the range.
+	 */
+	@NotNull
+	private static ByteBuffer littleEndian(@NotNull byte[] bytes, int offset, int length){
+		return ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+
+
+	/**
+	 * Returns the little-endian 32-bit value at the given index of the given array.
+	 */
+	private static int getFixed32(@NotNull byte[] bytes, int index){
+		return (bytes[index] & 0xFF) |
+				((bytes[index + 1] & 0xFF) << 8) |
+				((bytes[index + 2] & 0xFF) << 16) |
+				(bytes[index + 3] << 24);
+	}
+
+
+
+	/**
+	 * Returns the little-endian 64-bit value at the given index of the given array.
+	 */
+	private static long getFixed64(@NotNull byte[] bytes, int index){
+		return (getFixed32(bytes, index) & 0xFFFFFFFFL) | ((long)getFixed32(bytes, index + 4) << 32);
+	}
+
+
+
+	/**
+	 * Puts the given 32-bit value, little-endian, at the given index of the given array.
+	 */
+	private static void putFixed32(@NotNull byte[] bytes, int index, int value){
+		bytes[index] = (byte)value;
+		bytes[index + 1] = (byte)(value >> 8);
+		bytes[index + 2] = (byte)(value >> 16);
+		bytes[index + 3] = (byte)(value >> 24);
+	}
+
+
+
+	/**
+	 * Puts the given 64-bit value, little-endian, at the given index of the given array.
+	 */
+	private static void putFixed64(@NotNull byte[] bytes, int index, long value){
+		putFixed32(bytes, index, (int)value);
+		putFixed32(bytes, index + 4, (int)(value >> 32));
+	}
+
+
+
+}
@@ -0,0 +1,237 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+
+
+/**
+ * Encodes values of a user-defined type, either as a repeated field or as a sequence of
+ * length-delimited values, into a byte array or a {@link ByteBuffer}, using the threads of a
+ * {@link ForkJoinPool}. The values are split into ranges; the serialized sizes of the ranges are
+ * computed in parallel, their offsets in the output are derived from a prefix sum of the sizes, and
+ * then each range is written, in parallel, into its own region of the output. The result is the
+ * same as writing the values one after another.
+ *
+ * Each range has its own {@link WritePass}, which records the sizes of its sub-messages when its
+ * size is computed and hands them to the write of the same range, so nothing is computed twice.
+ *
+ * @author Alexander Maryanovsky
+ */
+final class ParallelWrite<T>{
+
+
+
+	/**
+	 * The minimum number of values in a range; fewer values are not worth a task of their own.
+	 */
+	private static final int MIN_RANGE_SIZE = 1024;
+
+
+
+	/**
+	 * The number of ranges per thread of the pool, so that threads that finish early can pick up
+	 * the work of others.
+	 */
+	private static final int RANGES_PER_THREAD = 4;
+
+
+
+	/**
+	 * The largest array we can allocate.
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+
+
+	/**
+	 * A range of values, encoded by a single task.
+	 */
+	private static final class Range<T>{
+
+		@NotNull
+		final List<? extends T> values;
+
+		@NotNull
+		final WritePass pass = new WritePass();
+
+		long size;
+
+		int offset;
+
+		Range(@NotNull List<? extends T> values){
+			this.values = values;
+		}
+
+	}
+
+
+
+	/**
+	 * An action on a single range.
+	 */
+	private interface RangeAction<T>{
+
+		void run(@NotNull Range<T> range);
+
+	}
+
+
+
+	/**
+	 * The codec of the values.
+	 */
+	@NotNull
+	private final Codec<T> codec;
+
+
+
+	/**
+	 * The field number of the repeated field, or 0 if the values are written length-delimited,
+	 * without tags.
+	 */
+	private final int fieldNumber;
+
+
+
+	/**
+	 * The ranges of values.
+	 */
+	@NotNull
+	private final List<Range<T>> ranges;
+
+
+
+	/**
+	 * Creates a new parallel write of the given values, as the repeated field with the given
+	 * number, or, if it's 0, as length-delimited values, split into ranges suitable for the given
+	 * parallelism.
+	 */
+	ParallelWrite(@NotNull Codec<T> codec, int fieldNumber, @NotNull List<? extends T> values, int parallelism){
+		this.codec = codec;
+		this.fieldNumber = fieldNumber;
+
+		int count = values.size();
+		int rangeSize = Math.max(MIN_RANGE_SIZE, count / Math.max(1, parallelism * RANGES_PER_THREAD) + 1);
+		ranges = new ArrayList<>(count / rangeSize + 1);
+		for (int from = 0; from < count; from += rangeSize)
+			ranges.add(new Range<>(values.subList(from, Math.min(count, from + rangeSize))));
+	}
+
+
+
+	/**
+	 * Runs the given action on each range, in parallel, in the given pool.
+	 */
+	private void forEachRange(@NotNull ForkJoinPool pool, @NotNull RangeAction<T> action){
+		if (ranges.size() <= 1){ // Not worth a trip to the pool
+			for (Range<T> range : ranges)
+				action.run(range);
+			return;
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(ranges.size());
+		for (Range<T> range : ranges)
+			tasks.add(ForkJoinTask.adapt(() -> action.run(range)));
+
+		// The tasks are forked from within the pool, so that its threads run them
+		pool.invoke(ForkJoinTask.adapt(() -> { ForkJoinTask.invokeAll(tasks); }));
+	}
+
+
+
+	/**
+	 * Computes the serialized sizes of the ranges, in parallel, in the given pool, assigns their
+	 * offsets and returns their total size.
+	 */
+	private int computeSize(@NotNull ForkJoinPool pool){
+		forEachRange(pool, range -> {
+			long size = 0;
+			for (T value : range.values){
+				size += (fieldNumber == 0) ?
+						codec.computeSerializedSizeNoTag(value, range.pass) :
+						codec.computeSerializedSize(fieldNumber, value, range.pass);
+			}
+			range.size = size;
+		});
+
+		long totalSize = 0;
+		for (Range<T> range : ranges){
+			range.offset = (int)totalSize;
+			totalSize += range.size;
+			if (totalSize > MAX_ARRAY_SIZE)
+				throw new IllegalArgumentException("The encoded values are too large: more than " + MAX_ARRAY_SIZE + " bytes");
+		}
+
+		return (int)totalSize;
+	}
+
+
+
+	/**
+	 * Writes the values of the given range, whose size has been computed, into the given output,
+	 * which must have room for exactly that many bytes.
+	 */
+	private void writeRange(@NotNull Range<T> range, @NotNull CodedOutputStream output){
+		try{
+			for (T value : range.values){
+				if (fieldNumber == 0)
+					codec.writeFieldNoTag(output, value, range.pass);
+				else
+					codec.writeField(output, fieldNumber, value, range.pass);
+			}
+			output.flush(); // Updates the position of a ByteBuffer
+		} catch (IOException e){
+			throw new IllegalStateException("Writing into a buffer threw an IOException (should never happen)", e);
+		}
+		output.checkNoSpaceLeft();
+	}
+
+
+
+	/**
+	 * Encodes the values into a new byte array, using the given pool.
+	 */
+	@NotNull
+	byte[] toByteArray(@NotNull ForkJoinPool pool){
+		byte[] result = new byte[computeSize(pool)];
+		forEachRange(pool, range -> writeRange(range, CodedOutputStream.newInstance(result, range.offset, (int)range.size)));
+		return result;
+	}
+
+
+
+	/**
+	 * Encodes the values into the given buffer, starting at its position, using the given pool. The
+	 * position of the buffer is advanced by the size of the encoded values.
+	 *
+	 * @throws BufferOverflowException if the remaining space in the buffer is smaller than the size
+	 * of the encoded values. In this case the buffer is not modified.
+	 */
+	void writeTo(@NotNull ByteBuffer buffer, @NotNull ForkJoinPool pool){
+		int size = computeSize(pool);
+		if (buffer.remaining() < size)
+			throw new BufferOverflowException();
+
+		int start = buffer.position();
+		forEachRange(pool, range -> {
+			ByteBuffer region = buffer.duplicate();
+			region.limit(start + range.offset + (int)range.size);
+			region.position(start + range.offset);
+			writeRange(range, CodedOutputStream.newInstance(region));
+		});
+		buffer.position(start + size);
+	}
+
+
+
+}
@@ -0,0 +1,711 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+
+/**
+ * Reads the protobuf wire format from a range of a byte array. Unlike
+ * {@link com.google.protobuf.CodedInputStream}, which is an abstract class with several
+ * implementations, this class is final, so its calls in generated codecs are monomorphic and can
+ * be inlined completely. Other than {@link MalformedProtoException}, which it throws for
+ * malformed input so that callers see the same exceptions as with
+ * {@link com.google.protobuf.CodedInputStream}, it doesn't depend on protobuf-java.
+ *
+ * The bytes left are checked once per value, rather than once per byte: a varint is decoded,
+ * unrolled, without further checks if there is room for the largest varint before the limit,
+ * which is the case for all but the last few bytes of the input.
+ *
+ * The methods are named after their {@link com.google.protobuf.CodedInputStream} counterparts, so
+ * that the same generated code reads from both. Codecs generated with the {@code proto_io} option
+ * read from it directly; see {@link Codec#read(ProtoReader)}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class ProtoReader{
+
+
+
+	/**
+	 * The maximum size of a varint.
+	 */
+	private static final int MAX_VARINT_SIZE = 10;
+
+
+
+	/**
+	 * The wire type of varint values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_VARINT = 0;
+
+
+
+	/**
+	 * The wire type of 64-bit fixed-width values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_FIXED64 = 1;
+
+
+
+	/**
+	 * The wire type of length-delimited values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+
+
+	/**
+	 * The wire type of start-group values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_START_GROUP = 3;
+
+
+
+	/**
+	 * The wire type of end-group values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_END_GROUP = 4;
+
+
+
+	/**
+	 * The wire type of 32-bit fixed-width values; see {@link com.google.protobuf.WireFormat}.
+	 */
+	private static final int WIRETYPE_FIXED32 = 5;
+
+
+
+	/**
+	 * The buffer.
+	 */
+	@NotNull
+	private byte[] buffer;
+
+
+
+	/**
+	 * The index of the first byte of the range we read from.
+	 */
+	private int offset;
+
+
+
+	/**
+	 * The index of the next byte to read.
+	 */
+	private int position;
+
+
+
+	/**
+	 * The index right after the last byte that may currently be read; either the end of the range
+	 * we read from, or the limit set via {@link #pushLimit(int)}.
+	 */
+	private int limit;
+
+
+
+	/**
+	 * The last tag read via {@link #readTag()}.
+	 */
+	private int lastTag = 0;
+
+
+
+	/**
+	 * Creates a new {@link ProtoReader} reading from the given range of the given array.
+	 */
+	private ProtoReader(@NotNull byte[] buffer, int offset, int length){
+		reset(buffer, offset, length);
+	}
+
+
+
+	/**
+	 * Makes the reader read from the given range of the given array, as if it were new. This allows
+	 * a {@link DecodeContext} to reuse a single reader for all the arrays it decodes.
+	 */
+	void reset(@NotNull byte[] buffer, int offset, int length){
+		if ((offset < 0) || (length < 0) || (offset > buffer.length - length))
+			throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + buffer.length);
+
+		this.buffer = buffer;
+		this.offset = offset;
+		this.position = offset;
+		this.limit = offset + length;
+		this.lastTag = 0;
+	}
+
+
+
+	/**
+	 * Returns a new {@link ProtoReader} reading from the given array.
+	 */
+	@NotNull
+	public static ProtoReader newInstance(@NotNull byte[] buffer){
+		return new ProtoReader(buffer, 0, buffer.length);
+	}
+
+
+
+	/**
+	 * Returns a new {@link ProtoReader} reading from the given range of the given array.
+	 */
+	@NotNull
+	public static ProtoReader newInstance(@NotNull byte[] buffer, int offset, int length){
+		return new ProtoReader(buffer, offset, length);
+	}
+
+
+
+	/**
+	 * Returns a new {@link ProtoReader} reading from the bytes between the position and the limit
+	 * of the given {@link ByteBuffer}. The bytes of a heap buffer are read in place; those of a
+	 * direct buffer are copied first. The position of the buffer is not modified.
+	 */
+	@NotNull
+	public static ProtoReader newInstance(@NotNull ByteBuffer buffer){
+		if (buffer.hasArray())
+			return new ProtoReader(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return new ProtoReader(bytes, 0, bytes.length);
+	}
+
+
+
+	/**
+	 * Returns the number of bytes read so far.
+	 */
+	public int getTotalBytesRead(){
+		return position - offset;
+	}
+
+
+
+	/**
+	 * Returns the buffer we read from.
+	 */
+	@NotNull
+	byte[] buffer(){
+		return buffer;
+	}
+
+
+
+	/**
+	 * Returns the index of the next byte to read in {@link #buffer()}.
+	 */
+	int position(){
+		return position;
+	}
+
+
+
+	/**
+	 * Reads a tag, returning 0 at the limit.
+	 */
+	public int readTag() throws MalformedProtoException{
+		if (position == limit){
+			lastTag = 0;
+			return 0;
+		}
+
+		int tag = readRawVarint32();
+		if ((tag >>> 3) == 0) // See WireFormat.getTagFieldNumber
+			throw new MalformedProtoException("Protocol message contained an invalid tag (zero).");
+
+		lastTag = tag;
+		return tag;
+	}
+
+
+
+	/**
+	 * Verifies that the last tag read was the given one.
+	 */
+	public void checkLastTagWas(int value) throws MalformedProtoException{
+		if (lastTag != value)
+			throw new MalformedProtoException("Protocol message end-group tag did not match expected tag.");
+	}
+
+
+
+	/**
+	 * Sets the last tag read; used when the bytes were read by another reader.
+	 */
+	void setLastTag(int tag){
+		lastTag = tag;
+	}
+
+
+
+	/**
+	 * Skips the field with the given tag, which has just been read. Returns {@code false} if the
+	 * tag is an end-group tag, in which case nothing is skipped.
+	 */
+	public boolean skipField(int tag) throws MalformedProtoException{
+		switch (tag & 7){ // See WireFormat.getTagWireType
+			case WIRETYPE_VARINT:
+				readRawVarint64();
+				return true;
+			case WIRETYPE_FIXED64:
+				skipRawBytes(8);
+				return true;
+			case WIRETYPE_LENGTH_DELIMITED:
+				skipRawBytes(readRawVarint32());
+				return true;
+			case WIRETYPE_START_GROUP:
+				while (true){
+					int nestedTag = readTag();
+					if ((nestedTag == 0) || !skipField(nestedTag))
+						break;
+				}
+				checkLastTagWas(((tag >>> 3) << 3) | WIRETYPE_END_GROUP);
+				return true;
+			case WIRETYPE_END_GROUP:
+				return false;
+			case WIRETYPE_FIXED32:
+				skipRawBytes(4);
+				return true;
+			default:
+				throw new MalformedProtoException("Protocol message tag had invalid wire type.");
+		}
+	}
+
+
+
+	/**
+	 * Skips the given number of bytes.
+	 */
+	public void skipRawBytes(int length) throws MalformedProtoException{
+		checkLength(length);
+		position += length;
+	}
+
+
+
+	/**
+	 * Skips the given number of bytes, which the caller reads directly from {@link #buffer()}, and
+	 * returns the index at which they start.
+	 */
+	int skip(int length) throws MalformedProtoException{
+		checkLength(length);
+		int index = position;
+		position += length;
+		return index;
+	}
+
+
+
+	/**
+	 * Verifies that the given length is non-negative and no larger than the number of bytes left
+	 * before the limit.
+	 */
+	private void checkLength(int length) throws MalformedProtoException{
+		if (length < 0)
+			throw new MalformedProtoException("CodedInputStream encountered an embedded string or message which claimed to have negative size.");
+		if (length > limit - position)
+			throw truncatedMessage();
+	}
+
+
+
+	/**
+	 * Sets the limit to the given number of bytes after the current position, and returns the
+	 * previous limit, to be restored via {@link #popLimit(int)}.
+	 */
+	public int pushLimit(int byteLimit) throws MalformedProtoException{
+		checkLength(byteLimit);
+		int oldLimit = limit;
+		limit = position + byteLimit;
+		return oldLimit;
+	}
+
+
+
+	/**
+	 * Restores the given limit, returned by {@link #pushLimit(int)}.
+	 */
+	public void popLimit(int oldLimit){
+		limit = oldLimit;
+	}
+
+
+
+	/**
+	 * Returns the number of bytes left before the limit.
+	 */
+	public int getBytesUntilLimit(){
+		return limit - position;
+	}
+
+
+
+	/**
+	 * Returns whether the limit has been reached.
+	 */
+	public boolean isAtEnd(){
+		return position == limit;
+	}
+
+
+
+	/**
+	 * Reads a single raw byte.
+	 */
+	public byte readRawByte() throws MalformedProtoException{
+		if (position == limit)
+			throw truncatedMessage();
+
+		return buffer[position++];
+	}
+
+
+
+	/**
+	 * Reads the given number of bytes into a new array.
+	 */
+	@NotNull
+	public byte[] readRawBytes(int length) throws MalformedProtoException{
+		checkLength(length);
+		int start = position;
+		position += length;
+		return Arrays.copyOfRange(buffer, start, start + length);
+	}
+
+
+
+	/**
+	 * Reads a varint, returning its lower 32 bits.
+	 */
+	public int readRawVarint32() throws MalformedProtoException{
+		byte[] buffer = this.buffer;
+		int index = position;
+		if (limit - index < MAX_VARINT_SIZE)
+			return (int)readRawVarint64SlowPath();
+
+		int b;
+		int value = (b = buffer[index++]) & 0x7F;
+		if (b < 0){
+			value |= ((b = buffer[index++]) & 0x7F) << 7;
+			if (b < 0){
+				value |= ((b = buffer[index++]) & 0x7F) << 14;
+				if (b < 0){
+					value |= ((b = buffer[index++]) & 0x7F) << 21;
+					if (b < 0){
+						value |= (b = buffer[index++]) << 28;
+						if (b < 0){ // The upper bytes of a negative value, sign-extended to 64 bits
+							for (int i = 0; (b = buffer[index++]) < 0; ++i){
+								if (i == MAX_VARINT_SIZE - 6)
+									throw malformedVarint();
+							}
+						}
+					}
+				}
+			}
+		}
+
+		position = index;
+		return value;
+	}
+
+
+
+	/**
+	 * Reads a varint of up to 64 bits.
+	 */
+	public long readRawVarint64() throws MalformedProtoException{
+		byte[] buffer = this.buffer;
+		int index = position;
+		if (limit - index < MAX_VARINT_SIZE)
+			return readRawVarint64SlowPath();
+
+		long value = 0;
+		for (int shift = 0; shift < 7 * MAX_VARINT_SIZE; shift += 7){
+			byte b = buffer[index++];
+			value |= (long)(b & 0x7F) << shift;
+			if (b >= 0){
+				position = index;
+				return value;
+			}
+		}
+
+		throw malformedVarint();
+	}
+
+
+
+	/**
+	 * Reads a varint of up to 64 bits, checking the limit before each byte.
+	 */
+	private long readRawVarint64SlowPath() throws MalformedProtoException{
+		long value = 0;
+		for (int shift = 0; shift < 7 * MAX_VARINT_SIZE; shift += 7){
+			byte b = readRawByte();
+			value |= (long)(b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+
+		throw malformedVarint();
+	}
+
+
+
+	/**
+	 * Reads a little-endian 32-bit value.
+	 */
+	public int readRawLittleEndian32() throws MalformedProtoException{
+		byte[] buffer = this.buffer;
+		int index = position;
+		if (limit - index < 4)
+			throw truncatedMessage();
+
+		position = index + 4;
+		return (buffer[index] & 0xFF) |
+				((buffer[index + 1] & 0xFF) << 8) |
+				((buffer[index + 2] & 0xFF) << 16) |
+				(buffer[index + 3] << 24);
+	}
+
+
+
+	/**
+	 * Reads a little-endian 64-bit value.
+	 */
+	public long readRawLittleEndian64() throws MalformedProtoException{
+		byte[] buffer = this.buffer;
+		int index = position;
+		if (limit - index < 8)
+			throw truncatedMessage();
+
+		position = index + 8;
+		return (buffer[index] & 0xFFL) |
+				((buffer[index + 1] & 0xFFL) << 8) |
+				((buffer[index + 2] & 0xFFL) << 16) |
+				((buffer[index + 3] & 0xFFL) << 24) |
+				((buffer[index + 4] & 0xFFL) << 32) |
+				((buffer[index + 5] & 0xFFL) << 40) |
+				((buffer[index + 6] & 0xFFL) << 48) |
+				((long)buffer[index + 7] << 56);
+	}
+
+
+
+	/**
+	 * Reads a {@code double} value.
+	 */
+	public double readDouble() throws MalformedProtoException{
+		return Double.longBitsToDouble(readRawLittleEndian64());
+	}
+
+
+
+	/**
+	 * Reads a {@code float} value.
+	 */
+	public float readFloat() throws MalformedProtoException{
+		return Float.intBitsToFloat(readRawLittleEndian32());
+	}
+
+
+
+	/**
+	 * Reads an {@code int32} value.
+	 */
+	public int readInt32() throws MalformedProtoException{
+		return readRawVarint32();
+	}
+
+
+
+	/**
+	 * Reads an {@code int64} value.
+	 */
+	public long readInt64() throws MalformedProtoException{
+		return readRawVarint64();
+	}
+
+
+
+	/**
+	 * Reads a {@code uint32} value.
+	 */
+	public int readUInt32() throws MalformedProtoException{
+		return readRawVarint32();
+	}
+
+
+
+	/**
+	 * Reads a {@code uint64} value.
+	 */
+	public long readUInt64() throws MalformedProtoException{
+		return readRawVarint64();
+	}
+
+
+
+	/**
+	 * Reads an {@code sint32} value.
+	 */
+	public int readSInt32() throws MalformedProtoException{
+		int value = readRawVarint32();
+		return (value >>> 1) ^ -(value & 1); // See CodedInputStream.decodeZigZag32
+	}
+
+
+
+	/**
+	 * Reads an {@code sint64} value.
+	 */
+	public long readSInt64() throws MalformedProtoException{
+		long value = readRawVarint64();
+		return (value >>> 1) ^ -(value & 1); // See CodedInputStream.decodeZigZag64
+	}
+
+
+
+	/**
+	 * Reads a {@code fixed32} value.
+	 */
+	public int readFixed32() throws MalformedProtoException{
+		return readRawLittleEndian32();
+	}
+
+
+
+	/**
+	 * Reads a {@code fixed64} value.
+	 */
+	public long readFixed64() throws MalformedProtoException{
+		return readRawLittleEndian64();
+	}
+
+
+
+	/**
+	 * Reads an {@code sfixed32} value.
+	 */
+	public int readSFixed32() throws MalformedProtoException{
+		return readRawLittleEndian32();
+	}
+
+
+
+	/**
+	 * Reads an {@code sfixed64} value.
+	 */
+	public long readSFixed64() throws MalformedProtoException{
+		return readRawLittleEndian64();
+	}
+
+
+
+	/**
+	 * Reads a {@code bool} value.
+	 */
+	public boolean readBool() throws MalformedProtoException{
+		return readRawVarint64() != 0L;
+	}
+
+
+
+	/**
+	 * Reads an {@code enum} value.
+	 */
+	public int readEnum() throws MalformedProtoException{
+		return readRawVarint32();
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value, which must be valid UTF-8.
+	 */
+	@NotNull
+	public String readStringRequireUtf8() throws MalformedProtoException{
+		int length = readRawVarint32();
+		checkLength(length);
+		String value = Utf8.decode(buffer, position, length);
+		position += length;
+		return value;
+	}
+
+
+
+	/**
+	 * Reads a {@code bytes} value into a new array.
+	 */
+	@NotNull
+	public byte[] readByteArray() throws MalformedProtoException{
+		return readRawBytes(readRawVarint32());
+	}
+
+
+
+	/**
+	 * Reads a {@code bytes} value as a read-only {@link ByteBuffer} that shares the bytes of the
+	 * input, rather than copying them. The input must not be modified while the buffer is in use.
+	 */
+	@NotNull
+	public ByteBuffer readByteBuffer() throws MalformedProtoException{
+		int length = readRawVarint32();
+		return ByteBuffer.wrap(buffer, skip(length), length).slice().asReadOnlyBuffer();
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value as a {@link LazyString} over the bytes of the buffer, without
+	 * decoding, or validating, its UTF-8 encoding.
+	 */
+	@NotNull
+	public LazyString readLazyString() throws MalformedProtoException{
+		int length = readRawVarint32();
+		return LazyString.of(buffer, skip(length), length);
+	}
+
+
+
+	/**
+	 * Reads a {@code string} value via the given {@link StringInterner}, which looks its encoding up
+	 * in place, in the buffer.
+	 */
+	@NotNull
+	public String readInternedString(@NotNull StringInterner interner) throws MalformedProtoException{
+		int length = readRawVarint32();
+		checkLength(length);
+		String value = interner.decode(buffer, position, length);
+		position += length;
+		return value;
+	}
+
+
+
+	/**
+	 * Returns the exception thrown when the input ends in the middle of a value.
+	 */
+	@NotNull
+	private static MalformedProtoException truncatedMessage(){
+		return new MalformedProtoException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.  This could mean either that the input has been truncated or that an embedded message misreported its own length.");
+	}
+
+
+
+	/**
+	 * Returns the exception thrown for a malformed varint.
+	 */
+	@NotNull
+	private static MalformedProtoException malformedVarint(){
+		return new MalformedProtoException("CodedInputStream encountered a malformed varint.");
+	}
+
+
+
+}
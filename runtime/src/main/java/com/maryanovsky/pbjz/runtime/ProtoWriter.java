@@ -0,0 +1,926 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+
+
+/**
+ * Writes the protobuf wire format into a fixed range of a byte array. Unlike
+ * {@link com.google.protobuf.CodedOutputStream}, which is an abstract class with several
+ * implementations, this class is final, so its calls in generated codecs are monomorphic and can
+ * be inlined completely. It doesn't depend on protobuf-java.
+ *
+ * The space left is checked once per value, rather than once per byte: a varint is written without
+ * further checks if there is room for the largest varint, which is nearly always the case, as the
+ * range is normally sized to fit the value being written.
+ *
+ * The methods that write values are named after their
+ * {@link com.google.protobuf.CodedOutputStream} counterparts. Those that write entire fields, with
+ * precomputed tags, are the counterparts of the helpers {@link Codec} has for
+ * {@link com.google.protobuf.CodedOutputStream}. Codecs generated with the {@code proto_io} option
+ * write into it directly; see {@link Codec#write(ProtoWriter, Object)}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class ProtoWriter{
+
+
+
+	/**
+	 * The maximum size of a varint-encoded 32-bit value.
+	 */
+	private static final int MAX_VARINT32_SIZE = 5;
+
+
+
+	/**
+	 * The maximum size of a varint-encoded 64-bit value.
+	 */
+	private static final int MAX_VARINT_SIZE = 10;
+
+
+
+	/**
+	 * The buffer.
+	 */
+	@NotNull
+	private final byte[] buffer;
+
+
+
+	/**
+	 * The index of the first byte of the range we write into.
+	 */
+	private final int offset;
+
+
+
+	/**
+	 * The index right after the range we write into.
+	 */
+	private final int limit;
+
+
+
+	/**
+	 * The index of the next byte to write.
+	 */
+	private int position;
+
+
+
+	/**
+	 * Creates a new {@link ProtoWriter} writing into the given range of the given array.
+	 */
+	private ProtoWriter(@NotNull byte[] buffer, int offset, int length){
+		if ((offset < 0) || (length < 0) || (offset > buffer.length - length))
+			throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + buffer.length);
+
+		this.buffer = buffer;
+		this.offset = offset;
+		this.limit = offset + length;
+		this.position = offset;
+	}
+
+
+
+	/**
+	 * Returns a new {@link ProtoWriter} writing into the given array.
+	 */
+	@NotNull
+	public static ProtoWriter newInstance(@NotNull byte[] buffer){
+		return new ProtoWriter(buffer, 0, buffer.length);
+	}
+
+
+
+	/**
+	 * Returns a new {@link ProtoWriter} writing into the given range of the given array.
+	 */
+	@NotNull
+	public static ProtoWriter newInstance(@NotNull byte[] buffer, int offset, int length){
+		return new ProtoWriter(buffer, offset, length);
+	}
+
+
+
+	/**
+	 * Returns the number of bytes written so far.
+	 */
+	public int getTotalBytesWritten(){
+		return position - offset;
+	}
+
+
+
+	/**
+	 * Returns the number of bytes that can still be written.
+	 */
+	public int spaceLeft(){
+		return limit - position;
+	}
+
+
+
+	/**
+	 * Verifies that the entire range has been written.
+	 *
+	 * @throws IllegalStateException if it hasn't.
+	 */
+	public void checkNoSpaceLeft(){
+		if (position != limit)
+			throw new IllegalStateException("Did not write as much data as expected");
+	}
+
+
+
+	/**
+	 * Returns the buffer we write into.
+	 */
+	@NotNull
+	byte[] buffer(){
+		return buffer;
+	}
+
+
+
+	/**
+	 * Returns the index in {@link #buffer()} of the next byte to write.
+	 */
+	int position(){
+		return position;
+	}
+
+
+
+	/**
+	 * Skips the given number of bytes, which the caller writes directly into {@link #buffer()}, and
+	 * returns the index at which they should be written.
+	 *
+	 * @throws BufferOverflowException if there isn't enough space left.
+	 */
+	int skip(int length){
+		if (limit - position < length)
+			throw new BufferOverflowException();
+
+		int index = position;
+		position += length;
+		return index;
+	}
+
+
+
+	/**
+	 * Writes a single raw byte.
+	 */
+	public void writeRawByte(byte value){
+		if (position == limit)
+			throw new BufferOverflowException();
+
+		buffer[position++] = value;
+	}
+
+
+
+	/**
+	 * Writes the given range of the given array, as is.
+	 */
+	public void writeRawBytes(@NotNull byte[] value, int offset, int length){
+		System.arraycopy(value, offset, buffer, skip(length), length);
+	}
+
+
+
+	/**
+	 * Writes an unsigned 32-bit varint.
+	 */
+	public void writeUInt32NoTag(int value){
+		byte[] buffer = this.buffer;
+		int index = position;
+		if ((limit - index < MAX_VARINT32_SIZE) && (limit - index < uInt32Size(value)))
+			throw new BufferOverflowException();
+
+		while ((value & ~0x7F) != 0){
+			buffer[index++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[index++] = (byte)value;
+		position = index;
+	}
+
+
+
+	/**
+	 * Writes an unsigned 64-bit varint.
+	 */
+	public void writeUInt64NoTag(long value){
+		byte[] buffer = this.buffer;
+		int index = position;
+		if ((limit - index < MAX_VARINT_SIZE) && (limit - index < uInt64Size(value)))
+			throw new BufferOverflowException();
+
+		while ((value & ~0x7FL) != 0L){
+			buffer[index++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[index++] = (byte)value;
+		position = index;
+	}
+
+
+
+	/**
+	 * Writes a little-endian 32-bit value.
+	 */
+	public void writeFixed32NoTag(int value){
+		byte[] buffer = this.buffer;
+		int index = skip(4);
+		buffer[index] = (byte)value;
+		buffer[index + 1] = (byte)(value >> 8);
+		buffer[index + 2] = (byte)(value >> 16);
+		buffer[index + 3] = (byte)(value >> 24);
+	}
+
+
+
+	/**
+	 * Writes a little-endian 64-bit value.
+	 */
+	public void writeFixed64NoTag(long value){
+		byte[] buffer = this.buffer;
+		int index = skip(8);
+		buffer[index] = (byte)value;
+		buffer[index + 1] = (byte)(value >> 8);
+		buffer[index + 2] = (byte)(value >> 16);
+		buffer[index + 3] = (byte)(value >> 24);
+		buffer[index + 4] = (byte)(value >> 32);
+		buffer[index + 5] = (byte)(value >> 40);
+		buffer[index + 6] = (byte)(value >> 48);
+		buffer[index + 7] = (byte)(value >> 56);
+	}
+
+
+
+	/**
+	 * Writes a tag.
+	 */
+	public void writeTag(int fieldNumber, int wireType){
+		writeUInt32NoTag((fieldNumber << 3) | wireType); // See WireFormat.makeTag
+	}
+
+
+
+	/**
+	 * Writes an {@code int32} value, sans the tag.
+	 */
+	public void writeInt32NoTag(int value){
+		if (value >= 0)
+			writeUInt32NoTag(value);
+		else // Must sign-extend
+			writeUInt64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code int64} value, sans the tag.
+	 */
+	public void writeInt64NoTag(long value){
+		writeUInt64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code sint32} value, sans the tag.
+	 */
+	public void writeSInt32NoTag(int value){
+		writeUInt32NoTag(encodeZigZag32(value));
+	}
+
+
+
+	/**
+	 * Writes an {@code sint64} value, sans the tag.
+	 */
+	public void writeSInt64NoTag(long value){
+		writeUInt64NoTag(encodeZigZag64(value));
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed32} value, sans the tag.
+	 */
+	public void writeSFixed32NoTag(int value){
+		writeFixed32NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed64} value, sans the tag.
+	 */
+	public void writeSFixed64NoTag(long value){
+		writeFixed64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes a {@code double} value, sans the tag.
+	 */
+	public void writeDoubleNoTag(double value){
+		writeFixed64NoTag(Double.doubleToRawLongBits(value));
+	}
+
+
+
+	/**
+	 * Writes a {@code float} value, sans the tag.
+	 */
+	public void writeFloatNoTag(float value){
+		writeFixed32NoTag(Float.floatToRawIntBits(value));
+	}
+
+
+
+	/**
+	 * Writes a {@code bool} value, sans the tag.
+	 */
+	public void writeBoolNoTag(boolean value){
+		writeRawByte(value ? (byte)1 : (byte)0);
+	}
+
+
+
+	/**
+	 * Writes an {@code enum} value, sans the tag.
+	 */
+	public void writeEnumNoTag(int value){
+		writeInt32NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes a {@code string} value, sans the tag.
+	 */
+	public void writeStringNoTag(@NotNull String value){
+		int length = Utf8.encodedLength(value);
+		writeUInt32NoTag(length);
+		Utf8.encode(value, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} value, sans the tag.
+	 */
+	public void writeByteArrayNoTag(@NotNull byte[] value){
+		writeUInt32NoTag(value.length);
+		writeRawBytes(value, 0, value.length);
+	}
+
+
+
+	/**
+	 * Writes the bytes between the position and the limit of the given {@link ByteBuffer} as a
+	 * {@code bytes} value, sans the tag. The position of the buffer is not modified.
+	 */
+	public void writeByteBufferNoTag(@NotNull ByteBuffer value){
+		int length = value.remaining();
+		writeUInt32NoTag(length);
+		value.duplicate().get(buffer, skip(length), length);
+	}
+
+
+
+	/**
+	 * Writes a {@code double} field, with the given precomputed tag.
+	 */
+	public void writeTaggedDoubleField(int tag, double value){
+		if (value != 0D){
+			writeUInt32NoTag(tag);
+			writeDoubleNoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code double} field, held in an array, with the given precomputed tag.
+	 * A large field is converted into its encoding in bulk, directly in the buffer of the output. A
+	 * {@code null} array is not written at all.
+	 */
+	public void writePackedDoubleField(int tag, @Nullable double[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedDoubleFieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes a {@code float} field, with the given precomputed tag.
+	 */
+	public void writeTaggedFloatField(int tag, float value){
+		if (value != 0F){
+			writeUInt32NoTag(tag);
+			writeFloatNoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code float} field, held in an array, with the given precomputed tag.
+	 * A large field is converted into its encoding in bulk, directly in the buffer of the output. A
+	 * {@code null} array is not written at all.
+	 */
+	public void writePackedFloatField(int tag, @Nullable float[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedFloatFieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code int32} format, with the given precomputed tag.
+	 */
+	public void writeTaggedInt32Field(int tag, int value){
+		if (value != 0){
+			writeUInt32NoTag(tag);
+			writeInt32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code int32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedInt32Field(int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code int32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedInt32Field(int tag, @Nullable int[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code int64} format, with the given precomputed tag.
+	 */
+	public void writeTaggedInt64Field(int tag, long value){
+		if (value != 0L){
+			writeUInt32NoTag(tag);
+			writeInt64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code int64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedInt64Field(int tag, @Nullable Collection<Long> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code int64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedInt64Field(int tag, @Nullable long[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code uint32} format, with the given precomputed tag.
+	 */
+	public void writeTaggedUInt32Field(int tag, int value){
+		if (value != 0){
+			writeUInt32NoTag(tag);
+			writeUInt32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedUInt32Field(int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packUInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedUInt32Field(int tag, @Nullable int[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packUInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code uint64} format, with the given precomputed tag.
+	 */
+	public void writeTaggedUInt64Field(int tag, long value){
+		if (value != 0L){
+			writeUInt32NoTag(tag);
+			writeUInt64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedUInt64Field(int tag, @Nullable Collection<Long> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code uint64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedUInt64Field(int tag, @Nullable long[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sint32} format, with the given precomputed tag.
+	 */
+	public void writeTaggedSInt32Field(int tag, int value){
+		if (value != 0){
+			writeUInt32NoTag(tag);
+			writeSInt32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint32} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedSInt32Field(int tag, @Nullable Collection<Integer> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packSInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint32} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedSInt32Field(int tag, @Nullable int[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packSInt32(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sint64} format, with the given precomputed tag.
+	 */
+	public void writeTaggedSInt64Field(int tag, long value){
+		if (value != 0L){
+			writeUInt32NoTag(tag);
+			writeSInt64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint64} field, with the given precomputed tag, traversing the
+	 * values only once. A {@code null} collection is not written at all.
+	 */
+	public void writePackedSInt64Field(int tag, @Nullable Collection<Long> values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packSInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sint64} field, held in an array, with the given precomputed tag.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedSInt64Field(int tag, @Nullable long[] values, @NotNull WritePass pass){
+		if (values == null)
+			return;
+
+		pass.packSInt64(values);
+		pass.endPacked(this, tag);
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code fixed32} format, with the given precomputed tag.
+	 */
+	public void writeTaggedFixed32Field(int tag, int value){
+		if (value != 0){
+			writeUInt32NoTag(tag);
+			writeFixed32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code fixed32} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk, directly in the buffer of the output.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedFixed32Field(int tag, @Nullable int[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedFixed32FieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code fixed64} format, with the given precomputed tag.
+	 */
+	public void writeTaggedFixed64Field(int tag, long value){
+		if (value != 0L){
+			writeUInt32NoTag(tag);
+			writeFixed64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code fixed64} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk, directly in the buffer of the output.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedFixed64Field(int tag, @Nullable long[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedFixed64FieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes an {@code int} field, encoded in {@code sfixed32} format, with the given precomputed tag.
+	 */
+	public void writeTaggedSFixed32Field(int tag, int value){
+		if (value != 0){
+			writeUInt32NoTag(tag);
+			writeSFixed32NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sfixed32} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk, directly in the buffer of the output.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedSFixed32Field(int tag, @Nullable int[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedSFixed32FieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes a {@code long} field, encoded in {@code sfixed64} format, with the given precomputed tag.
+	 */
+	public void writeTaggedSFixed64Field(int tag, long value){
+		if (value != 0L){
+			writeUInt32NoTag(tag);
+			writeSFixed64NoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a packed repeated {@code sfixed64} field, held in an array, with the given precomputed
+	 * tag. A large field is converted into its encoding in bulk, directly in the buffer of the output.
+	 * A {@code null} array is not written at all.
+	 */
+	public void writePackedSFixed64Field(int tag, @Nullable long[] values){
+		if (values == null)
+			return;
+
+		int length = Codec.packedRepeatedSFixed64FieldSize(values);
+		writeUInt32NoTag(tag);
+		writeUInt32NoTag(length);
+		PackedFixedWidth.encode(values, buffer, skip(length));
+	}
+
+
+
+	/**
+	 * Writes a {@code boolean} field, with the given precomputed tag.
+	 */
+	public void writeTaggedBoolField(int tag, boolean value){
+		if (value){
+			writeUInt32NoTag(tag);
+			writeBoolNoTag(true);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@link String} field, with the given precomputed tag. If the size pass has already
+	 * encoded the string, its encoding is copied rather than encoded again.
+	 */
+	public void writeTaggedStringField(int tag, @Nullable String value, @NotNull WritePass pass){
+		if (value != null){
+			writeUInt32NoTag(tag);
+			pass.writeString(this, value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@link LazyString} field, with the given precomputed tag. A value that was read is
+	 * written as the bytes it was read from; otherwise, the same as
+	 * {@link #writeTaggedStringField(int, String, WritePass)}.
+	 */
+	public void writeTaggedStringField(int tag, @Nullable LazyString value, @NotNull WritePass pass){
+		if (value == null)
+			return;
+
+		writeUInt32NoTag(tag);
+		byte[] encoded = value.encoded();
+		if (encoded == null)
+			pass.writeString(this, value.toString());
+		else{
+			writeUInt32NoTag(value.encodedLength());
+			writeRawBytes(encoded, value.encodedOffset(), value.encodedLength());
+		}
+	}
+
+
+
+	/**
+	 * Writes a byte array field, with the given precomputed tag. A {@code null} value is treated the
+	 * same way as a byte array of zero length.
+	 */
+	public void writeTaggedBytesField(int tag, @Nullable byte[] value){
+		if (value != null){
+			writeUInt32NoTag(tag);
+			writeByteArrayNoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} field held in a {@link ByteBuffer} (the bytes between its position and
+	 * its limit), with the given precomputed tag. A {@code null} value is not written.
+	 */
+	public void writeTaggedBytesField(int tag, @Nullable ByteBuffer value){
+		if (value != null){
+			writeUInt32NoTag(tag);
+			writeByteBufferNoTag(value);
+		}
+	}
+
+
+
+	/**
+	 * Returns the given {@code sint32} value, ZigZag-encoded.
+	 */
+	private static int encodeZigZag32(int value){
+		return (value << 1) ^ (value >> 31); // See CodedOutputStream.encodeZigZag32
+	}
+
+
+
+	/**
+	 * Returns the given {@code sint64} value, ZigZag-encoded.
+	 */
+	private static long encodeZigZag64(long value){
+		return (value << 1) ^ (value >> 63); // See CodedOutputStream.encodeZigZag64
+	}
+
+
+
+	/**
+	 * Returns the size of the given value, encoded as an unsigned 32-bit varint.
+	 */
+	private static int uInt32Size(int value){
+		return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+
+
+	/**
+	 * Returns the size of the given value, encoded as an unsigned 64-bit varint.
+	 */
+	private static int uInt64Size(long value){
+		return (63 - Long.numberOfLeadingZeros(value | 1)) / 7 + 1;
+	}
+
+
+
+}
@@ -0,0 +1,532 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+
+/**
+ * An output buffer that is written back-to-front: each write prepends its bytes to the ones
+ * already written. Writing the fields of a message last-to-first, the length of each
+ * length-delimited field is known right after its payload is written, so, unlike with
+ * {@link CodedOutputStream}, no separate pass is needed to compute the sizes of sub-messages.
+ *
+ * The methods are named after their {@link CodedOutputStream} counterparts. The buffer grows as
+ * needed, and is not thread-safe.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class ReverseOutput{
+
+
+
+	/**
+	 * The default initial capacity of the buffer.
+	 */
+	private static final int DEFAULT_INITIAL_CAPACITY = 256;
+
+
+
+	/**
+	 * The buffer. The bytes written so far occupy the range from {@link #position} to its end.
+	 */
+	@NotNull
+	private byte[] buffer;
+
+
+
+	/**
+	 * The index of the first written byte in the buffer.
+	 */
+	private int position;
+
+
+
+	/**
+	 * Creates a new {@link ReverseOutput} with the default initial capacity.
+	 */
+	public ReverseOutput(){
+		this(DEFAULT_INITIAL_CAPACITY);
+	}
+
+
+
+	/**
+	 * Creates a new {@link ReverseOutput} with the given initial capacity.
+	 */
+	public ReverseOutput(int initialCapacity){
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Negative capacity: " + initialCapacity);
+
+		buffer = new byte[initialCapacity];
+		position = initialCapacity;
+	}
+
+
+
+	/**
+	 * Returns the number of bytes written so far.
+	 */
+	public int size(){
+		return buffer.length - position;
+	}
+
+
+
+	/**
+	 * Discards all the bytes written so far, keeping the buffer for reuse.
+	 */
+	public void reset(){
+		position = buffer.length;
+	}
+
+
+
+	/**
+	 * Returns a copy of the bytes written so far.
+	 */
+	@NotNull
+	public byte[] toByteArray(){
+		return Arrays.copyOfRange(buffer, position, buffer.length);
+	}
+
+
+
+	/**
+	 * Returns a read-only {@link ByteBuffer} wrapping (not copying) the bytes written so far. The
+	 * returned buffer is only valid until the next write or {@link #reset()}.
+	 */
+	@NotNull
+	public ByteBuffer toByteBuffer(){
+		return ByteBuffer.wrap(buffer, position, size()).slice().asReadOnlyBuffer();
+	}
+
+
+
+	/**
+	 * Writes the bytes written so far into the given {@link OutputStream}.
+	 */
+	public void writeTo(@NotNull OutputStream output) throws IOException{
+		output.write(buffer, position, size());
+	}
+
+
+
+	/**
+	 * Makes sure there is room for at least the given number of bytes before {@link #position}.
+	 */
+	private void ensureCapacity(int length){
+		if (position < length)
+			grow(length);
+	}
+
+
+
+	/**
+	 * Reallocates the buffer so that there is room for at least the given number of bytes before
+	 * the ones already written.
+	 */
+	private void grow(int length){
+		int size = size();
+		int newCapacity = Math.max(buffer.length * 2, size + length);
+		if (newCapacity < 0) // Overflow
+			throw new OutOfMemoryError("Required buffer size too large: " + ((long)size + length));
+
+		byte[] newBuffer = new byte[newCapacity];
+		System.arraycopy(buffer, position, newBuffer, newCapacity - size, size);
+		buffer = newBuffer;
+		position = newCapacity - size;
+	}
+
+
+
+	/**
+	 * Writes a single raw byte.
+	 */
+	public void writeRawByte(byte value){
+		ensureCapacity(1);
+		buffer[--position] = value;
+	}
+
+
+
+	/**
+	 * Writes the given range of the given array, as is.
+	 */
+	public void writeRawBytes(@NotNull byte[] value, int offset, int length){
+		ensureCapacity(length);
+		position -= length;
+		System.arraycopy(value, offset, buffer, position, length);
+	}
+
+
+
+	/**
+	 * Writes an unsigned 32-bit varint.
+	 */
+	public void writeUInt32NoTag(int value){
+		int size = CodedOutputStream.computeUInt32SizeNoTag(value);
+		ensureCapacity(size);
+		position -= size;
+		int index = position;
+		while ((value & ~0x7F) != 0){
+			buffer[index++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[index] = (byte)value;
+	}
+
+
+
+	/**
+	 * Writes an unsigned 64-bit varint.
+	 */
+	public void writeUInt64NoTag(long value){
+		int size = CodedOutputStream.computeUInt64SizeNoTag(value);
+		ensureCapacity(size);
+		position -= size;
+		int index = position;
+		while ((value & ~0x7FL) != 0L){
+			buffer[index++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[index] = (byte)value;
+	}
+
+
+
+	/**
+	 * Writes a little-endian 32-bit value.
+	 */
+	public void writeFixed32NoTag(int value){
+		ensureCapacity(4);
+		position -= 4;
+		buffer[position] = (byte)value;
+		buffer[position + 1] = (byte)(value >> 8);
+		buffer[position + 2] = (byte)(value >> 16);
+		buffer[position + 3] = (byte)(value >> 24);
+	}
+
+
+
+	/**
+	 * Writes a little-endian 64-bit value.
+	 */
+	public void writeFixed64NoTag(long value){
+		ensureCapacity(8);
+		position -= 8;
+		for (int i = 0; i < 8; ++i){
+			buffer[position + i] = (byte)value;
+			value >>= 8;
+		}
+	}
+
+
+
+	/**
+	 * Writes a tag.
+	 */
+	public void writeTag(int fieldNumber, int wireType){
+		writeUInt32NoTag((fieldNumber << 3) | wireType); // See WireFormat.makeTag
+	}
+
+
+
+	/**
+	 * Writes an {@code int32} value, sans the tag.
+	 */
+	public void writeInt32NoTag(int value){
+		if (value >= 0)
+			writeUInt32NoTag(value);
+		else // Must sign-extend
+			writeUInt64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code int64} value, sans the tag.
+	 */
+	public void writeInt64NoTag(long value){
+		writeUInt64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code sint32} value, sans the tag.
+	 */
+	public void writeSInt32NoTag(int value){
+		writeUInt32NoTag(CodedOutputStream.encodeZigZag32(value));
+	}
+
+
+
+	/**
+	 * Writes an {@code sint64} value, sans the tag.
+	 */
+	public void writeSInt64NoTag(long value){
+		writeUInt64NoTag(CodedOutputStream.encodeZigZag64(value));
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed32} value, sans the tag.
+	 */
+	public void writeSFixed32NoTag(int value){
+		writeFixed32NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed64} value, sans the tag.
+	 */
+	public void writeSFixed64NoTag(long value){
+		writeFixed64NoTag(value);
+	}
+
+
+
+	/**
+	 * Writes a {@code double} value, sans the tag.
+	 */
+	public void writeDoubleNoTag(double value){
+		writeFixed64NoTag(Double.doubleToRawLongBits(value));
+	}
+
+
+
+	/**
+	 * Writes a {@code float} value, sans the tag.
+	 */
+	public void writeFloatNoTag(float value){
+		writeFixed32NoTag(Float.floatToRawIntBits(value));
+	}
+
+
+
+	/**
+	 * Writes a {@code bool} value, sans the tag.
+	 */
+	public void writeBoolNoTag(boolean value){
+		writeRawByte(value ? (byte)1 : (byte)0);
+	}
+
+
+
+	/**
+	 * Writes a {@code string} value, sans the tag.
+	 */
+	public void writeStringNoTag(@NotNull String value){
+		int length = Utf8.encodedLength(value);
+		ensureCapacity(length);
+		position -= length;
+		Utf8.encode(value, buffer, position);
+		writeUInt32NoTag(length);
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} value, sans the tag.
+	 */
+	public void writeByteArrayNoTag(@NotNull byte[] value){
+		writeRawBytes(value, 0, value.length);
+		writeUInt32NoTag(value.length);
+	}
+
+
+
+	/**
+	 * Writes the bytes between the position and the limit of the given {@link ByteBuffer} as a
+	 * {@code bytes} value, sans the tag. The position of the buffer is not modified.
+	 */
+	public void writeByteBufferNoTag(@NotNull ByteBuffer value){
+		int length = value.remaining();
+		ensureCapacity(length);
+		position -= length;
+		value.duplicate().get(buffer, position, length);
+		writeUInt32NoTag(length);
+	}
+
+
+
+	/**
+	 * Writes a {@code double} field, including the tag.
+	 */
+	public void writeDouble(int fieldNumber, double value){
+		writeDoubleNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+	}
+
+
+
+	/**
+	 * Writes a {@code float} field, including the tag.
+	 */
+	public void writeFloat(int fieldNumber, float value){
+		writeFloatNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+	}
+
+
+
+	/**
+	 * Writes an {@code int32} field, including the tag.
+	 */
+	public void writeInt32(int fieldNumber, int value){
+		writeInt32NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes an {@code int64} field, including the tag.
+	 */
+	public void writeInt64(int fieldNumber, long value){
+		writeInt64NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes a {@code uint32} field, including the tag.
+	 */
+	public void writeUInt32(int fieldNumber, int value){
+		writeUInt32NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes a {@code uint64} field, including the tag.
+	 */
+	public void writeUInt64(int fieldNumber, long value){
+		writeUInt64NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes an {@code sint32} field, including the tag.
+	 */
+	public void writeSInt32(int fieldNumber, int value){
+		writeSInt32NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes an {@code sint64} field, including the tag.
+	 */
+	public void writeSInt64(int fieldNumber, long value){
+		writeSInt64NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes a {@code fixed32} field, including the tag.
+	 */
+	public void writeFixed32(int fieldNumber, int value){
+		writeFixed32NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+	}
+
+
+
+	/**
+	 * Writes a {@code fixed64} field, including the tag.
+	 */
+	public void writeFixed64(int fieldNumber, long value){
+		writeFixed64NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed32} field, including the tag.
+	 */
+	public void writeSFixed32(int fieldNumber, int value){
+		writeSFixed32NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED32);
+	}
+
+
+
+	/**
+	 * Writes an {@code sfixed64} field, including the tag.
+	 */
+	public void writeSFixed64(int fieldNumber, long value){
+		writeSFixed64NoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_FIXED64);
+	}
+
+
+
+	/**
+	 * Writes a {@code bool} field, including the tag.
+	 */
+	public void writeBool(int fieldNumber, boolean value){
+		writeBoolNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_VARINT);
+	}
+
+
+
+	/**
+	 * Writes an {@code enum} field, including the tag.
+	 */
+	public void writeEnum(int fieldNumber, int value){
+		writeInt32(fieldNumber, value);
+	}
+
+
+
+	/**
+	 * Writes a {@code string} field, including the tag.
+	 */
+	public void writeString(int fieldNumber, @NotNull String value){
+		writeStringNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} field, including the tag.
+	 */
+	public void writeByteArray(int fieldNumber, @NotNull byte[] value){
+		writeByteArrayNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+	}
+
+
+
+	/**
+	 * Writes a {@code bytes} field, held in a {@link ByteBuffer}, including the tag.
+	 */
+	public void writeByteBuffer(int fieldNumber, @NotNull ByteBuffer value){
+		writeByteBufferNoTag(value);
+		writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+	}
+
+
+
+}
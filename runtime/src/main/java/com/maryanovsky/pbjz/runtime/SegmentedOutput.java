@@ -0,0 +1,340 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/**
+ * An {@link OutputStream} that stores the bytes written into it in a chain of fixed-size chunks,
+ * taken from a {@link ChunkPool}. Unlike {@link java.io.ByteArrayOutputStream}, it never copies the
+ * bytes already written when it grows, and never needs a single array of the final size, so it is
+ * suitable for writing very large values.
+ *
+ * The written bytes can be obtained, without copying, as an array of {@link ByteBuffer}s (e.g. for
+ * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}) or as an
+ * {@link InputStream}. When they are no longer needed, {@link #release()} returns the chunks to the
+ * pool.
+ *
+ * Large arrays can also be appended by reference, via {@link #writeReference(byte[], int, int)},
+ * in which case the buffers are the chunks interleaved with slices of those arrays. Created with a
+ * reference threshold, the output makes {@link Codec#write(SegmentedOutput, Object)} append
+ * {@code bytes} values of at least that length this way, so large payloads are never copied on
+ * their way to a gathering write. An instance is not thread-safe.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class SegmentedOutput extends OutputStream{
+
+
+
+	/**
+	 * A contiguous range of written bytes, either in one of our chunks or in an array referenced
+	 * via {@link #writeReference(byte[], int, int)}.
+	 */
+	private static final class Segment{
+
+		@NotNull
+		final byte[] array;
+
+		final int offset;
+
+		int length;
+
+		Segment(@NotNull byte[] array, int offset, int length){
+			this.array = array;
+			this.offset = offset;
+			this.length = length;
+		}
+
+	}
+
+
+
+	/**
+	 * The pool we take chunks from.
+	 */
+	@NotNull
+	private final ChunkPool pool;
+
+
+
+	/**
+	 * The minimum length of a {@code bytes} value for the codecs to write it via
+	 * {@link #writeReference(byte[], int, int)} rather than copy it.
+	 */
+	private final int referenceThreshold;
+
+
+
+	/**
+	 * The segments holding the written bytes, in order.
+	 */
+	@NotNull
+	private final List<Segment> segments = new ArrayList<>();
+
+
+
+	/**
+	 * The chunks taken from the pool, to be returned to it by {@link #release()}.
+	 */
+	@NotNull
+	private final List<byte[]> chunks = new ArrayList<>();
+
+
+
+	/**
+	 * The number of bytes written into the last chunk.
+	 */
+	private int lastChunkSize = 0;
+
+
+
+	/**
+	 * The segment of the last chunk that bytes are currently appended to; {@code null} if there is
+	 * none, or if a referenced segment has been added after it.
+	 */
+	@Nullable
+	private Segment chunkSegment = null;
+
+
+
+	/**
+	 * The total number of bytes written.
+	 */
+	private long size = 0;
+
+
+
+	/**
+	 * Creates a new {@link SegmentedOutput} taking its chunks from {@link ChunkPool#DEFAULT}.
+	 */
+	public SegmentedOutput(){
+		this(ChunkPool.DEFAULT);
+	}
+
+
+
+	/**
+	 * Creates a new {@link SegmentedOutput} taking its chunks from the given pool.
+	 */
+	public SegmentedOutput(@NotNull ChunkPool pool){
+		this(pool, Integer.MAX_VALUE);
+	}
+
+
+
+	/**
+	 * Creates a new {@link SegmentedOutput} taking its chunks from the given pool, into which
+	 * {@link Codec#write(SegmentedOutput, Object)} writes {@code bytes} values of at least the given
+	 * length by reference, rather than copying them. Such values are then part of the output, and
+	 * must not be modified until it is consumed.
+	 */
+	public SegmentedOutput(@NotNull ChunkPool pool, int referenceThreshold){
+		if (referenceThreshold < 0)
+			throw new IllegalArgumentException("Negative reference threshold: " + referenceThreshold);
+
+		this.pool = pool;
+		this.referenceThreshold = referenceThreshold;
+	}
+
+
+
+	/**
+	 * Returns the minimum length of a {@code bytes} value for the codecs to write it by reference.
+	 */
+	public int referenceThreshold(){
+		return referenceThreshold;
+	}
+
+
+
+	/**
+	 * Returns the last chunk, after making sure it has room for at least one more byte, and that
+	 * {@link #chunkSegment} is the segment to append to it.
+	 */
+	@NotNull
+	private byte[] writableChunk(){
+		if (chunks.isEmpty() || (lastChunkSize == pool.chunkSize())){
+			chunks.add(pool.acquire());
+			lastChunkSize = 0;
+			chunkSegment = null;
+		}
+
+		byte[] chunk = chunks.get(chunks.size() - 1);
+		if (chunkSegment == null){
+			chunkSegment = new Segment(chunk, lastChunkSize, 0);
+			segments.add(chunkSegment);
+		}
+
+		return chunk;
+	}
+
+
+
+	@Override
+	public void write(int b){
+		byte[] chunk = writableChunk();
+		chunk[lastChunkSize++] = (byte)b;
+		chunkSegment.length++;
+		++size;
+	}
+
+
+
+	@Override
+	public void write(@NotNull byte[] bytes, int offset, int length){
+		checkRange(bytes, offset, length);
+
+		while (length > 0){
+			byte[] chunk = writableChunk();
+			int count = Math.min(length, chunk.length - lastChunkSize);
+			System.arraycopy(bytes, offset, chunk, lastChunkSize, count);
+			lastChunkSize += count;
+			chunkSegment.length += count;
+			size += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+
+
+	/**
+	 * Appends the given range of the given array to the output by reference, without copying it.
+	 * The array must not be modified until the output is consumed. Bytes written afterwards
+	 * continue to fill the last chunk.
+	 */
+	public void writeReference(@NotNull byte[] bytes, int offset, int length){
+		checkRange(bytes, offset, length);
+		if (length == 0)
+			return;
+
+		segments.add(new Segment(bytes, offset, length));
+		chunkSegment = null;
+		size += length;
+	}
+
+
+
+	/**
+	 * Throws an {@link IndexOutOfBoundsException} if the given range is not within the given array.
+	 */
+	private static void checkRange(@NotNull byte[] bytes, int offset, int length){
+		if ((offset < 0) || (length < 0) || (offset + length > bytes.length))
+			throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", array length: " + bytes.length);
+	}
+
+
+
+	/**
+	 * Returns the total number of bytes written.
+	 */
+	public long size(){
+		return size;
+	}
+
+
+
+	/**
+	 * Returns read-only {@link ByteBuffer}s wrapping (not copying) the written bytes, in order. The
+	 * returned buffers are only valid until {@link #release()} is called.
+	 */
+	@NotNull
+	public ByteBuffer[] toByteBuffers(){
+		ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+		for (int i = 0; i < buffers.length; ++i){
+			Segment segment = segments.get(i);
+			buffers[i] = ByteBuffer.wrap(segment.array, segment.offset, segment.length).slice().asReadOnlyBuffer();
+		}
+		return buffers;
+	}
+
+
+
+	/**
+	 * Returns an {@link InputStream} that reads the written bytes, without copying them. The
+	 * returned stream is only valid until {@link #release()} is called.
+	 */
+	@NotNull
+	public InputStream toInputStream(){
+		return new InputStream(){
+
+			private int segmentIndex = 0;
+
+			private int position = 0;
+
+			/**
+			 * Returns whether there are more bytes to read, advancing to the next segment if needed.
+			 */
+			private boolean hasMore(){
+				while ((segmentIndex < segments.size()) && (position == segments.get(segmentIndex).length)){
+					++segmentIndex;
+					position = 0;
+				}
+				return segmentIndex < segments.size();
+			}
+
+			@Override
+			public int read(){
+				if (!hasMore())
+					return -1;
+
+				Segment segment = segments.get(segmentIndex);
+				return segment.array[segment.offset + position++] & 0xFF;
+			}
+
+			@Override
+			public int read(@NotNull byte[] bytes, int offset, int length){
+				if (length == 0)
+					return 0;
+				if (!hasMore())
+					return -1;
+
+				Segment segment = segments.get(segmentIndex);
+				int count = Math.min(length, segment.length - position);
+				System.arraycopy(segment.array, segment.offset + position, bytes, offset, count);
+				position += count;
+				return count;
+			}
+
+		};
+	}
+
+
+
+	/**
+	 * Writes the written bytes into the given stream.
+	 */
+	public void writeTo(@NotNull OutputStream output) throws IOException{
+		for (Segment segment : segments)
+			output.write(segment.array, segment.offset, segment.length);
+	}
+
+
+
+	/**
+	 * Discards the written bytes, returns the chunks holding them to the pool and drops the
+	 * references to the arrays written via {@link #writeReference(byte[], int, int)}. The instance can
+	 * be written into again after this call.
+	 */
+	public void release(){
+		for (byte[] chunk : chunks)
+			pool.release(chunk);
+		chunks.clear();
+		segments.clear();
+		lastChunkSize = 0;
+		chunkSegment = null;
+		size = 0;
+	}
+
+
+
+}
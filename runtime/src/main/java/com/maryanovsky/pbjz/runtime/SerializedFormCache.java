@@ -0,0 +1,192 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * A cache of the serialized forms of values of a user-defined type, keyed by the identity of the
+ * values and holding them weakly, so that a value's entry goes away with the value. Set on a
+ * {@link Codec} with {@link Codec#setSerializedFormCache(SerializedFormCache)}, for immutable
+ * values that are embedded in many parents. A cache should be set on a single codec.
+ *
+ * The cache is thread-safe. The hit rate can be checked via {@link #hits()} and
+ * {@link #misses()}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class SerializedFormCache<T>{
+
+
+
+	/**
+	 * A weak reference to a value, which is equal to another only if they refer to the same value.
+	 */
+	private static final class Key extends WeakReference<Object>{
+
+		/**
+		 * The identity hash code of the value.
+		 */
+		private final int hash;
+
+		/**
+		 * Creates a new key for the given value, enqueued in the given queue once the value is
+		 * collected.
+		 */
+		Key(@NotNull Object value, @NotNull ReferenceQueue<Object> queue){
+			super(value, queue);
+			this.hash = System.identityHashCode(value);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (this == o)
+				return true;
+			if (o instanceof LookupKey)
+				return ((LookupKey)o).value == get();
+			if (!(o instanceof Key))
+				return false;
+
+			Object value = get();
+			return (value != null) && (value == ((Key)o).get());
+		}
+
+	}
+
+
+
+	/**
+	 * A strong, short-lived key with which the cache is probed; equal to a {@link Key} referring to
+	 * the same value. Unlike a {@link Key}, it isn't a {@link java.lang.ref.Reference}, so it's
+	 * cheap to create on every lookup.
+	 */
+	private static final class LookupKey{
+
+		/**
+		 * The value.
+		 */
+		@NotNull
+		private final Object value;
+
+		/**
+		 * Creates a new lookup key for the given value.
+		 */
+		LookupKey(@NotNull Object value){
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode(){
+			return System.identityHashCode(value);
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (this == o)
+				return true;
+			if (o instanceof Key)
+				return ((Key)o).get() == value;
+			if (!(o instanceof LookupKey))
+				return false;
+
+			return ((LookupKey)o).value == value;
+		}
+
+	}
+
+
+
+	/**
+	 * The serialized forms, by the keys of their values; always {@link Key}s, but probed with
+	 * {@link LookupKey}s.
+	 */
+	@NotNull
+	private final ConcurrentHashMap<Object, byte[]> serializedForms = new ConcurrentHashMap<>();
+
+
+
+	/**
+	 * The queue into which the keys of collected values are enqueued.
+	 */
+	@NotNull
+	private final ReferenceQueue<Object> collectedKeys = new ReferenceQueue<>();
+
+
+
+	/**
+	 * The number of lookups that found the serialized form in the cache.
+	 */
+	@NotNull
+	private final LongAdder hits = new LongAdder();
+
+
+
+	/**
+	 * The number of lookups that didn't find the serialized form in the cache.
+	 */
+	@NotNull
+	private final LongAdder misses = new LongAdder();
+
+
+
+	/**
+	 * Returns the number of lookups that found the serialized form in the cache.
+	 */
+	public long hits(){
+		return hits.sum();
+	}
+
+
+
+	/**
+	 * Returns the number of lookups that didn't find the serialized form in the cache (and encoded
+	 * the value).
+	 */
+	public long misses(){
+		return misses.sum();
+	}
+
+
+
+	/**
+	 * Returns the serialized form of the given value, encoding it with the given codec and caching
+	 * it if it isn't cached yet. The returned array is shared and must not be modified.
+	 */
+	@NotNull
+	byte[] serializedForm(@NotNull Codec<T> codec, @NotNull T value){
+		byte[] serializedForm = serializedForms.get(new LookupKey(value));
+		if (serializedForm != null){
+			hits.increment();
+			return serializedForm;
+		}
+
+		misses.increment();
+		removeCollected();
+		serializedForm = codec.toByteArray(value);
+		byte[] existing = serializedForms.putIfAbsent(new Key(value, collectedKeys), serializedForm);
+		return (existing != null) ? existing : serializedForm;
+	}
+
+
+
+	/**
+	 * Removes the entries of collected values.
+	 */
+	private void removeCollected(){
+		for (Object key; (key = collectedKeys.poll()) != null; )
+			serializedForms.remove(key);
+	}
+
+
+
+}
@@ -0,0 +1,268 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * A bounded cache of the UTF-8 encodings of strings, for values that repeat a small set of strings
+ * (host names, service names, region codes, etc.) many times. A write pass that has a cache copies
+ * the cached encoding of a short string instead of encoding it again.
+ *
+ * A cache is enabled by passing it to
+ * {@link CodecContexts#CodecContexts(int, int, StringCache)}; it is then used by all the
+ * {@link EncodeContext}s of that pool. Only strings of at most {@link #maxStringLength()} chars are
+ * cached. Strings are looked up by equality, and when the cache is full, the least recently used
+ * strings are evicted, approximately, via the clock algorithm.
+ *
+ * The cache is thread-safe. Lookups of cached strings neither lock nor allocate; adding a string
+ * takes a lock, so a cache only pays off when the hit rate is high, which can be checked via
+ * {@link #hits()} and {@link #misses()}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class StringCache{
+
+
+
+	/**
+	 * The default maximum length, in chars, of the strings that are cached.
+	 */
+	public static final int DEFAULT_MAX_STRING_LENGTH = 64;
+
+
+
+	/**
+	 * A cached string and its encoding.
+	 */
+	private static final class Entry{
+
+		/**
+		 * The string.
+		 */
+		@NotNull
+		final String value;
+
+		/**
+		 * The UTF-8 encoding of the string.
+		 */
+		@NotNull
+		final byte[] encoded;
+
+		/**
+		 * Whether the entry has been used since the clock hand last passed it. Accessed without
+		 * synchronization; a lost update only affects which entry is evicted.
+		 */
+		boolean referenced = false;
+
+		/**
+		 * Creates a new entry.
+		 */
+		Entry(@NotNull String value, @NotNull byte[] encoded){
+			this.value = value;
+			this.encoded = encoded;
+		}
+
+	}
+
+
+
+	/**
+	 * The cached entries, by their strings.
+	 */
+	@NotNull
+	private final ConcurrentHashMap<String, Entry> entries;
+
+
+
+	/**
+	 * The cached entries, in the order the clock hand visits them. Guarded by {@code this}.
+	 */
+	@NotNull
+	private final Entry[] clock;
+
+
+
+	/**
+	 * The number of used slots in {@link #clock}. Guarded by {@code this}.
+	 */
+	private int count = 0;
+
+
+
+	/**
+	 * The index in {@link #clock} of the next candidate for eviction. Guarded by {@code this}.
+	 */
+	private int hand = 0;
+
+
+
+	/**
+	 * The maximum length, in chars, of the strings that are cached.
+	 */
+	private final int maxStringLength;
+
+
+
+	/**
+	 * The number of lookups that found the string in the cache.
+	 */
+	@NotNull
+	private final LongAdder hits = new LongAdder();
+
+
+
+	/**
+	 * The number of lookups that didn't find the string in the cache.
+	 */
+	@NotNull
+	private final LongAdder misses = new LongAdder();
+
+
+
+	/**
+	 * The number of strings evicted from the cache.
+	 */
+	@NotNull
+	private final LongAdder evictions = new LongAdder();
+
+
+
+	/**
+	 * Creates a new cache holding at most the given number of strings, each of at most
+	 * {@link #DEFAULT_MAX_STRING_LENGTH} chars.
+	 */
+	public StringCache(int capacity){
+		this(capacity, DEFAULT_MAX_STRING_LENGTH);
+	}
+
+
+
+	/**
+	 * Creates a new cache holding at most the given number of strings, each of at most the given
+	 * number of chars.
+	 */
+	public StringCache(int capacity, int maxStringLength){
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Non-positive capacity: " + capacity);
+		if (maxStringLength < 0)
+			throw new IllegalArgumentException("Negative max string length: " + maxStringLength);
+
+		this.entries = new ConcurrentHashMap<>(capacity * 2);
+		this.clock = new Entry[capacity];
+		this.maxStringLength = maxStringLength;
+	}
+
+
+
+	/**
+	 * Returns the maximum number of strings held by the cache.
+	 */
+	public int capacity(){
+		return clock.length;
+	}
+
+
+
+	/**
+	 * Returns the maximum length, in chars, of the strings that are cached.
+	 */
+	public int maxStringLength(){
+		return maxStringLength;
+	}
+
+
+
+	/**
+	 * Returns the number of strings currently in the cache.
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+
+
+	/**
+	 * Returns the number of lookups that found the string in the cache.
+	 */
+	public long hits(){
+		return hits.sum();
+	}
+
+
+
+	/**
+	 * Returns the number of lookups that didn't find the string in the cache (and added it).
+	 */
+	public long misses(){
+		return misses.sum();
+	}
+
+
+
+	/**
+	 * Returns the number of strings evicted from the cache to make room for others.
+	 */
+	public long evictions(){
+		return evictions.sum();
+	}
+
+
+
+	/**
+	 * Returns the UTF-8 encoding of the given string, from the cache if it's there, or encoding and
+	 * adding it otherwise. Returns {@code null} if the string is too long to be cached. The returned
+	 * array is shared and must not be modified.
+	 */
+	@Nullable
+	byte[] encoded(@NotNull String value){
+		if (value.length() > maxStringLength)
+			return null;
+
+		Entry entry = entries.get(value);
+		if (entry != null){
+			hits.increment();
+			if (!entry.referenced)
+				entry.referenced = true;
+			return entry.encoded;
+		}
+
+		misses.increment();
+		byte[] encoded = new byte[Utf8.encodedLength(value)];
+		Utf8.encode(value, encoded, 0);
+		add(new Entry(value, encoded));
+		return encoded;
+	}
+
+
+
+	/**
+	 * Adds the given entry to the cache, evicting another one if the cache is full.
+	 */
+	private synchronized void add(@NotNull Entry entry){
+		if (entries.containsKey(entry.value)) // Added concurrently
+			return;
+
+		if (count < clock.length)
+			clock[count++] = entry;
+		else{
+			// Give each recently used entry a second chance, and evict the first one that isn't
+			while (clock[hand].referenced){
+				clock[hand].referenced = false;
+				hand = (hand + 1) % clock.length;
+			}
+			entries.remove(clock[hand].value);
+			clock[hand] = entry;
+			hand = (hand + 1) % clock.length;
+			evictions.increment();
+		}
+		entries.put(entry.value, entry);
+	}
+
+
+
+}
@@ -0,0 +1,232 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * A bounded cache of decoded strings, keyed by their UTF-8 encodings, for values that repeat a
+ * small set of strings (host names, service names, region codes, etc.) many times. Decoding a
+ * string that is in the cache returns the cached {@link String} instead of decoding a new one, so
+ * that the decoded values share a single instance of each such string.
+ *
+ * The {@code string} fields of codecs generated with the {@code intern_strings} option are decoded
+ * via the interner set on the codec with {@link Codec#setStringInterner(StringInterner)}, if any.
+ * Only strings whose encoding is at most {@link #maxEncodedLength()} bytes long are cached.
+ *
+ * The cache is a direct-mapped hash table: each encoding has a single slot, and a string that
+ * hashes into an occupied slot replaces the one there. Lookups and replacements are thread-safe
+ * and lock-free, and a hit allocates nothing; when decoding from a {@link ProtoReader}, the
+ * encoding is hashed and compared in place. The hit rate can be checked via {@link #hits()} and
+ * {@link #misses()}.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class StringInterner{
+
+
+
+	/**
+	 * The default maximum length, in bytes, of the encodings of the strings that are cached.
+	 */
+	public static final int DEFAULT_MAX_ENCODED_LENGTH = 64;
+
+
+
+	/**
+	 * A cached string and its encoding. Immutable, so that it can be published via a data race.
+	 */
+	private static final class Entry{
+
+		/**
+		 * The UTF-8 encoding of the string.
+		 */
+		@NotNull
+		final byte[] encoded;
+
+		/**
+		 * The hash of {@link #encoded}.
+		 */
+		final int hash;
+
+		/**
+		 * The string.
+		 */
+		@NotNull
+		final String value;
+
+		/**
+		 * Creates a new entry.
+		 */
+		Entry(@NotNull byte[] encoded, int hash, @NotNull String value){
+			this.encoded = encoded;
+			this.hash = hash;
+			this.value = value;
+		}
+
+	}
+
+
+
+	/**
+	 * The slots of the cache; the number of slots is a power of two. Accessed without
+	 * synchronization; a lost update only affects which string is cached.
+	 */
+	@NotNull
+	private final Entry[] slots;
+
+
+
+	/**
+	 * The maximum length, in bytes, of the encodings of the strings that are cached.
+	 */
+	private final int maxEncodedLength;
+
+
+
+	/**
+	 * The number of lookups that found the string in the cache.
+	 */
+	@NotNull
+	private final LongAdder hits = new LongAdder();
+
+
+
+	/**
+	 * The number of lookups that didn't find the string in the cache.
+	 */
+	@NotNull
+	private final LongAdder misses = new LongAdder();
+
+
+
+	/**
+	 * Creates a new interner holding at most the given number of strings (rounded up to a power of
+	 * two), each encoded in at most {@link #DEFAULT_MAX_ENCODED_LENGTH} bytes.
+	 */
+	public StringInterner(int capacity){
+		this(capacity, DEFAULT_MAX_ENCODED_LENGTH);
+	}
+
+
+
+	/**
+	 * Creates a new interner holding at most the given number of strings (rounded up to a power of
+	 * two), each encoded in at most the given number of bytes.
+	 */
+	public StringInterner(int capacity, int maxEncodedLength){
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Non-positive capacity: " + capacity);
+		if (capacity > (1 << 30))
+			throw new IllegalArgumentException("Capacity too large: " + capacity);
+		if (maxEncodedLength < 0)
+			throw new IllegalArgumentException("Negative max encoded length: " + maxEncodedLength);
+
+		int slotCount = Integer.highestOneBit(capacity);
+		if (slotCount < capacity)
+			slotCount <<= 1;
+
+		this.slots = new Entry[slotCount];
+		this.maxEncodedLength = maxEncodedLength;
+	}
+
+
+
+	/**
+	 * Returns the maximum number of strings held by the interner.
+	 */
+	public int capacity(){
+		return slots.length;
+	}
+
+
+
+	/**
+	 * Returns the maximum length, in bytes, of the encodings of the strings that are cached.
+	 */
+	public int maxEncodedLength(){
+		return maxEncodedLength;
+	}
+
+
+
+	/**
+	 * Returns the number of lookups that found the string in the cache.
+	 */
+	public long hits(){
+		return hits.sum();
+	}
+
+
+
+	/**
+	 * Returns the number of lookups that didn't find the string in the cache (and added it).
+	 */
+	public long misses(){
+		return misses.sum();
+	}
+
+
+
+	/**
+	 * Decodes the string encoded in the given range of the given array, returning the cached
+	 * instance if there is one, and caching the decoded string otherwise. Strings whose encoding is
+	 * longer than {@link #maxEncodedLength()} are just decoded.
+	 *
+	 * @throws MalformedProtoException if the bytes are not valid UTF-8.
+	 */
+	@NotNull
+	String decode(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		if (length > maxEncodedLength)
+			return Utf8.decode(bytes, offset, length);
+
+		int hash = hash(bytes, offset, length);
+		int index = hash & (slots.length - 1);
+		Entry entry = slots[index];
+		if ((entry != null) && (entry.hash == hash) && equal(entry.encoded, bytes, offset, length)){
+			hits.increment();
+			return entry.value;
+		}
+
+		misses.increment();
+		String value = Utf8.decode(bytes, offset, length);
+		byte[] encoded = new byte[length];
+		System.arraycopy(bytes, offset, encoded, 0, length);
+		slots[index] = new Entry(encoded, hash, value);
+		return value;
+	}
+
+
+
+	/**
+	 * Returns the hash of the given range of the given array. The bits are spread, so that the low
+	 * bits, which select the slot, depend on all the bytes.
+	 */
+	private static int hash(@NotNull byte[] bytes, int offset, int length){
+		int hash = length;
+		for (int i = offset, end = offset + length; i < end; ++i)
+			hash = 31 * hash + bytes[i];
+		return hash ^ (hash >>> 16);
+	}
+
+
+
+	/**
+	 * Returns whether the given array is equal to the given range of the other given array.
+	 */
+	private static boolean equal(@NotNull byte[] array, @NotNull byte[] bytes, int offset, int length){
+		if (array.length != length)
+			return false;
+
+		for (int i = 0; i < length; ++i){
+			if (array[i] != bytes[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+
+
+}
@@ -0,0 +1,182 @@
+package com.maryanovsky.pbjz.runtime;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+
+
+
+/**
+ * Encodes strings into UTF-8 directly into a byte array. Unpaired surrogates are encoded as
+ * {@code '?'}, the same way {@link String#getBytes(java.nio.charset.Charset)} (and therefore
+ * {@link com.google.protobuf.CodedOutputStream}) encodes them.
+ *
+ * Also decodes strings from UTF-8, rejecting malformed input, overlong encodings and encoded
+ * surrogates, the same way
+ * {@link com.google.protobuf.CodedInputStream#readStringRequireUtf8()} does.
+ *
+ * @author Alexander Maryanovsky
+ */
+final class Utf8{
+
+
+
+	/**
+	 * Returns the number of bytes in the UTF-8 encoding of the given string.
+	 */
+	static int encodedLength(@NotNull String value){
+		int length = value.length();
+		int i = 0;
+		while ((i < length) && (value.charAt(i) < 0x80)) // Skip the ASCII prefix, often the entire string
+			++i;
+
+		int encodedLength = length;
+		for (; i < length; ++i){
+			char c = value.charAt(i);
+			if (c < 0x80)
+				continue;
+
+			if (c < 0x800)
+				encodedLength += 1;
+			else if (Character.isSurrogate(c)){
+				if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(value.charAt(i + 1))){
+					encodedLength += 2; // 4 bytes for 2 chars
+					++i;
+				}
+				// else an unpaired surrogate, encoded as a single '?'
+			}
+			else
+				encodedLength += 2;
+		}
+
+		return encodedLength;
+	}
+
+
+
+	/**
+	 * Encodes the given string into the given buffer, starting at the given offset, and returns the
+	 * offset right after the encoded string. The buffer must have enough room for
+	 * {@link #encodedLength(String)} bytes.
+	 */
+	static int encode(@NotNull String value, @NotNull byte[] buffer, int offset){
+		int length = value.length();
+		int i = 0;
+		for (char c; (i < length) && ((c = value.charAt(i)) < 0x80); ++i) // The ASCII prefix, often the entire string
+			buffer[offset + i] = (byte)c;
+		offset += i;
+
+		for (; i < length; ++i){
+			char c = value.charAt(i);
+			if (c < 0x80)
+				buffer[offset++] = (byte)c;
+			else if (c < 0x800){
+				buffer[offset++] = (byte)(0xC0 | (c >>> 6));
+				buffer[offset++] = (byte)(0x80 | (c & 0x3F));
+			}
+			else if (Character.isSurrogate(c)){
+				if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(value.charAt(i + 1))){
+					int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					buffer[offset++] = (byte)(0xF0 | (codePoint >>> 18));
+					buffer[offset++] = (byte)(0x80 | ((codePoint >>> 12) & 0x3F));
+					buffer[offset++] = (byte)(0x80 | ((codePoint >>> 6) & 0x3F));
+					buffer[offset++] = (byte)(0x80 | (codePoint & 0x3F));
+				}
+				else
+					buffer[offset++] = '?';
+			}
+			else{
+				buffer[offset++] = (byte)(0xE0 | (c >>> 12));
+				buffer[offset++] = (byte)(0x80 | ((c >>> 6) & 0x3F));
+				buffer[offset++] = (byte)(0x80 | (c & 0x3F));
+			}
+		}
+
+		return offset;
+	}
+
+
+
+	/**
+	 * Decodes the string encoded in the given range of the given array.
+	 *
+	 * @throws MalformedProtoException if the bytes are not valid UTF-8.
+	 */
+	@NotNull
+	static String decode(@NotNull byte[] bytes, int offset, int length) throws MalformedProtoException{
+		int end = offset + length;
+		int index = offset;
+		while ((index < end) && (bytes[index] >= 0)) // Skip the ASCII prefix, often the entire string
+			++index;
+		if (index == end)
+			return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+
+		char[] chars = new char[length];
+		int count = index - offset;
+		for (int i = 0; i < count; ++i)
+			chars[i] = (char)bytes[offset + i];
+
+		while (index < end){
+			int b = bytes[index++];
+			if (b >= 0)
+				chars[count++] = (char)b;
+			else if (b < (byte)0xC2) // A continuation byte, or the start of an overlong 2-byte encoding
+				throw invalidUtf8();
+			else if (b < (byte)0xE0){
+				if (index == end)
+					throw invalidUtf8();
+				int b2 = bytes[index++];
+				if (b2 > (byte)0xBF) // Not a continuation byte
+					throw invalidUtf8();
+				chars[count++] = (char)(((b & 0x1F) << 6) | (b2 & 0x3F));
+			}
+			else if (b < (byte)0xF0){
+				if (end - index < 2)
+					throw invalidUtf8();
+				int b2 = bytes[index++];
+				int b3 = bytes[index++];
+				if ((b2 > (byte)0xBF) || (b3 > (byte)0xBF) ||
+						((b == (byte)0xE0) && (b2 < (byte)0xA0)) || // Overlong
+						((b == (byte)0xED) && (b2 >= (byte)0xA0))) // A surrogate
+					throw invalidUtf8();
+				chars[count++] = (char)(((b & 0x0F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F));
+			}
+			else{
+				if ((b > (byte)0xF4) || (end - index < 3))
+					throw invalidUtf8();
+				int b2 = bytes[index++];
+				int b3 = bytes[index++];
+				int b4 = bytes[index++];
+				if ((b2 > (byte)0xBF) || (b3 > (byte)0xBF) || (b4 > (byte)0xBF))
+					throw invalidUtf8();
+				int codePoint = ((b & 0x07) << 18) | ((b2 & 0x3F) << 12) | ((b3 & 0x3F) << 6) | (b4 & 0x3F);
+				if ((codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) || (codePoint > Character.MAX_CODE_POINT))
+					throw invalidUtf8();
+				chars[count++] = Character.highSurrogate(codePoint);
+				chars[count++] = Character.lowSurrogate(codePoint);
+			}
+		}
+
+		return new String(chars, 0, count);
+	}
+
+
+
+	/**
+	 * Returns the exception thrown for invalid UTF-8.
+	 */
+	@NotNull
+	private static MalformedProtoException invalidUtf8(){
+		return new MalformedProtoException("Protocol message had invalid UTF-8.");
+	}
+
+
+
+	/**
+	 * Private constructor; the class only has static methods.
+	 */
+	private Utf8(){}
+
+
+
+}
@@ -0,0 +1,318 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedInputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+
+/**
+ * Decodes the varints of a packed repeated field, whose contents are in a byte array (read into one
+ * from a {@link CodedInputStream}, or in place, from the buffer of a {@link ProtoReader}), one after
+ * another.
+ *
+ * Where reading 8 bytes of a heap {@link ByteBuffer} at once is a single load (Java 9 and later),
+ * varints are decoded a word at a time: the position of the first byte without the continuation
+ * bit is found among 8 bytes, and the 7-bit groups before it are gathered together with a few
+ * shifts and masks, without a branch per byte. On Java 8, where such a read is assembled byte by
+ * byte, it is slower than decoding a byte at a time, and the varints are decoded by protobuf's own
+ * (unrolled) decoder instead.
+ *
+ * @author Alexander Maryanovsky
+ */
+final class VarintDecoder{
+
+
+
+	/**
+	 * Whether multi-byte reads of heap {@link ByteBuffer}s are single loads, which makes decoding a
+	 * word at a time, and bulk reads through buffer views, faster than decoding byte by byte. This is
+	 * the case from Java 9, whose specification versions no longer start with "1.".
+	 */
+	static final boolean FAST_BUFFER_ACCESS = !System.getProperty("java.specification.version", "1.").startsWith("1.");
+
+
+
+	/**
+	 * The continuation bits of 8 bytes in a word.
+	 */
+	private static final long CONTINUATION_BITS = 0x8080808080808080L;
+
+
+
+	/**
+	 * The maximum number of bytes in a varint.
+	 */
+	private static final int MAX_VARINT_SIZE = 10;
+
+
+
+	/**
+	 * The array holding the bytes of the varints.
+	 */
+	@NotNull
+	private final byte[] bytes;
+
+
+
+	/**
+	 * The bytes of the varints, read a word at a time.
+	 */
+	@NotNull
+	private final ByteBuffer words;
+
+
+
+	/**
+	 * Decodes the varints when they aren't decoded a word at a time; {@code null} otherwise.
+	 */
+	@Nullable
+	private final CodedInputStream scalar;
+
+
+
+	/**
+	 * The index of the next varint in {@link #bytes}.
+	 */
+	private int position;
+
+
+
+	/**
+	 * The index right after the last varint in {@link #bytes}.
+	 */
+	private final int end;
+
+
+
+	/**
+	 * Creates a new decoder of the varints in the given range of the given array, which must end
+	 * with a complete varint.
+	 */
+	private VarintDecoder(@NotNull byte[] bytes, int start, int end){
+		this.bytes = bytes;
+		this.position = start;
+		this.end = end;
+		this.words = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		this.scalar = FAST_BUFFER_ACCESS ? null : CodedInputStream.newInstance(bytes, start, end - start);
+	}
+
+
+
+	/**
+	 * Reads the contents of a packed repeated varint field, whose tag has just been read, and
+	 * returns a decoder of its varints. Reading the contents before decoding them lets us count the
+	 * values, and allocate an array of exactly the right size for them.
+	 */
+	@NotNull
+	static VarintDecoder read(@NotNull CodedInputStream input) throws IOException{
+		byte[] bytes = input.readByteArray();
+		return of(bytes, 0, bytes.length);
+	}
+
+
+
+	/**
+	 * Reads the contents of a packed repeated varint field, whose tag has just been read, from the
+	 * given {@link ProtoReader}, and returns a decoder of its varints, which decodes them in place.
+	 */
+	@NotNull
+	static VarintDecoder read(@NotNull ProtoReader input) throws IOException{
+		int length = input.readRawVarint32();
+		int start = input.skip(length);
+		return of(input.buffer(), start, start + length);
+	}
+
+
+
+	/**
+	 * Returns a decoder of the varints in the given range of the given array.
+	 *
+	 * @throws MalformedProtoException if the last varint is cut off.
+	 */
+	@NotNull
+	private static VarintDecoder of(@NotNull byte[] bytes, int start, int end) throws MalformedProtoException{
+		if ((end > start) && (bytes[end - 1] < 0))
+			throw malformedVarint();
+		return new VarintDecoder(bytes, start, end);
+	}
+
+
+
+	/**
+	 * Returns the number of varints left, which is the number of bytes without the continuation bit.
+	 */
+	int count(){
+		byte[] bytes = this.bytes;
+		int end = this.end;
+		int count = 0;
+		int index = position;
+		if (FAST_BUFFER_ACCESS){
+			for (; index <= end - 8; index += 8)
+				count += Long.bitCount(~words.getLong(index) & CONTINUATION_BITS);
+		}
+		for (; index < end; ++index)
+			count += ~bytes[index] >>> 31; // Without a branch, which mixed sizes would mispredict
+		return count;
+	}
+
+
+
+	/**
+	 * Decodes and returns the next varint. Must be called at most {@link #count()} times.
+	 */
+	long next() throws IOException{
+		if (scalar != null)
+			return scalar.readRawVarint64();
+
+		byte first = bytes[position];
+		if (first >= 0){ // The most common case by far - a single byte
+			++position;
+			return first;
+		}
+
+		if (position <= end - 8){
+			long word = words.getLong(position);
+			long ends = ~word & CONTINUATION_BITS;
+			if (ends != 0){ // The varint is at most 8 bytes long
+				int bits = Long.numberOfTrailingZeros(ends) + 1; // Up to and including the last byte
+				position += bits >>> 3;
+				return gather(word & (-1L >>> (64 - bits)));
+			}
+
+			// A 9 or 10 byte varint; the bytes following a continuation bit are always there, as the
+			// last byte has none
+			byte ninth = bytes[position + 8];
+			long value = gather(word) | ((long)(ninth & 0x7F) << 56);
+			if (ninth >= 0){
+				position += 9;
+				return value;
+			}
+			byte tenth = bytes[position + 9];
+			if (tenth < 0)
+				throw malformedVarint();
+			position += 10;
+			return value | ((long)tenth << 63);
+		}
+
+		return nextByteByByte();
+	}
+
+
+
+	/**
+	 * Decodes the varints left into an array of their low 32 bits, which is how {@code int32} and
+	 * {@code uint32} values are decoded.
+	 */
+	@NotNull
+	int[] int32Values() throws IOException{
+		int[] values = new int[count()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = (int)next();
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the varints left, as {@code int64} or {@code uint64} values, into an array.
+	 */
+	@NotNull
+	long[] int64Values() throws IOException{
+		long[] values = new long[count()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = next();
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the varints left, as {@code sint32} values, into an array.
+	 */
+	@NotNull
+	int[] sInt32Values() throws IOException{
+		int[] values = new int[count()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = CodedInputStream.decodeZigZag32((int)next());
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the varints left, as {@code sint64} values, into an array.
+	 */
+	@NotNull
+	long[] sInt64Values() throws IOException{
+		long[] values = new long[count()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = CodedInputStream.decodeZigZag64(next());
+		return values;
+	}
+
+
+
+	/**
+	 * Decodes the varints left, as {@code bool} values, into an array.
+	 */
+	@NotNull
+	boolean[] boolValues() throws IOException{
+		boolean[] values = new boolean[count()];
+		for (int i = 0; i < values.length; ++i)
+			values[i] = (next() != 0L);
+		return values;
+	}
+
+
+
+	/**
+	 * Gathers the 7-bit groups of the given 8 bytes (the continuation bits are ignored) into a
+	 * 56-bit value: pairs of groups into 14 bits, then quads into 28 bits, and then all of them.
+	 */
+	private static long gather(long word){
+		long value = word & ~CONTINUATION_BITS;
+		value = (value & 0x007F007F007F007FL) | ((value & 0x7F007F007F007F00L) >>> 1);
+		value = (value & 0x00003FFF00003FFFL) | ((value & 0x3FFF00003FFF0000L) >>> 2);
+		return (value & 0x000000000FFFFFFFL) | ((value & 0x0FFFFFFF00000000L) >>> 4);
+	}
+
+
+
+	/**
+	 * Decodes and returns the next varint, a byte at a time; used for the last few bytes.
+	 */
+	private long nextByteByByte() throws MalformedProtoException{
+		byte[] bytes = this.bytes;
+		int index = position;
+		long value = 0;
+		int shift = 0;
+		byte b;
+		while ((b = bytes[index++]) < 0){
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+			if (shift == 7 * MAX_VARINT_SIZE)
+				throw malformedVarint();
+		}
+		position = index;
+		return value | ((long)b << shift);
+	}
+
+
+
+	/**
+	 * Returns the exception thrown for a malformed varint.
+	 */
+	@NotNull
+	private static MalformedProtoException malformedVarint(){
+		return new MalformedProtoException("CodedInputStream encountered a malformed varint.");
+	}
+
+
+
+}
@@ -0,0 +1,659 @@
+package com.maryanovsky.pbjz.runtime;
+
+import com.google.protobuf.CodedOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+
+
+/**
+ * The state of a single top-level write of a value. Mainly, it holds the serialized sizes of the
+ * sub-messages of the value, so that each size is computed only once per top-level
+ * {@link Codec#write(com.google.protobuf.CodedOutputStream, Object)}.
+ *
+ * The sizes are recorded by {@link Codec#computeSerializedSize(Object, WritePass)} in
+ * pre-order (a sub-message before its own sub-messages), which is the same order in which the
+ * write pass consumes them. When the write pass reaches a sub-message and there are no recorded
+ * sizes left, it computes and records the sizes of the entire sub-tree of that sub-message, so
+ * sub-messages of a value written at the top level never pay for a size pass they don't need.
+ *
+ * It also holds a scratch buffer into which packed varint fields are encoded, so that their
+ * length prefix can be written without traversing their elements twice. Large packed fixed-width
+ * fields held in primitive arrays are converted into it in bulk, too.
+ *
+ * It also holds the UTF-8 encodings of the strings whose sizes were computed, so that each string
+ * is encoded only once; the write pass copies the encoded bytes. If it has a {@link StringCache},
+ * short strings are not encoded at all, but copied from the cache.
+ *
+ * It also holds the serialized forms of the sub-messages whose codec had a
+ * {@link SerializedFormCache} when their sizes were computed, so that the write pass copies them
+ * even if the cache is set or cleared in between, and doesn't look them up again.
+ *
+ * When writing into a {@link SegmentedOutput}, it also holds that output, so that large
+ * {@code bytes} values can be appended to it by reference.
+ *
+ * An instance is used by a single write pass at a time and is not thread-safe.
+ *
+ * @author Alexander Maryanovsky
+ */
+public final class WritePass{
+
+
+
+	/**
+	 * The initial capacity of the sizes array.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+
+
+	/**
+	 * The maximum size of a varint-encoded 32-bit value.
+	 */
+	private static final int MAX_VARINT32_SIZE = 5;
+
+
+
+	/**
+	 * The room left at the start of {@link #packed} for the length prefix of a packed field.
+	 */
+	private static final int MAX_LENGTH_PREFIX_SIZE = MAX_VARINT32_SIZE;
+
+
+
+	/**
+	 * The maximum size of a varint-encoded 64-bit value.
+	 */
+	private static final int MAX_VARINT_SIZE = 10;
+
+
+
+	/**
+	 * The initial capacity of the packed field buffer.
+	 */
+	private static final int INITIAL_PACKED_CAPACITY = 64;
+
+
+
+	/**
+	 * The initial capacity of the encoded strings buffer.
+	 */
+	private static final int INITIAL_STRINGS_CAPACITY = 256;
+
+
+
+	/**
+	 * The length, in chars, of the longest string whose encoding is kept by
+	 * {@link #stringSize(String)}. Longer strings are encoded directly into the output, to avoid
+	 * reserving (and then copying) large amounts of memory for them.
+	 */
+	private static final int MAX_KEPT_STRING_LENGTH = 4096;
+
+
+
+	/**
+	 * The size recorded for a string whose encoding was not kept.
+	 */
+	private static final int STRING_NOT_KEPT = -1;
+
+
+
+	/**
+	 * The size recorded for a sub-message whose serialized form was recorded instead.
+	 */
+	static final int SERIALIZED_FORM_RECORDED = -2;
+
+
+
+	/**
+	 * The recorded sizes, in pre-order.
+	 */
+	@NotNull
+	private int[] sizes = new int[INITIAL_CAPACITY];
+
+
+
+	/**
+	 * The number of recorded sizes.
+	 */
+	private int count = 0;
+
+
+
+	/**
+	 * The index of the next size to be consumed by the write pass.
+	 */
+	private int position = 0;
+
+
+
+	/**
+	 * The output into which large {@code bytes} values are written by reference, if any.
+	 */
+	@Nullable
+	SegmentedOutput referencingOutput = null;
+
+
+
+	/**
+	 * The buffer into which the elements of a packed field are encoded, after
+	 * {@link #MAX_LENGTH_PREFIX_SIZE} bytes of room for its length prefix. Allocated on first use.
+	 */
+	@Nullable
+	private byte[] packed = null;
+
+
+
+	/**
+	 * The index in {@link #packed} right after the last encoded element.
+	 */
+	private int packedPosition = 0;
+
+
+
+	/**
+	 * The cache of the encodings of short strings, if any.
+	 */
+	@Nullable
+	StringCache stringCache = null;
+
+
+
+	/**
+	 * The buffer holding the UTF-8 encodings of the strings whose sizes were computed, back to back,
+	 * in the order in which they are written. Allocated on first use.
+	 */
+	@Nullable
+	private byte[] strings = null;
+
+
+
+	/**
+	 * The number of bytes used in {@link #strings}.
+	 */
+	private int stringsCount = 0;
+
+
+
+	/**
+	 * The index in {@link #strings} of the next encoded string to be consumed by the write pass.
+	 */
+	private int stringsPosition = 0;
+
+
+
+	/**
+	 * The serialized forms of sub-messages recorded by {@link #setSerializedForm(int, byte[])}, in
+	 * the order in which they are written. Allocated on first use.
+	 */
+	@Nullable
+	private byte[][] serializedForms = null;
+
+
+
+	/**
+	 * The number of recorded serialized forms.
+	 */
+	private int serializedFormsCount = 0;
+
+
+
+	/**
+	 * The index in {@link #serializedForms} of the next serialized form to be consumed by the write
+	 * pass.
+	 */
+	private int serializedFormsPosition = 0;
+
+
+
+	/**
+	 * Reserves a slot for the size of a sub-message, to be filled in via {@link #set(int, int)}
+	 * once the size is known, and returns its index. Slots are reserved in pre-order, so the slot
+	 * of a sub-message must be reserved before the sizes of its own sub-messages are computed.
+	 */
+	int reserve(){
+		if (count == sizes.length)
+			sizes = Arrays.copyOf(sizes, count * 2);
+		return count++;
+	}
+
+
+
+	/**
+	 * Sets the size at the given, previously reserved, slot.
+	 */
+	void set(int index, int size){
+		sizes[index] = size;
+	}
+
+
+
+	/**
+	 * Records, at the given, previously reserved, slot, that the sub-message whose size it holds is
+	 * to be written as the given serialized form, and returns the length of the form.
+	 */
+	int setSerializedForm(int index, @NotNull byte[] serializedForm){
+		if (serializedForms == null)
+			serializedForms = new byte[INITIAL_CAPACITY][];
+		else if (serializedFormsCount == serializedForms.length)
+			serializedForms = Arrays.copyOf(serializedForms, serializedFormsCount * 2);
+		serializedForms[serializedFormsCount++] = serializedForm;
+		sizes[index] = SERIALIZED_FORM_RECORDED;
+
+		return serializedForm.length;
+	}
+
+
+
+	/**
+	 * Returns the serialized size of the next sub-message to be written, which is the given value
+	 * of the given codec's type, or {@link #SERIALIZED_FORM_RECORDED} if its serialized form was
+	 * recorded instead, to be retrieved via {@link #nextSerializedForm()}. If there are no recorded
+	 * sizes left, computes (and records) the sizes of the entire sub-tree of the given value first.
+	 */
+	<T> int nextMessageSize(@NotNull Codec<T> codec, @NotNull T value){
+		if (position == count){
+			clear();
+			codec.computeSerializedSizeNoTag(value, this);
+		}
+
+		return sizes[position++];
+	}
+
+
+
+	/**
+	 * Returns the next recorded serialized form of a sub-message.
+	 */
+	@NotNull
+	byte[] nextSerializedForm(){
+		return serializedForms[serializedFormsPosition++];
+	}
+
+
+
+	/**
+	 * Starts encoding the elements of a packed field with the given number of elements, via
+	 * {@link #packVarint32(int)} and {@link #packVarint64(long)}. Room is made for all the elements,
+	 * assuming they are 32-bit values, up front.
+	 */
+	private void beginPacked(int count){
+		long capacity = MAX_LENGTH_PREFIX_SIZE + (long)count * MAX_VARINT32_SIZE;
+		if ((packed == null) || (packed.length < capacity))
+			packed = new byte[(int)Math.min(Math.max(capacity, INITIAL_PACKED_CAPACITY), Integer.MAX_VALUE - 8)];
+		packedPosition = MAX_LENGTH_PREFIX_SIZE;
+	}
+
+
+
+	/**
+	 * Makes sure {@link #packed} has room for the given number of bytes after
+	 * {@link #packedPosition}, and returns it.
+	 */
+	@NotNull
+	private byte[] packedBuffer(int length){
+		byte[] buffer = packed;
+		if (packedPosition > buffer.length - length)
+			packed = buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		return buffer;
+	}
+
+
+
+	/**
+	 * Encodes the given value, as an unsigned 32-bit varint, as the next element of the packed
+	 * field.
+	 */
+	private void packVarint32(int value){
+		byte[] buffer = packedBuffer(MAX_VARINT32_SIZE);
+		int position = packedPosition;
+		while ((value & ~0x7F) != 0){
+			buffer[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte)value;
+		packedPosition = position;
+	}
+
+
+
+	/**
+	 * Encodes the given value, as an unsigned 64-bit varint, as the next element of the packed
+	 * field.
+	 */
+	private void packVarint64(long value){
+		byte[] buffer = packedBuffer(MAX_VARINT_SIZE);
+		int position = packedPosition;
+		while ((value & ~0x7FL) != 0L){
+			buffer[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte)value;
+		packedPosition = position;
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code int32} field, to be written by
+	 * {@code endPacked}. Negative values are sign-extended to 64 bits.
+	 */
+	void packInt32(@NotNull Collection<Integer> values){
+		beginPacked(values.size());
+		for (Integer item : values){
+			int value = item;
+			if (value >= 0)
+				packVarint32(value);
+			else // Must sign-extend
+				packVarint64(value);
+		}
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code int32} field, to be written by
+	 * {@code endPacked}. Negative values are sign-extended to 64 bits.
+	 */
+	void packInt32(@NotNull int[] values){
+		beginPacked(values.length);
+		for (int value : values){
+			if (value >= 0)
+				packVarint32(value);
+			else // Must sign-extend
+				packVarint64(value);
+		}
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code uint32} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packUInt32(@NotNull Collection<Integer> values){
+		beginPacked(values.size());
+		for (Integer value : values)
+			packVarint32(value);
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code uint32} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packUInt32(@NotNull int[] values){
+		beginPacked(values.length);
+		for (int value : values)
+			packVarint32(value);
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code int64} or {@code uint64} field, to
+	 * be written by {@code endPacked}.
+	 */
+	void packInt64(@NotNull Collection<Long> values){
+		beginPacked(values.size());
+		for (Long value : values)
+			packVarint64(value);
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code int64} or {@code uint64} field, to
+	 * be written by {@code endPacked}.
+	 */
+	void packInt64(@NotNull long[] values){
+		beginPacked(values.length);
+		for (long value : values)
+			packVarint64(value);
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code sint32} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packSInt32(@NotNull Collection<Integer> values){
+		beginPacked(values.size());
+		for (Integer value : values)
+			packVarint32(CodedOutputStream.encodeZigZag32(value));
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code sint32} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packSInt32(@NotNull int[] values){
+		beginPacked(values.length);
+		for (int value : values)
+			packVarint32(CodedOutputStream.encodeZigZag32(value));
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code sint64} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packSInt64(@NotNull Collection<Long> values){
+		beginPacked(values.size());
+		for (Long value : values)
+			packVarint64(CodedOutputStream.encodeZigZag64(value));
+	}
+
+
+
+	/**
+	 * Encodes the given values as the elements of a packed {@code sint64} field, to be written by
+	 * {@code endPacked}.
+	 */
+	void packSInt64(@NotNull long[] values){
+		beginPacked(values.length);
+		for (long value : values)
+			packVarint64(CodedOutputStream.encodeZigZag64(value));
+	}
+
+
+
+	/**
+	 * Writes the packed field whose elements have been encoded, including the given tag and the
+	 * length prefix, into the given output. The prefix is placed right before the elements, so they are
+	 * written with a single copy.
+	 */
+	void endPacked(@NotNull CodedOutputStream output, int tag) throws IOException{
+		int start = prefixPacked();
+		output.writeUInt32NoTag(tag);
+		output.writeRawBytes(packed, start, packedPosition - start);
+	}
+
+
+
+	/**
+	 * Writes the packed field whose elements have been encoded, including the given tag and the
+	 * length prefix, into the given {@link ProtoWriter}.
+	 */
+	void endPacked(@NotNull ProtoWriter output, int tag){
+		int start = prefixPacked();
+		output.writeUInt32NoTag(tag);
+		output.writeRawBytes(packed, start, packedPosition - start);
+	}
+
+
+
+	/**
+	 * Encodes the length prefix of the packed field whose elements have been encoded right before
+	 * them, and returns the index at which it starts.
+	 */
+	private int prefixPacked(){
+		byte[] buffer = packed;
+		int length = packedPosition - MAX_LENGTH_PREFIX_SIZE;
+		int start = MAX_LENGTH_PREFIX_SIZE - CodedOutputStream.computeUInt32SizeNoTag(length);
+		int index = start;
+		while ((length & ~0x7F) != 0){
+			buffer[index++] = (byte)((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		buffer[index] = (byte)length;
+
+		return start;
+	}
+
+
+
+
+	/**
+	 * Returns the scratch buffer of packed fields, with room for at least the given number of
+	 * bytes, into which the elements of a packed fixed-width field can be converted in bulk.
+	 */
+	@NotNull
+	byte[] packedFixedWidthBuffer(int length){
+		if ((packed == null) || (packed.length < length))
+			packed = new byte[Math.max(length, INITIAL_PACKED_CAPACITY)];
+		return packed;
+	}
+
+
+
+	/**
+	 * Returns the serialized size (including the length prefix, but not the tag) of the given
+	 * string, which is to be written by {@link #writeString(CodedOutputStream, String)}. Unless the
+	 * string is very long, its UTF-8 encoding (copied from the {@link StringCache}, if the string is
+	 * there) is kept, so that the write pass doesn't need to encode it again.
+	 */
+	int stringSize(@NotNull String value){
+		int length = value.length();
+		byte[] cached = (stringCache == null) ? null : stringCache.encoded(value);
+		int encodedLength;
+		if (cached != null){
+			encodedLength = cached.length;
+			System.arraycopy(cached, 0, stringsBuffer(encodedLength), stringsCount, encodedLength);
+			stringsCount += encodedLength;
+			set(reserve(), encodedLength);
+		}
+		else if (length > MAX_KEPT_STRING_LENGTH){
+			encodedLength = Utf8.encodedLength(value);
+			set(reserve(), STRING_NOT_KEPT);
+		}
+		else{
+			int maxEncodedLength = length * 3; // Each char is encoded into at most 3 bytes
+			int end = Utf8.encode(value, stringsBuffer(maxEncodedLength), stringsCount);
+			encodedLength = end - stringsCount;
+			stringsCount = end;
+			set(reserve(), encodedLength);
+		}
+
+		return CodedOutputStream.computeUInt32SizeNoTag(encodedLength) + encodedLength;
+	}
+
+
+
+	/**
+	 * Returns {@link #strings}, making sure it has room for the given number of bytes after
+	 * {@link #stringsCount}.
+	 */
+	@NotNull
+	private byte[] stringsBuffer(int length){
+		byte[] buffer = strings;
+		if ((buffer == null) || (buffer.length - stringsCount < length)){
+			int capacity = (buffer == null) ? INITIAL_STRINGS_CAPACITY : buffer.length * 2;
+			capacity = Math.max(capacity, stringsCount + length);
+			strings = buffer = (buffer == null) ? new byte[capacity] : Arrays.copyOf(buffer, capacity);
+		}
+
+		return buffer;
+	}
+
+
+
+	/**
+	 * Writes the given string, with its length prefix but without a tag. If its size was computed by
+	 * {@link #stringSize(String)}, copies the encoding kept there; otherwise copies it from the
+	 * {@link StringCache}, if it's short enough to be cached, or encodes it.
+	 */
+	void writeString(@NotNull CodedOutputStream output, @NotNull String value) throws IOException{
+		int encodedLength = (position == count) ? STRING_NOT_KEPT : sizes[position++];
+		if (encodedLength == STRING_NOT_KEPT){
+			byte[] cached = (stringCache == null) ? null : stringCache.encoded(value);
+			if (cached == null)
+				output.writeStringNoTag(value);
+			else
+				output.writeByteArrayNoTag(cached);
+			return;
+		}
+
+		output.writeUInt32NoTag(encodedLength);
+		output.writeRawBytes(strings, stringsPosition, encodedLength);
+		stringsPosition += encodedLength;
+	}
+
+
+
+	/**
+	 * Writes the given string, with its length prefix but without a tag, into the given
+	 * {@link ProtoWriter}, in the same way as {@link #writeString(CodedOutputStream, String)}.
+	 */
+	void writeString(@NotNull ProtoWriter output, @NotNull String value){
+		int encodedLength = (position == count) ? STRING_NOT_KEPT : sizes[position++];
+		if (encodedLength == STRING_NOT_KEPT){
+			byte[] cached = (stringCache == null) ? null : stringCache.encoded(value);
+			if (cached == null)
+				output.writeStringNoTag(value);
+			else
+				output.writeByteArrayNoTag(cached);
+			return;
+		}
+
+		output.writeUInt32NoTag(encodedLength);
+		output.writeRawBytes(strings, stringsPosition, encodedLength);
+		stringsPosition += encodedLength;
+	}
+
+
+
+	/**
+	 * Discards all the recorded sizes and encoded strings.
+	 */
+	void clear(){
+		count = 0;
+		position = 0;
+		stringsCount = 0;
+		stringsPosition = 0;
+		if (serializedFormsCount != 0){
+			Arrays.fill(serializedForms, 0, serializedFormsCount, null); // Don't retain them
+			serializedFormsCount = 0;
+			serializedFormsPosition = 0;
+		}
+	}
+
+
+
+	/**
+	 * Discards all the recorded sizes and drops the buffers that have grown beyond the given
+	 * number of bytes, so that they aren't retained.
+	 */
+	void trim(int maxRetainedBufferSize){
+		clear();
+		if (sizes.length > Math.max(maxRetainedBufferSize / 4, INITIAL_CAPACITY)) // Each size is 4 bytes
+			sizes = new int[INITIAL_CAPACITY];
+		if ((packed != null) && (packed.length > maxRetainedBufferSize))
+			packed = null;
+		if ((strings != null) && (strings.length > maxRetainedBufferSize))
+			strings = null;
+	}
+
+
+
+}